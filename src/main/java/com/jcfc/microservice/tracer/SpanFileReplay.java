@@ -0,0 +1,118 @@
+package com.jcfc.microservice.tracer;
+
+import com.jcfc.microservice.tracer.reporter.SpanSegmentReader;
+import zipkin2.CheckResult;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.reporter.Sender;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * 把FileSender写出的分段文件转发给其他sender
+ * <pre>
+ * java -cp ... com.jcfc.microservice.tracer.SpanFileReplay &lt;分段目录或文件&gt; [tracer.properties路径]
+ * </pre>
+ * 目标sender按配置文件里的zipkin.sender.*构建，不指定配置文件时用classpath上的tracer.properties。
+ * 记录按原样转发，超过目标sender消息上限的记录拆开后重新分批。
+ *
+ * @version 1.0
+ */
+public final class SpanFileReplay {
+
+	private SpanFileReplay() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("用法：SpanFileReplay <分段目录或文件> [tracer.properties路径]");
+			System.exit(1);
+		}
+		Properties props;
+		if (args.length > 1) {
+			props = new Properties();
+			try (InputStream in = new FileInputStream(args[1])) {
+				props.load(in);
+			}
+		} else {
+			props = TracerProperties.getProperties();
+		}
+		TracerConfig config = TracerConfig.fromProperties(props);
+		if (config.isFileSender()) {
+			System.err.println("目标sender不能是file，请在配置文件里改为rabbitmq");
+			System.exit(1);
+		}
+
+		Sender sender = TracerManager.newSender(config);
+		try {
+			CheckResult check = sender.check();
+			if (!check.ok()) {
+				System.err.println("检查" + sender + "失败：" + check.error());
+				System.exit(1);
+			}
+			long start = System.currentTimeMillis();
+			int[] counts = replay(new File(args[0]), sender);
+			System.out.println("转发完成：" + counts[0] + "条记录，" + counts[1] + "个消息，耗时"
+					+ (System.currentTimeMillis() - start) + "ms");
+		} finally {
+			sender.close();
+		}
+	}
+
+	/**
+	 * 读取分段文件并发送
+	 *
+	 * @return 读到的记录数、发送的消息数
+	 */
+	public static int[] replay(File path, final Sender sender) throws IOException {
+		final int[] messages = new int[1];
+		int records = SpanSegmentReader.read(path, new SpanSegmentReader.Handler() {
+			@Override
+			public void record(File segment, byte[] message) throws IOException {
+				messages[0] += forward(message, sender);
+			}
+		});
+		return new int[]{records, messages[0]};
+	}
+
+	/** 记录是完整的JSON列表，去掉方括号作为一段交给sender，由sender重新加上 */
+	private static int forward(byte[] message, Sender sender) throws IOException {
+		if (message.length <= 2) {
+			return 0;
+		}
+		if (message.length <= sender.messageMaxBytes()) {
+			sender.sendSpans(Collections.singletonList(Arrays.copyOfRange(message, 1, message.length - 1))).execute();
+			return 1;
+		}
+		// 目标的消息上限更小，拆成单个span重新分批
+		List<Span> spans = SpanBytesDecoder.JSON_V2.decodeList(message);
+		List<byte[]> batch = new ArrayList<>();
+		int size = 2;
+		int sent = 0;
+		for (Span span : spans) {
+			byte[] encoded = SpanBytesEncoder.JSON_V2.encode(span);
+			if (!batch.isEmpty() && size + 1 + encoded.length > sender.messageMaxBytes()) {
+				sender.sendSpans(batch).execute();
+				sent++;
+				batch = new ArrayList<>();
+				size = 2;
+			}
+			size += (batch.isEmpty() ? 0 : 1) + encoded.length;
+			batch.add(encoded);
+		}
+		if (!batch.isEmpty()) {
+			sender.sendSpans(batch).execute();
+			sent++;
+		}
+		return sent;
+	}
+}
@@ -0,0 +1,407 @@
+package com.jcfc.microservice.tracer;
+
+import brave.sampler.BoundarySampler;
+import brave.sampler.Sampler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * tracer的配置快照
+ * 不可变对象，整体通过volatile引用替换，请求路径上读取配置不需要加锁。
+ * 采样率、tag长度、报文采集开关、aop模式可以在运行时生效；上报相关的配置变化时由{@link TracerManager}重建上报器。
+ *
+ * @version 1.0
+ */
+public final class TracerConfig {
+	private static final Logger logger = LoggerFactory.getLogger(TracerConfig.class);
+
+	static final String ZIPKIN_SENDER_RABBITMQ_ADDRESSES = "zipkin.sender.rabbitmq.addresses";
+	static final String ZIPKIN_SENDER_RABBITMQ_USERNAME = "zipkin.sender.rabbitmq.username";
+	static final String ZIPKIN_SENDER_RABBITMQ_PASSWORD = "zipkin.sender.rabbitmq.password";
+	static final String ZIPKIN_SENDER_TYPE = "zipkin.sender.type";
+	static final String ZIPKIN_SENDER_FILE_DIR = "zipkin.sender.file.dir";
+	static final String ZIPKIN_SENDER_FILE_SEGMENT_SIZE = "zipkin.sender.file.segment-size";
+	static final String ZIPKIN_SENDER_FILE_MAX_SEGMENTS = "zipkin.sender.file.max-segments";
+	static final String ZIPKIN_SENDER_FILE_FSYNC = "zipkin.sender.file.fsync";
+	static final String ZIPKIN_REPORTER_MESSAGE_TIMEOUT = "zipkin.reporter.message-timeout";
+	static final String ZIPKIN_REPORTER_TYPE = "zipkin.reporter.type";
+	static final String ZIPKIN_REPORTER_QUEUED_MAX_SPANS = "zipkin.reporter.queued-max-spans";
+	static final String ZIPKIN_REPORTER_QUEUED_MAX_BYTES = "zipkin.reporter.queued-max-bytes";
+	static final String ZIPKIN_REPORTER_SLOW_THRESHOLD = "zipkin.reporter.slow-threshold";
+	static final String ZIPKIN_REPORTER_ENCODER_THREADS = "zipkin.reporter.encoder-threads";
+	static final String ZIPKIN_REPORTER_MAX_INFLIGHT_SENDS = "zipkin.reporter.max-inflight-sends";
+	static final String TRACER_SERVER_NAME = "tracer.server.name";
+	static final String TRACER_CONTEXT_NAME = "tracer.context.name";
+	static final String TRACER_SAMPLER_PERCENTAGE = "tracer.sampler.percentage";
+	static final String TRACER_TAG_MAX_LENGTH = "tracer.tag.max-length";
+	static final String TRACER_TRACE_ID_128BIT = "tracer.trace-id.128bit";
+	static final String TRACER_CAPTURE_ARGS = "tracer.capture.args";
+	static final String TRACER_CAPTURE_RESULT = "tracer.capture.result";
+	static final String TRACER_AOP_SPAN_MODE = "tracer.aop.span.mode";
+	static final String TRACER_AOP_COLLAPSE_THRESHOLD = "tracer.aop.collapse.threshold";
+	static final String TRACER_AGGREGATE_KEEP = "tracer.aggregate.keep";
+	static final String TRACER_AGGREGATE_MAX_PARENTS = "tracer.aggregate.max-parents";
+	static final String TRACER_SPAN_STORE_ENABLED = "tracer.span.store.enabled";
+	static final String TRACER_SPAN_STORE_CAPACITY = "tracer.span.store.capacity";
+	static final String TRACER_SPAN_STORE_MAX_BYTES = "tracer.span.store.max-bytes";
+	static final String TRACER_METRICS_ENABLED = "tracer.metrics.enabled";
+	static final String TRACER_METRICS_LOG_INTERVAL = "tracer.metrics.log-interval";
+	static final String TRACER_CONFIG_WATCH = "tracer.config.watch";
+	//命名实例的配置前缀：tracer.instance.<实例名>.server.name / .sampler.percentage
+	static final String TRACER_INSTANCE_PREFIX = "tracer.instance.";
+
+	private static volatile TracerConfig current = new TracerConfig(new Properties());
+
+	private final Properties props;
+	private final String serverName;
+	private final String contextName;
+	private final float samplerPercentage;
+	private final Sampler sampler;
+	private final int maxTagLength;
+	private final boolean traceId128Bit;
+	private final boolean captureArgs;
+	private final boolean captureResult;
+	private final boolean aopLocalSpan;
+	private final long aopCollapseThreshold;
+	private final String senderAddresses;
+	private final String senderUsername;
+	private final String senderPassword;
+	private final boolean fileSender;
+	private final String senderFileDir;
+	private final int senderFileSegmentSize;
+	private final int senderFileMaxSegments;
+	private final long senderFileFsync;
+	private final long messageTimeout;
+	private final boolean priorityReporter;
+	private final int queuedMaxSpans;
+	private final long queuedMaxBytes;
+	private final long slowThreshold;
+	private final int encoderThreads;
+	private final int maxInflightSends;
+	private final int aggregateKeep;
+	private final int aggregateMaxParents;
+	private final boolean spanStoreEnabled;
+	private final int spanStoreCapacity;
+	private final long spanStoreMaxBytes;
+	//命名实例的采样器，首次使用时创建
+	private final ConcurrentMap<String, Sampler> instanceSamplers = new ConcurrentHashMap<>();
+
+	private TracerConfig(Properties props) {
+		this.props = props;
+		this.serverName = props.getProperty(TRACER_SERVER_NAME, "tracer-server");
+		this.contextName = props.getProperty(TRACER_CONTEXT_NAME);
+		this.samplerPercentage = clampPercentage(parseFloat(props.getProperty(TRACER_SAMPLER_PERCENTAGE), 1.0f));
+		this.sampler = BoundarySampler.create(samplerPercentage);
+		this.maxTagLength = (int) parseLong(props.getProperty(TRACER_TAG_MAX_LENGTH), 100000L);
+		//新链路使用128位traceId，高位带epoch秒
+		this.traceId128Bit = "true".equalsIgnoreCase(props.getProperty(TRACER_TRACE_ID_128BIT));
+		this.captureArgs = !"false".equalsIgnoreCase(props.getProperty(TRACER_CAPTURE_ARGS));
+		this.captureResult = !"false".equalsIgnoreCase(props.getProperty(TRACER_CAPTURE_RESULT));
+		//aop的span模式：client（默认，按远程调用记录）|local（进程内的本地span，不带kind和远程地址）
+		this.aopLocalSpan = "local".equalsIgnoreCase(props.getProperty(TRACER_AOP_SPAN_MODE));
+		//local模式下，耗时低于该阈值(毫秒)的aop span不上报，只在父span上计数，0表示不折叠
+		this.aopCollapseThreshold = parseLong(props.getProperty(TRACER_AOP_COLLAPSE_THRESHOLD), 0L);
+		this.senderAddresses = props.getProperty(ZIPKIN_SENDER_RABBITMQ_ADDRESSES);
+		this.senderUsername = props.getProperty(ZIPKIN_SENDER_RABBITMQ_USERNAME);
+		this.senderPassword = props.getProperty(ZIPKIN_SENDER_RABBITMQ_PASSWORD);
+		//发送器：rabbitmq（默认）|file（写本地分段文件）
+		this.fileSender = "file".equalsIgnoreCase(props.getProperty(ZIPKIN_SENDER_TYPE));
+		this.senderFileDir = props.getProperty(ZIPKIN_SENDER_FILE_DIR,
+				System.getProperty("java.io.tmpdir") + "/tracer-spans");
+		this.senderFileSegmentSize = (int) Math.min(Integer.MAX_VALUE,
+				parseLong(props.getProperty(ZIPKIN_SENDER_FILE_SEGMENT_SIZE), 64L * 1024 * 1024));
+		this.senderFileMaxSegments = (int) parseLong(props.getProperty(ZIPKIN_SENDER_FILE_MAX_SEGMENTS), 16L);
+		//刷盘：always每条记录都刷，never交给操作系统，数字表示间隔毫秒数
+		this.senderFileFsync = parseFsync(props.getProperty(ZIPKIN_SENDER_FILE_FSYNC));
+		this.messageTimeout = parseLong(props.getProperty(ZIPKIN_REPORTER_MESSAGE_TIMEOUT), 500L);
+		//上报器：priority（默认，按错误、慢调用、其他分级排队）|async（zipkin自带的AsyncReporter）
+		this.priorityReporter = !"async".equalsIgnoreCase(props.getProperty(ZIPKIN_REPORTER_TYPE));
+		this.queuedMaxSpans = (int) parseLong(props.getProperty(ZIPKIN_REPORTER_QUEUED_MAX_SPANS), 10000L);
+		//默认取堆内存的1%，和AsyncReporter一致
+		this.queuedMaxBytes = parseLong(props.getProperty(ZIPKIN_REPORTER_QUEUED_MAX_BYTES), Runtime.getRuntime().maxMemory() / 100);
+		this.slowThreshold = parseLong(props.getProperty(ZIPKIN_REPORTER_SLOW_THRESHOLD), 1000L);
+		//编码发送线程数，默认每8个核一个；并发发送数默认和线程数相同
+		this.encoderThreads = Math.max(1, (int) parseLong(props.getProperty(ZIPKIN_REPORTER_ENCODER_THREADS),
+				Math.max(1, Runtime.getRuntime().availableProcessors() / 8)));
+		this.maxInflightSends = Math.max(1, (int) parseLong(props.getProperty(ZIPKIN_REPORTER_MAX_INFLIGHT_SENDS), encoderThreads));
+		this.aggregateKeep = (int) parseLong(props.getProperty(TRACER_AGGREGATE_KEEP), -1L);
+		this.aggregateMaxParents = (int) parseLong(props.getProperty(TRACER_AGGREGATE_MAX_PARENTS), 1024L);
+		//本地保存最近的span供查询，默认关闭
+		this.spanStoreEnabled = "true".equalsIgnoreCase(props.getProperty(TRACER_SPAN_STORE_ENABLED));
+		this.spanStoreCapacity = (int) Math.min(1 << 30, parseLong(props.getProperty(TRACER_SPAN_STORE_CAPACITY), 10000L));
+		this.spanStoreMaxBytes = parseLong(props.getProperty(TRACER_SPAN_STORE_MAX_BYTES), 32L * 1024 * 1024);
+	}
+
+	/** 由配置文件内容生成快照，props会被复制 */
+	static TracerConfig fromProperties(Properties props) {
+		Properties copy = new Properties();
+		copy.putAll(props);
+		return new TracerConfig(copy);
+	}
+
+	/** 当前生效的配置 */
+	public static TracerConfig current() {
+		return current;
+	}
+
+	static void setCurrent(TracerConfig config) {
+		current = config;
+	}
+
+	/** 修改一项配置，返回新的快照 */
+	TracerConfig with(String key, String value) {
+		Properties copy = new Properties();
+		copy.putAll(props);
+		if (value == null) {
+			copy.remove(key);
+		} else {
+			copy.setProperty(key, value);
+		}
+		return new TracerConfig(copy);
+	}
+
+	/** 原始配置项，供各模块读取自己的扩展配置 */
+	public String getProperty(String key) {
+		return props.getProperty(key);
+	}
+
+	/** 上报相关的配置是否相同，不同时需要重建上报器 */
+	boolean sameReporterSettings(TracerConfig other) {
+		return other != null
+				&& equal(senderAddresses, other.senderAddresses)
+				&& equal(senderUsername, other.senderUsername)
+				&& equal(senderPassword, other.senderPassword)
+				&& fileSender == other.fileSender
+				&& equal(senderFileDir, other.senderFileDir)
+				&& senderFileSegmentSize == other.senderFileSegmentSize
+				&& senderFileMaxSegments == other.senderFileMaxSegments
+				&& senderFileFsync == other.senderFileFsync
+				&& messageTimeout == other.messageTimeout
+				&& priorityReporter == other.priorityReporter
+				&& queuedMaxSpans == other.queuedMaxSpans
+				&& queuedMaxBytes == other.queuedMaxBytes
+				&& slowThreshold == other.slowThreshold
+				&& encoderThreads == other.encoderThreads
+				&& maxInflightSends == other.maxInflightSends
+				&& aggregateKeep == other.aggregateKeep
+				&& aggregateMaxParents == other.aggregateMaxParents
+				&& spanStoreEnabled == other.spanStoreEnabled
+				&& spanStoreCapacity == other.spanStoreCapacity
+				&& spanStoreMaxBytes == other.spanStoreMaxBytes;
+	}
+
+	public String getServerName() {
+		return serverName;
+	}
+
+	public String getContextName() {
+		return contextName;
+	}
+
+	public float getSamplerPercentage() {
+		return samplerPercentage;
+	}
+
+	public Sampler getSampler() {
+		return sampler;
+	}
+
+	/** 命名实例的应用名，不配置时使用实例名 */
+	public String getServerName(String instance) {
+		return props.getProperty(TRACER_INSTANCE_PREFIX + instance + ".server.name", instance);
+	}
+
+	/** 命名实例的采样率，不配置时使用全局采样率 */
+	public float getSamplerPercentage(String instance) {
+		String value = props.getProperty(TRACER_INSTANCE_PREFIX + instance + ".sampler.percentage");
+		return value == null ? samplerPercentage : clampPercentage(parseFloat(value, samplerPercentage));
+	}
+
+	/** 命名实例的采样器 */
+	public Sampler getSampler(String instance) {
+		Sampler instanceSampler = instanceSamplers.get(instance);
+		if (instanceSampler == null) {
+			float percentage = getSamplerPercentage(instance);
+			instanceSampler = percentage == samplerPercentage ? sampler : BoundarySampler.create(percentage);
+			Sampler previous = instanceSamplers.putIfAbsent(instance, instanceSampler);
+			if (previous != null) {
+				instanceSampler = previous;
+			}
+		}
+		return instanceSampler;
+	}
+
+	public int getMaxTagLength() {
+		return maxTagLength;
+	}
+
+	public boolean isTraceId128Bit() {
+		return traceId128Bit;
+	}
+
+	public boolean isCaptureArgs() {
+		return captureArgs;
+	}
+
+	public boolean isCaptureResult() {
+		return captureResult;
+	}
+
+	public boolean isAopLocalSpan() {
+		return aopLocalSpan;
+	}
+
+	public long getAopCollapseThreshold() {
+		return aopCollapseThreshold;
+	}
+
+	public String getSenderAddresses() {
+		return senderAddresses;
+	}
+
+	public String getSenderUsername() {
+		return senderUsername;
+	}
+
+	String getSenderPassword() {
+		return senderPassword;
+	}
+
+	public boolean isFileSender() {
+		return fileSender;
+	}
+
+	public String getSenderFileDir() {
+		return senderFileDir;
+	}
+
+	public int getSenderFileSegmentSize() {
+		return senderFileSegmentSize;
+	}
+
+	public int getSenderFileMaxSegments() {
+		return senderFileMaxSegments;
+	}
+
+	/** 刷盘间隔(毫秒)，0表示每条记录都刷，-1表示不主动刷 */
+	public long getSenderFileFsync() {
+		return senderFileFsync;
+	}
+
+	public long getMessageTimeout() {
+		return messageTimeout;
+	}
+
+	public boolean isPriorityReporter() {
+		return priorityReporter;
+	}
+
+	public int getQueuedMaxSpans() {
+		return queuedMaxSpans;
+	}
+
+	public long getQueuedMaxBytes() {
+		return queuedMaxBytes;
+	}
+
+	public long getSlowThreshold() {
+		return slowThreshold;
+	}
+
+	public int getEncoderThreads() {
+		return encoderThreads;
+	}
+
+	public int getMaxInflightSends() {
+		return maxInflightSends;
+	}
+
+	public int getAggregateKeep() {
+		return aggregateKeep;
+	}
+
+	public int getAggregateMaxParents() {
+		return aggregateMaxParents;
+	}
+
+	public boolean isSpanStoreEnabled() {
+		return spanStoreEnabled;
+	}
+
+	public int getSpanStoreCapacity() {
+		return spanStoreCapacity;
+	}
+
+	public long getSpanStoreMaxBytes() {
+		return spanStoreMaxBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "TracerConfig{serverName=" + serverName
+				+ ", samplerPercentage=" + samplerPercentage
+				+ ", maxTagLength=" + maxTagLength
+				+ ", traceId128Bit=" + traceId128Bit
+				+ ", captureArgs=" + captureArgs
+				+ ", captureResult=" + captureResult
+				+ ", aopLocalSpan=" + aopLocalSpan
+				+ ", aopCollapseThreshold=" + aopCollapseThreshold
+				+ ", sender=" + (fileSender ? "file:" + senderFileDir : "rabbitmq")
+				+ ", senderAddresses=" + senderAddresses
+				+ ", messageTimeout=" + messageTimeout
+				+ ", reporter=" + (priorityReporter ? "priority" : "async")
+				+ ", encoderThreads=" + encoderThreads
+				+ ", maxInflightSends=" + maxInflightSends
+				+ ", aggregateKeep=" + aggregateKeep
+				+ ", aggregateMaxParents=" + aggregateMaxParents
+				+ ", spanStore=" + (spanStoreEnabled ? spanStoreCapacity + "/" + spanStoreMaxBytes : "off") + "}";
+	}
+
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	//BoundarySampler最小支持0.0001
+	private static float clampPercentage(float value) {
+		float percentage = Math.max(0f, Math.min(1f, value));
+		return percentage > 0f && percentage < 0.0001f ? 0.0001f : percentage;
+	}
+
+	public static long parseLong(String value, long defaultValue) {
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			logger.error("配置项格式错误：" + value);
+			return defaultValue;
+		}
+	}
+
+	static long parseFsync(String value) {
+		if (value != null && "always".equalsIgnoreCase(value.trim())) {
+			return 0L;
+		}
+		if (value != null && "never".equalsIgnoreCase(value.trim())) {
+			return -1L;
+		}
+		return Math.max(0L, parseLong(value, 1000L));
+	}
+
+	static float parseFloat(String value, float defaultValue) {
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Float.parseFloat(value.trim());
+		} catch (NumberFormatException e) {
+			logger.error("配置项格式错误：" + value);
+			return defaultValue;
+		}
+	}
+}
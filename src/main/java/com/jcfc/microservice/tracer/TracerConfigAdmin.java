@@ -0,0 +1,93 @@
+package com.jcfc.microservice.tracer;
+
+/**
+ * {@link TracerConfigAdminMBean}的实现，每次修改都交给{@link TracerManager}在锁内生成新的配置快照，并记为覆盖项
+ *
+ * @version 1.0
+ */
+final class TracerConfigAdmin implements TracerConfigAdminMBean {
+
+    static final String OBJECT_NAME = "com.jcfc.microservice.tracer:type=TracerConfig";
+
+    private final TracerManager manager;
+
+    TracerConfigAdmin(TracerManager manager) {
+        this.manager = manager;
+    }
+
+    private void set(String key, String value) {
+        manager.updateConfig(key, value);
+    }
+
+    @Override public float getSamplerPercentage() {
+        return TracerConfig.current().getSamplerPercentage();
+    }
+
+    @Override public void setSamplerPercentage(float percentage) {
+        set(TracerConfig.TRACER_SAMPLER_PERCENTAGE, Float.toString(percentage));
+    }
+
+    @Override public int getMaxTagLength() {
+        return TracerConfig.current().getMaxTagLength();
+    }
+
+    @Override public void setMaxTagLength(int maxTagLength) {
+        set(TracerConfig.TRACER_TAG_MAX_LENGTH, Integer.toString(maxTagLength));
+    }
+
+    @Override public boolean isCaptureArgs() {
+        return TracerConfig.current().isCaptureArgs();
+    }
+
+    @Override public void setCaptureArgs(boolean captureArgs) {
+        set(TracerConfig.TRACER_CAPTURE_ARGS, Boolean.toString(captureArgs));
+    }
+
+    @Override public boolean isCaptureResult() {
+        return TracerConfig.current().isCaptureResult();
+    }
+
+    @Override public void setCaptureResult(boolean captureResult) {
+        set(TracerConfig.TRACER_CAPTURE_RESULT, Boolean.toString(captureResult));
+    }
+
+    @Override public boolean isAopLocalSpan() {
+        return TracerConfig.current().isAopLocalSpan();
+    }
+
+    @Override public void setAopLocalSpan(boolean aopLocalSpan) {
+        set(TracerConfig.TRACER_AOP_SPAN_MODE, aopLocalSpan ? "local" : "client");
+    }
+
+    @Override public long getAopCollapseThreshold() {
+        return TracerConfig.current().getAopCollapseThreshold();
+    }
+
+    @Override public void setAopCollapseThreshold(long threshold) {
+        set(TracerConfig.TRACER_AOP_COLLAPSE_THRESHOLD, Long.toString(threshold));
+    }
+
+    @Override public String getSenderAddresses() {
+        return TracerConfig.current().getSenderAddresses();
+    }
+
+    @Override public void setSenderAddresses(String addresses) {
+        set(TracerConfig.ZIPKIN_SENDER_RABBITMQ_ADDRESSES, addresses);
+    }
+
+    @Override public void setInstanceSamplerPercentage(String instance, float percentage) {
+        set(TracerConfig.TRACER_INSTANCE_PREFIX + instance + ".sampler.percentage", Float.toString(percentage));
+    }
+
+    @Override public String getInstances() {
+        return manager.getInstanceNames().toString();
+    }
+
+    @Override public String getConfig() {
+        return TracerConfig.current().toString();
+    }
+
+    @Override public void reload() {
+        manager.reload();
+    }
+}
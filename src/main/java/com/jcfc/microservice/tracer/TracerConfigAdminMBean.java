@@ -0,0 +1,49 @@
+package com.jcfc.microservice.tracer;
+
+/**
+ * 通过JMX在线修改tracer配置
+ *
+ * @version 1.0
+ */
+public interface TracerConfigAdminMBean {
+
+    float getSamplerPercentage();
+
+    void setSamplerPercentage(float percentage);
+
+    int getMaxTagLength();
+
+    void setMaxTagLength(int maxTagLength);
+
+    boolean isCaptureArgs();
+
+    void setCaptureArgs(boolean captureArgs);
+
+    boolean isCaptureResult();
+
+    void setCaptureResult(boolean captureResult);
+
+    boolean isAopLocalSpan();
+
+    void setAopLocalSpan(boolean aopLocalSpan);
+
+    long getAopCollapseThreshold();
+
+    void setAopCollapseThreshold(long threshold);
+
+    String getSenderAddresses();
+
+    void setSenderAddresses(String addresses);
+
+    /** 修改命名实例的采样率 */
+    void setInstanceSamplerPercentage(String instance, float percentage);
+
+    /** 已创建的命名实例 */
+    String getInstances();
+
+    /** 当前配置 */
+    String getConfig();
+
+    /** 重新读取tracer.properties，通过JMX修改过的项仍以JMX的值为准 */
+    void reload();
+}
@@ -0,0 +1,86 @@
+package com.jcfc.microservice.tracer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * 监听tracer.properties文件的修改，变化后重新加载配置
+ * 只在配置文件位于文件系统上时生效，打在jar包里的配置只能通过JMX修改
+ *
+ * @version 1.0
+ */
+final class TracerConfigWatcher implements Runnable {
+	private static final Logger logger = LoggerFactory.getLogger(TracerConfigWatcher.class);
+
+	private final TracerManager manager;
+	private final Path file;
+
+	private TracerConfigWatcher(TracerManager manager, Path file) {
+		this.manager = manager;
+		this.file = file;
+	}
+
+	/**
+	 * 启动后台监听线程
+	 */
+	static void start(TracerManager manager) {
+		URL resource = TracerProperties.getResource();
+		if (resource == null || !"file".equals(resource.getProtocol())) {
+			return;
+		}
+		try {
+			Path file = Paths.get(resource.toURI());
+			Thread thread = new Thread(new TracerConfigWatcher(manager, file), "Tracer Config Watcher");
+			thread.setDaemon(true);
+			thread.start();
+		} catch (Exception e) {
+			logger.warn("无法监听tracer.properties的修改：" + e.getMessage());
+		}
+	}
+
+	@Override
+	public void run() {
+		Path dir = file.getParent();
+		try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+			dir.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+			while (!Thread.currentThread().isInterrupted()) {
+				WatchKey key = watcher.take();
+				boolean changed = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					Object context = event.context();
+					if (context instanceof Path && file.getFileName().equals(context)) {
+						changed = true;
+					}
+				}
+				if (changed) {
+					reload();
+				}
+				if (!key.reset()) {
+					logger.warn("tracer.properties所在目录已不可访问，停止监听");
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			logger.warn("监听tracer.properties出现异常：" + e.getMessage());
+		}
+	}
+
+	private void reload() {
+		try {
+			manager.reload();
+		} catch (RuntimeException e) {
+			logger.error("重新加载tracer.properties失败：" + e.getMessage(), e);
+		}
+	}
+}
@@ -11,6 +11,7 @@ public class TracerContext {
     private String addresses;//MQ地址
     private String userName;//MQ用户名
     private String password;//MQ密码
+    private String instance;//命名实例，不配置时为默认实例
 
     public String getServerName() {
         return serverName;
@@ -59,4 +60,12 @@ public class TracerContext {
     public void setPassword(String password) {
         this.password = password;
     }
+
+    public String getInstance() {
+        return instance;
+    }
+
+    public void setInstance(String instance) {
+        this.instance = instance;
+    }
 }
@@ -6,12 +6,24 @@ import brave.context.log4j2.ThreadContextCurrentTraceContext;
 import brave.propagation.B3Propagation;
 import brave.propagation.CurrentTraceContext;
 import brave.propagation.ExtraFieldPropagation;
-import brave.sampler.BoundarySampler;
+import brave.sampler.Sampler;
+import com.jcfc.microservice.tracer.metrics.SpanMetrics;
+import com.jcfc.microservice.tracer.metrics.TracerMetrics;
+import com.jcfc.microservice.tracer.reporter.AggregatingReporter;
+import com.jcfc.microservice.tracer.reporter.BufferingReporter;
+import com.jcfc.microservice.tracer.reporter.FileSender;
+import com.jcfc.microservice.tracer.reporter.FilteringReporter;
+import com.jcfc.microservice.tracer.reporter.LocalEndpointReporter;
+import com.jcfc.microservice.tracer.reporter.PriorityReporter;
+import com.jcfc.microservice.tracer.reporter.ReloadableReporter;
+import com.jcfc.microservice.tracer.store.SpanStore;
+import com.jcfc.microservice.tracer.utils.DedupCurrentTraceContext;
 import com.jcfc.microservice.tracer.utils.NetworkUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import zipkin2.Endpoint;
+import zipkin2.CheckResult;
 import zipkin2.Span;
 import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.reporter.AsyncReporter;
@@ -19,6 +31,16 @@ import zipkin2.reporter.Reporter;
 import zipkin2.reporter.Sender;
 import zipkin2.reporter.amqp.RabbitMQSender;
 
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 
@@ -33,77 +55,365 @@ import java.util.concurrent.TimeUnit;
 public class TracerManager {
 	private static final Logger logger = LoggerFactory.getLogger(TracerManager.class);
 
-	static private final String ZIPKIN_SENDER_RABBITMQ_ADDRESSES = "zipkin.sender.rabbitmq.addresses";
-	static private final String ZIPKIN_SENDER_RABBITMQ_USERNAME = "zipkin.sender.rabbitmq.username";
-	static private final String ZIPKIN_SENDER_RABBITMQ_PASSWORD = "zipkin.sender.rabbitmq.password";
-	static private final String TRACER_SERVER_NAME = "tracer.server.name";
-	static private final String TRACER_CONTEXT_NAME = "tracer.context.name";
-	static private final String TRACER_SAMPLER_PERCENTAGE = "tracer.sampler.percentage";
-
-	static private Tracing tracing;
-	static private String contextName = TracerProperties.getProperty(TRACER_CONTEXT_NAME);
-	static private final CurrentTraceContext CURRENT_TRACE_CONTEXT = findCurrentTraceContext();
+	static private volatile Tracing tracing;
+	static private String contextName = TracerProperties.getProperty(TracerConfig.TRACER_CONTEXT_NAME);
+	//同一个上下文重复进入作用域时跳过，嵌套埋点每层只切换一次线程上下文
+	static private final CurrentTraceContext CURRENT_TRACE_CONTEXT = DedupCurrentTraceContext.wrap(findCurrentTraceContext());
+	//进程内调用指标，默认开启，不受采样率影响
+	static private final SpanMetrics spanMetrics = "false".equalsIgnoreCase(TracerProperties.getProperty(TracerConfig.TRACER_METRICS_ENABLED))
+			? SpanMetrics.noop() : SpanMetrics.create();
+	//每次采样都读取当前配置快照里的采样器，采样率修改后立即生效
+	static private final Sampler SAMPLER = new Sampler() {
+		@Override
+		public boolean isSampled(long traceId) {
+			return TracerConfig.current().getSampler().isSampled(traceId);
+		}
+	};
+	//Tracing持有的上报器，上报相关配置变化时替换其中实际的上报管道
+	static private final ReloadableReporter REPORTER = new ReloadableReporter(Reporter.NOOP);
+	static private Sender sender;
+	static private Reporter<Span> spanReporter;
+	//当前上报通道对应的配置，以及正在后台建立、尚未就绪的通道前面的缓冲
+	static private TracerConfig reporterConfig;
+	static private BufferingReporter pendingBuffer;
+	static private boolean adminStarted;
+	//命名实例，各自的应用名和采样率
+	static private final ConcurrentMap<String, Tracing> INSTANCES = new ConcurrentHashMap<>();
+	public static final String DEFAULT_INSTANCE = "default";
+	//通道建立期间最多缓冲的span个数
+	static private final int STARTUP_BUFFER_SIZE = 10000;
+	//通道建立失败后的重试间隔，每次翻倍
+	static private final long CONNECT_RETRY_MIN_MILLIS = 1000L;
+	static private final long CONNECT_RETRY_MAX_MILLIS = 60000L;
+	//通道建立失败期间的上报器，丢弃的span计入统计
+	static private final Reporter<Span> DROPPING_REPORTER = new Reporter<Span>() {
+		@Override
+		public void report(Span span) {
+			TracerMetrics.getInstance().spansDropped(1);
+		}
+	};
+	//spring配置的TracerContext覆盖配置文件的项，重新加载配置文件时再叠加上去
+	static private final Properties OVERRIDES = new Properties();
+	//通过JMX修改的项，叠加在最上层，重新加载配置文件后仍然有效，直到进程重启
+	static private final Properties JMX_OVERRIDES = new Properties();
 
 	@Autowired
 	private TracerContext tracerContext;
 
 	private static final TracerManager tracerManager = new TracerManager();
 
-	static {
-		load();
-	}
-
 	public void init(){
-		if(tracerContext != null){
+		if(tracerContext != null && !isDefaultInstance(tracerContext.getInstance())){
+			//其他模块的命名实例：只登记自己的应用名和采样率，不替换默认实例，共用上报通道
+			//先加载默认配置，实例的配置项叠加在配置文件上，而不是叠加在还没加载的默认值上
+			getTracing();
+			String prefix = TracerConfig.TRACER_INSTANCE_PREFIX + tracerContext.getInstance();
+			synchronized (TracerManager.class) {
+				putIfNotNull(OVERRIDES, prefix + ".server.name", tracerContext.getServerName());
+				putIfNotNull(OVERRIDES, prefix + ".sampler.percentage", tracerContext.getPercentage());
+				applyConfig(TracerConfig.fromProperties(withOverrides(TracerProperties.getProperties())));
+			}
+			getTracing(tracerContext.getInstance());
+		}
+		else if(tracerContext != null){
 			logger.error("开始加载----init");
 			contextName = tracerContext.getContext();
-			Sender sender = RabbitMQSender.newBuilder()
-					.addresses(tracerContext.getAddresses())
-					.username(tracerContext.getUserName())
-					.password(tracerContext.getPassword())
-					.build();
-			Reporter<Span> asyncReporter = AsyncReporter.builder(sender)
-					.closeTimeout(500, TimeUnit.MILLISECONDS)
-					.messageTimeout(500, TimeUnit.MILLISECONDS)
-					.build(SpanBytesEncoder.JSON_V2);
-			String percentage = tracerContext.getPercentage();
-			tracing = Tracing.newBuilder()
-					.sampler(BoundarySampler.create(Float.valueOf(percentage)))
-					.localEndpoint(Endpoint.newBuilder().serviceName(tracerContext.getServerName()).ip(NetworkUtils.getLocalHost()).build())
-					.spanReporter(asyncReporter)
-					.supportsJoin(true)//是否合并客户端和服务端的span
-					.propagationFactory(ExtraFieldPropagation.newFactory(B3Propagation.FACTORY, "localhost"))
-					.currentTraceContext(CURRENT_TRACE_CONTEXT)
-					.build();
+			TracerConfig config;
+			synchronized (TracerManager.class) {
+				putIfNotNull(OVERRIDES, TracerConfig.TRACER_SERVER_NAME, tracerContext.getServerName());
+				putIfNotNull(OVERRIDES, TracerConfig.TRACER_CONTEXT_NAME, tracerContext.getContext());
+				putIfNotNull(OVERRIDES, TracerConfig.TRACER_SAMPLER_PERCENTAGE, tracerContext.getPercentage());
+				putIfNotNull(OVERRIDES, TracerConfig.ZIPKIN_SENDER_RABBITMQ_ADDRESSES, tracerContext.getAddresses());
+				putIfNotNull(OVERRIDES, TracerConfig.ZIPKIN_SENDER_RABBITMQ_USERNAME, tracerContext.getUserName());
+				putIfNotNull(OVERRIDES, TracerConfig.ZIPKIN_SENDER_RABBITMQ_PASSWORD, tracerContext.getPassword());
+				config = TracerConfig.fromProperties(withOverrides(TracerProperties.getProperties()));
+				String previousServerName = TracerConfig.current().getServerName();
+				applyConfig(config);
+				//应用名是Tracing的本地地址，只能重建
+				if (tracing == null || !config.getServerName().equals(previousServerName)) {
+					tracing = newTracing(config);
+				}
+				startAdmin(config);
+			}
 		}
 		else {
-			load();
+			getTracing();
 		}
 	}
 
-	private static void load() {
+	/**
+	 * 首次使用时才初始化，上报通道在后台建立，这里不会阻塞在网络上
+	 */
+	private static synchronized void load() {
+		if (tracing != null) {
+			return;
+		}
 		if(TracerProperties.isLoad) {
 			/*
 			 * 初始化Tracing
 			 */
-			Sender sender = RabbitMQSender.newBuilder()
-					.addresses(TracerProperties.getProperty(ZIPKIN_SENDER_RABBITMQ_ADDRESSES))
-					.username(TracerProperties.getProperty(ZIPKIN_SENDER_RABBITMQ_USERNAME))
-					.password(TracerProperties.getProperty(ZIPKIN_SENDER_RABBITMQ_PASSWORD))
-					.build();
-			Reporter<Span> asyncReporter = AsyncReporter.builder(sender)
-					.closeTimeout(500, TimeUnit.MILLISECONDS)
-					.messageTimeout(500, TimeUnit.MILLISECONDS)
-					.build(SpanBytesEncoder.JSON_V2);
-			String percentage = TracerProperties.getProperty(TRACER_SAMPLER_PERCENTAGE, "1.0");
-			tracing = Tracing.newBuilder()
-					.sampler(BoundarySampler.create(Float.valueOf(percentage)))
-					.localEndpoint(Endpoint.newBuilder().serviceName(TracerProperties.getProperty(TRACER_SERVER_NAME, "tracer-server")).ip(NetworkUtils.getLocalHost()).build())
-					.spanReporter(asyncReporter)
-					.supportsJoin(true)//是否合并客户端和服务端的span
-					.propagationFactory(ExtraFieldPropagation.newFactory(B3Propagation.FACTORY, "localhost"))
-					.currentTraceContext(CURRENT_TRACE_CONTEXT)
-					.build();
+			TracerConfig config = TracerConfig.fromProperties(withOverrides(TracerProperties.getProperties()));
+			tracerManager.updateConfig(config);
+			tracing = newTracing(config);
+			startAdmin(config);
+		}
+	}
+
+	private static Tracing newTracing(TracerConfig config) {
+		return newTracing(config.getServerName(), SAMPLER);
+	}
+
+	/**
+	 * 各实例只有应用名和采样器不同，上报器、传播格式和线程上下文都是共用的
+	 */
+	private static Tracing newTracing(String serverName, Sampler sampler) {
+		//本机IP还没解析出来时先不设置，上报前由LocalEndpointReporter补上
+		return Tracing.newBuilder()
+				.sampler(sampler)
+				.localEndpoint(Endpoint.newBuilder().serviceName(serverName).ip(NetworkUtils.getLocalHostIfResolved()).build())
+				.spanReporter(REPORTER)
+				.supportsJoin(true)//是否合并客户端和服务端的span
+				.propagationFactory(ExtraFieldPropagation.newFactory(B3Propagation.FACTORY, "localhost"))
+				.currentTraceContext(CURRENT_TRACE_CONTEXT)
+				.build();
+	}
+
+	/**
+	 * 注册JMX配置接口、启动配置文件监听和指标日志，只执行一次
+	 */
+	private static synchronized void startAdmin(TracerConfig config) {
+		if (adminStarted) {
+			return;
+		}
+		adminStarted = true;
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new TracerConfigAdmin(tracerManager),
+					new ObjectName(TracerConfigAdmin.OBJECT_NAME));
+		} catch (Exception e) {
+			logger.warn("注册TracerConfig到JMX失败：" + e.getMessage());
+		}
+		if (!"false".equalsIgnoreCase(config.getProperty(TracerConfig.TRACER_CONFIG_WATCH))) {
+			TracerConfigWatcher.start(tracerManager);
+		}
+		TracerMetrics.getInstance().scheduleLogging(TracerConfig.parseLong(config.getProperty(TracerConfig.TRACER_METRICS_LOG_INTERVAL), 0L));
+	}
+
+	/**
+	 * 应用新的配置快照
+	 * 采样率、tag长度、采集开关等在下一次读取时生效；上报相关的配置变化时在后台重建上报管道，并关闭旧的
+	 */
+	void updateConfig(TracerConfig config) {
+		applyConfig(config);
+	}
+
+	/**
+	 * 修改单个配置项，在当前配置上修改并记下来，重新加载配置文件时再叠加上去
+	 */
+	void updateConfig(String key, String value) {
+		synchronized (TracerManager.class) {
+			JMX_OVERRIDES.setProperty(key, value);
+			applyConfig(TracerConfig.current().with(key, value));
+		}
+	}
+
+	/**
+	 * 重新读取配置文件，再叠加spring配置和JMX修改的覆盖项
+	 */
+	void reload() {
+		Properties props = TracerProperties.reload();
+		synchronized (TracerManager.class) {
+			applyConfig(TracerConfig.fromProperties(withOverrides(props)));
+		}
+	}
+
+	private static Properties withOverrides(Properties file) {
+		Properties props = new Properties();
+		props.putAll(file);
+		props.putAll(OVERRIDES);
+		props.putAll(JMX_OVERRIDES);
+		return props;
+	}
+
+	private static synchronized void applyConfig(TracerConfig config) {
+		TracerConfig.setCurrent(config);
+		if (reporterConfig == null || !config.sameReporterSettings(reporterConfig)) {
+			reporterConfig = config;
+			rebuildReporter(config);
+		}
+		logger.info("tracer配置已生效：" + config);
+	}
+
+	/**
+	 * 先换上缓冲上报器，再在后台线程里解析本机IP、建立rabbitmq连接并构建上报管道，
+	 * 就绪后把缓冲的span转发过去。调用方不会阻塞在网络上。
+	 * 建立失败时放掉缓冲、丢弃span并计数，按退避间隔重试，直到成功或配置又变了
+	 */
+	private static void rebuildReporter(final TracerConfig config) {
+		final BufferingReporter buffer = new BufferingReporter(STARTUP_BUFFER_SIZE);
+		pendingBuffer = buffer;
+		REPORTER.swap(buffer);
+
+		Thread connector = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long backoff = CONNECT_RETRY_MIN_MILLIS;
+				while (true) {
+					try {
+						connect(config, buffer);
+						return;
+					} catch (RuntimeException e) {
+						if (!releaseFailed(buffer)) {
+							return;
+						}
+						logger.error("建立span上报通道失败，" + backoff + "ms后重试", e);
+					}
+					try {
+						Thread.sleep(backoff);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+					backoff = Math.min(backoff * 2, CONNECT_RETRY_MAX_MILLIS);
+				}
+			}
+		}, "Tracer Reporter Connector");
+		connector.setDaemon(true);
+		connector.start();
+	}
+
+	/**
+	 * 通道建立失败：放掉缓冲，已缓冲和之后的span丢弃并计数，直到重试成功。
+	 *
+	 * @return 配置期间又变了、本次建立已作废时返回false，不再重试
+	 */
+	private static boolean releaseFailed(BufferingReporter buffer) {
+		synchronized (TracerManager.class) {
+			if (pendingBuffer != buffer) {
+				return false;
+			}
+			if (!buffer.isReady()) {
+				buffer.ready(DROPPING_REPORTER);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * 构建span上报管道：异步上报器，按配置在前面加上高频子span的聚合，再补全本机IP，最外层按规则过滤
+	 */
+	private static void connect(TracerConfig config, BufferingReporter buffer) {
+		long start = System.nanoTime();
+		String ip = NetworkUtils.getLocalHost();
+
+		Sender nextSender = newSender(config);
+		Reporter<Span> nextReporter = null;
+		Reporter<Span> pipeline;
+		try {
+			CheckResult check = nextSender.check();
+			if (!check.ok()) {
+				//连接失败也照常接上，由上报器在发送时重连，失败的批次计入丢弃
+				logger.warn("检查" + nextSender + "失败，将在发送时重试：" + check.error());
+			}
+			nextReporter = newReporter(config, nextSender);
+			pipeline = nextReporter;
+			if (config.getAggregateKeep() >= 0) {
+				pipeline = new AggregatingReporter(pipeline, config.getAggregateKeep(), config.getAggregateMaxParents());
+			}
+			if (config.isSpanStoreEnabled()) {
+				//在聚合之前存一份，本地查询能看到完整的span
+				pipeline = SpanStore.getInstance(config.getSpanStoreCapacity(), config.getSpanStoreMaxBytes()).tee(pipeline);
+			}
+			pipeline = new LocalEndpointReporter(pipeline, ip);
+			pipeline = new FilteringReporter(pipeline);
+		} catch (RuntimeException e) {
+			close(nextReporter, nextSender);
+			throw e;
+		}
+
+		Sender previousSender;
+		Reporter<Span> previousReporter;
+		synchronized (TracerManager.class) {
+			if (pendingBuffer != buffer) {
+				//建立期间配置又变了，本次的通道作废，已缓冲的span转给新的缓冲
+				previousSender = nextSender;
+				previousReporter = nextReporter;
+				buffer.ready(REPORTER);
+			} else {
+				previousSender = sender;
+				previousReporter = spanReporter;
+				sender = nextSender;
+				spanReporter = nextReporter;
+				pendingBuffer = null;
+				buffer.ready(pipeline);
+				REPORTER.swap(pipeline);
+				logger.info("span上报通道已就绪，耗时" + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+			}
+		}
+		close(previousReporter, previousSender);
+	}
+
+	/**
+	 * 发送器：默认发到rabbitmq，也可以配置为写本地分段文件
+	 */
+	static Sender newSender(TracerConfig config) {
+		if (config.isFileSender()) {
+			return new FileSender(new File(config.getSenderFileDir()), config.getSenderFileSegmentSize(),
+					config.getSenderFileMaxSegments(), config.getSenderFileFsync());
+		}
+		return RabbitMQSender.newBuilder()
+				.addresses(config.getSenderAddresses())
+				.username(config.getSenderUsername())
+				.password(config.getSenderPassword())
+				.build();
+	}
+
+	/**
+	 * 排队和发送span的上报器：默认按优先级排队，积压时先丢弃普通span；也可以配置为zipkin自带的AsyncReporter
+	 */
+	private static Reporter<Span> newReporter(TracerConfig config, Sender sender) {
+		if (config.isPriorityReporter()) {
+			return new PriorityReporter(sender, TracerMetrics.getInstance().reporterMetrics(),
+					config.getQueuedMaxSpans(), config.getQueuedMaxBytes(), config.getSlowThreshold(),
+					config.getEncoderThreads(), config.getMaxInflightSends(), config.getMessageTimeout(), 500L);
+		}
+		return AsyncReporter.builder(sender)
+				.metrics(TracerMetrics.getInstance().reporterMetrics())
+				.queuedMaxSpans(config.getQueuedMaxSpans())
+				.queuedMaxBytes((int) Math.min(Integer.MAX_VALUE, config.getQueuedMaxBytes()))
+				.closeTimeout(500, TimeUnit.MILLISECONDS)
+				.messageTimeout(config.getMessageTimeout(), TimeUnit.MILLISECONDS)
+				.build(SpanBytesEncoder.JSON_V2);
+	}
+
+	private static void close(Reporter<Span> reporter, Sender sender) {
+		if (reporter instanceof Closeable) {
+			try {
+				((Closeable) reporter).close();
+			} catch (IOException e) {
+				logger.warn("关闭旧的上报器出现异常：" + e.getMessage());
+			}
+		}
+		if (sender != null) {
+			try {
+				sender.close();
+			} catch (IOException e) {
+				logger.warn("关闭旧的sender出现异常：" + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * 上报通道是否已经建立完成
+	 */
+	public boolean isReporterReady() {
+		synchronized (TracerManager.class) {
+			return reporterConfig != null && pendingBuffer == null;
+		}
+	}
+
+	private static void putIfNotNull(Properties props, String key, String value) {
+		if (value != null) {
+			props.setProperty(key, value);
 		}
 	}
 
@@ -148,7 +458,64 @@ public class TracerManager {
 	}
 
 	public Tracing getTracing(){
-		return tracing;
+		Tracing current = tracing;
+		if (current == null) {
+			load();
+			current = tracing;
+		}
+		return current;
+	}
+
+	/**
+	 * 按名称获取tracer实例，首次使用时创建；名称为空或default时返回默认实例。
+	 * 应用名取tracer.instance.&lt;name&gt;.server.name（默认为实例名），采样率取tracer.instance.&lt;name&gt;.sampler.percentage
+	 */
+	public Tracing getTracing(final String name){
+		if (isDefaultInstance(name)) {
+			return getTracing();
+		}
+		Tracing instance = INSTANCES.get(name);
+		if (instance == null && getTracing() != null) {
+			synchronized (TracerManager.class) {
+				instance = INSTANCES.get(name);
+				if (instance == null) {
+					instance = newTracing(TracerConfig.current().getServerName(name), new Sampler() {
+						@Override
+						public boolean isSampled(long traceId) {
+							return TracerConfig.current().getSampler(name).isSampled(traceId);
+						}
+					});
+					INSTANCES.put(name, instance);
+					logger.info("创建tracer实例：" + name);
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * 已创建的命名实例
+	 */
+	public Set<String> getInstanceNames() {
+		return Collections.unmodifiableSet(INSTANCES.keySet());
+	}
+
+	private static boolean isDefaultInstance(String name) {
+		return name == null || name.isEmpty() || DEFAULT_INSTANCE.equals(name);
+	}
+
+	/**
+	 * 进程内的调用指标（次数、错误数、耗时分布）
+	 */
+	public SpanMetrics getSpanMetrics() {
+		return spanMetrics;
+	}
+
+	/**
+	 * 当前生效的配置快照
+	 */
+	public TracerConfig getConfig() {
+		return TracerConfig.current();
 	}
 
 	public static TracerManager getInstance(){
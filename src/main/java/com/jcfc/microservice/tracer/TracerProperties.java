@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
 import java.util.Properties;
 
 
@@ -23,19 +24,21 @@ class TracerProperties {
 
 	static private final String DEFAULT_CONFIGURATION_FILE = "tracer.properties";
 
-	private static Properties props;
+	private static volatile Properties props;
 	public static boolean isLoad = false;
 	static{
 		loadProps();
 	}
 
 	synchronized static private void loadProps(){
-		props = new Properties();
+		Properties loaded = new Properties();
 		InputStream in = null;
+		boolean ok = false;
 		try {
 			in = TracerProperties.class.getClassLoader().getResourceAsStream(DEFAULT_CONFIGURATION_FILE);
-			props.load(in);
+			loaded.load(in);
 			isLoad = true;
+			ok = true;
 		} catch (FileNotFoundException | NullPointerException e) {
 			logger.error("tracer.properties文件未找到");
 		} catch (IOException e) {
@@ -49,9 +52,38 @@ class TracerProperties {
 				logger.error("tracer.properties文件流关闭出现异常");
 			}
 		}
+		//读取失败（文件被删除、写到一半）时保留上次的内容，不用空配置顶替
+		if (!ok && props != null) {
+			logger.warn("tracer.properties读取失败，保留上次的配置");
+			return;
+		}
+		//整体替换，读取方不会看到加载到一半的内容
+		props = loaded;
 		logger.info("加载tracer.properties文件内容完成...........");
 	}
 
+	/**
+	 * 重新读取配置文件，用于配置热更新
+	 */
+	static Properties reload() {
+		loadProps();
+		return props;
+	}
+
+	static Properties getProperties() {
+		if(null == props) {
+			loadProps();
+		}
+		return props;
+	}
+
+	/**
+	 * 配置文件所在的位置，打在jar包里时不是文件系统路径
+	 */
+	static URL getResource() {
+		return TracerProperties.class.getClassLoader().getResource(DEFAULT_CONFIGURATION_FILE);
+	}
+
 	static String getProperty(String key){
 		if(null == props) {
 			loadProps();
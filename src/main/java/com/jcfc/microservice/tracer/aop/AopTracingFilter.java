@@ -4,6 +4,7 @@ import brave.Span;
 import brave.Tracer;
 import brave.Tracing;
 import com.jcfc.microservice.tracer.TracerManager;
+import com.jcfc.microservice.tracer.metrics.SpanMetrics;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Aspect;
 import org.springframework.stereotype.Component;
@@ -18,11 +19,23 @@ import org.springframework.stereotype.Component;
 @Component
 @Aspect
 public class AopTracingFilter {
-    private final Tracer tracer;
-    private final AopTracingHandler handler;
+    private Tracer tracer;
+    private AopTracingHandler handler;
+    private final SpanMetrics metrics;
 
     public AopTracingFilter(){
-        Tracing tracing = TracerManager.getInstance().getTracing();
+        use(TracerManager.getInstance().getTracing());
+        metrics = TracerManager.getInstance().getSpanMetrics();
+    }
+
+    /**
+     * 指定使用的tracer实例，在bean定义中通过property配置
+     */
+    public void setTracerInstance(String instance) {
+        use(TracerManager.getInstance().getTracing(instance));
+    }
+
+    private void use(Tracing tracing) {
         tracer = tracing.tracer();
         handler = new AopTracingHandler(tracer, tracing.currentTraceContext());
     }
@@ -35,6 +48,7 @@ public class AopTracingFilter {
      * @throws Throwable
      */
     public Object around(ProceedingJoinPoint joinPoint) throws Throwable {
+        long start = System.nanoTime();
         Span aopSpan = handler.handle(joinPoint);
 
         Throwable error = null;
@@ -46,7 +60,10 @@ public class AopTracingFilter {
             throw e;
         } finally {
             //we have a synchronous response, so we can finish the span
-            handler.handleSend(object, error, aopSpan);
+            handler.handleSend(joinPoint, object, error, aopSpan, System.nanoTime() - start);
+            if (metrics.isEnabled()) {
+                metrics.record("aop", joinPoint.toShortString(), start, error != null);
+            }
         }
 
         return object;
@@ -3,16 +3,25 @@ package com.jcfc.microservice.tracer.aop;
 import brave.Span;
 import brave.Tracer;
 import brave.propagation.CurrentTraceContext;
-import brave.propagation.SamplingFlags;
 import brave.propagation.TraceContext;
 import com.alibaba.fastjson.JSON;
-import com.jcfc.microservice.tracer.TracerManager;
+import com.jcfc.microservice.tracer.TracerConfig;
+import com.jcfc.microservice.tracer.metrics.TracerMetrics;
+import com.jcfc.microservice.tracer.utils.LRUCache;
 import com.jcfc.microservice.tracer.utils.NetworkUtils;
 import com.jcfc.microservice.tracer.utils.StringUtils;
 import com.jcfc.microservice.tracer.utils.SystemClock;
+import com.jcfc.microservice.tracer.utils.TraceIds;
 import org.aspectj.lang.ProceedingJoinPoint;
 import zipkin2.Endpoint;
 
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.jcfc.microservice.tracer.utils.SpanTags.maybeTag;
+import static com.jcfc.microservice.tracer.utils.SpanTags.maybeTagPayload;
+
 /**
  * 封装dubbo服务的操作
  *
@@ -24,7 +33,12 @@ final class AopTracingHandler {
 
     private final Tracer tracer;
     private final CurrentTraceContext currentTraceContext;
+    //父span上被折叠的子span计数，key为父span的spanId；aop的父span结束时删除，其他父span靠LRU淘汰
+    private final Map<Long, Collapsed> collapsed = new LRUCache<>(1000);
 
+    /**
+     * 是否使用本地span（不设置kind和远程地址）以及折叠阈值，每次调用时从当前配置读取
+     */
     AopTracingHandler(Tracer tracer, CurrentTraceContext currentTraceContext) {
         this.tracer = tracer;
         this.currentTraceContext = currentTraceContext;
@@ -38,21 +52,26 @@ final class AopTracingHandler {
         }
 
         // all of the parsing here occur before a timestamp is recorded on the span
-        span.kind(Span.Kind.CLIENT);
         span.name(getName(joinPoint));
+        TracerConfig config = TracerConfig.current();
 
-        // Ensure user-code can read the current trace context
-        try (Tracer.SpanInScope ws = tracer.withSpanInScope(span)) {
-            maybeTag(span, "args", StringUtils.toArgumentString(joinPoint.getArgs()));
-            maybeTag(span, "aop.url", joinPoint.toString());
-            maybeTag(span, "component", "aop");
+        // 只打tag，不需要进入span的作用域；可能被折叠时参数留到结束时再取，折叠掉的span不做序列化
+        if (config.isCaptureArgs() && !isCollapsible(config)) {
+            maybeTagPayload(span, "args", StringUtils.toArgumentString(joinPoint.getArgs()));
+        }
+        maybeTag(span, "aop.url", joinPoint.toString());
+        maybeTag(span, "component", "aop");
+
+        if (!config.isAopLocalSpan()) {
+            span.kind(Span.Kind.CLIENT);
+            //设置远程服务端地址
+            Endpoint.Builder remoteEndpoint = Endpoint.newBuilder()
+                    .ip(NetworkUtils.getLocalHost())
+                    .serviceName(joinPoint.getTarget().getClass().getSimpleName());
+            span.remoteEndpoint(remoteEndpoint.build());
         }
-        //设置远程服务端地址
-        Endpoint.Builder remoteEndpoint = Endpoint.newBuilder()
-                .ip(NetworkUtils.getLocalHost())
-                .serviceName(joinPoint.getTarget().getClass().getSimpleName());
-        span.remoteEndpoint(remoteEndpoint.build());
 
+        TracerMetrics.getInstance().spanStarted();
         return span.start();
     }
 
@@ -69,7 +88,7 @@ final class AopTracingHandler {
         if (parent != null){
             return tracer.newChild(parent); // inherit the sampling decision
         }
-        return tracer.newTrace(SamplingFlags.SAMPLED);
+        return TraceIds.newTrace(tracer);
     }
 
     /**
@@ -79,26 +98,88 @@ final class AopTracingHandler {
      * Tracer.SpanInScope#close() no longer in scope}.
      */
     void handleSend(Object object, Throwable error, Span span) {
+        handleSend(null, object, error, span, -1);
+    }
+
+    /** 本地span且配置了折叠阈值时，短span可能被折叠 */
+    private static boolean isCollapsible(TracerConfig config) {
+        return config.isAopLocalSpan() && config.getAopCollapseThreshold() > 0;
+    }
+
+    /**
+     * 同{@link #handleSend(Object, Throwable, Span)}，durationNanos为方法耗时，
+     * 本地span耗时低于折叠阈值且没有异常时，丢弃该span，改为在父span上计数。
+     * 开启折叠时参数在这里才打tag（取的是方法执行后的参数），joinPoint为null时不打
+     */
+    void handleSend(ProceedingJoinPoint joinPoint, Object object, Throwable error, Span span, long durationNanos) {
         if (span.isNoop()) {
             return;
         }
+        TracerConfig config = TracerConfig.current();
+        if (isCollapsible(config)) {
+            //span结束后不会再有子span折叠到它上面
+            synchronized (collapsed) {
+                collapsed.remove(span.context().spanId());
+            }
+            long collapseThresholdNanos = TimeUnit.MILLISECONDS.toNanos(config.getAopCollapseThreshold());
+            if (error == null && durationNanos >= 0 && durationNanos < collapseThresholdNanos
+                    && collapse(span, durationNanos)) {
+                return;
+            }
+        }
 
-        // Ensure user-code can read the current trace context
-        try (Tracer.SpanInScope ws = tracer.withSpanInScope(span)) {
+        // 只打tag，不需要进入span的作用域
+        try {
+            if (joinPoint != null && config.isCaptureArgs() && isCollapsible(config)) {
+                maybeTagPayload(span, "args", StringUtils.toArgumentString(joinPoint.getArgs()));
+            }
             if (error != null) {
                 maybeTag(span, "error", "true");
                 maybeTag(span, "invoke-error", error.getMessage());
             }
-            maybeTag(span,"result", JSON.toJSONString(object));
+            if (config.isCaptureResult()) {
+                maybeTagPayload(span, "result", JSON.toJSONString(object));
+            }
         } finally {
             span.finish();
         }
     }
 
-    private static void maybeTag(Span span, String tag, String value) {
-        if (value != null && value.length()<100000) {
-            span.tag(tag, value);
+    /**
+     * 折叠耗时很短的本地span：放弃上报，把次数和累计耗时记在父span的tag上。
+     * 调用时该span已经退出作用域，当前上下文即父span，且父span尚未结束
+     */
+    private boolean collapse(Span span, long durationNanos) {
+        TraceContext parent = currentTraceContext.get();
+        if (parent == null || !isChild(span.context(), parent)) {
+            return false;
         }
+        Collapsed counter;
+        synchronized (collapsed) {
+            counter = collapsed.get(parent.spanId());
+            if (counter == null) {
+                counter = new Collapsed();
+                collapsed.put(parent.spanId(), counter);
+            }
+        }
+        long count = counter.count.incrementAndGet();
+        long micros = counter.micros.addAndGet(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+
+        span.abandon();
+        Span parentSpan = tracer.toSpan(parent);
+        parentSpan.tag("aop.collapsed", Long.toString(count));
+        parentSpan.tag("aop.collapsed.micros", Long.toString(micros));
+        return true;
+    }
+
+    private static boolean isChild(TraceContext child, TraceContext parent) {
+        return child.parentId() != null && child.parentId().longValue() == parent.spanId();
+    }
+
+    /** 父span上折叠的子span统计 */
+    private static final class Collapsed {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong micros = new AtomicLong();
     }
 
 }
@@ -0,0 +1,147 @@
+package com.jcfc.microservice.tracer.dubbo;
+
+import brave.Span;
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.TraceContext;
+import com.alibaba.dubbo.rpc.RpcResult;
+import com.jcfc.microservice.tracer.TracerManager;
+import com.jcfc.microservice.tracer.metrics.SpanMetrics;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * dubbo服务端的异步处理
+ * 服务方法把工作交给自己的线程池、方法返回后才真正处理完（如oneway方法）时，在方法里调用{@link #startAsync()}，
+ * span不随invoke返回结束，改为在处理完时调用{@link #complete(Object, Throwable)}结束，耗时覆盖实际的处理过程。
+ * dubbo 2.6没有服务端的AsyncContext，响应仍在invoke返回时发出。
+ *
+ * <pre>
+ * final DubboAsyncTracing async = DubboAsyncTracing.startAsync();
+ * executor.execute(async.wrap(new Runnable() {
+ *     public void run() {
+ *         try {
+ *             ...
+ *             async.complete(result, null);
+ *         } catch (Exception e) {
+ *             async.complete(null, e);
+ *         }
+ *     }
+ * }));
+ * </pre>
+ *
+ * @version 1.0
+ */
+public final class DubboAsyncTracing {
+
+    //当前线程上正在执行的服务端调用，由DubboProviderTracingFilter设置
+    private static final ThreadLocal<DubboAsyncTracing> CURRENT = new ThreadLocal<>();
+    private static final DubboAsyncTracing NOOP = new DubboAsyncTracing(null, null, null, null, 0L);
+
+    private final DubboTracingHandler handler;
+    private final Span span;
+    private final SpanMetrics metrics;
+    private final String name;
+    private final long startNanos;
+    private volatile boolean started;
+    private final AtomicBoolean completed = new AtomicBoolean();
+
+    DubboAsyncTracing(DubboTracingHandler handler, Span span, SpanMetrics metrics, String name, long startNanos) {
+        this.handler = handler;
+        this.span = span;
+        this.metrics = metrics;
+        this.name = name;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * 当前的服务端调用改为异步结束，只能在服务方法的线程里调用；不在服务端调用里时返回空操作的对象
+     */
+    public static DubboAsyncTracing startAsync() {
+        DubboAsyncTracing current = CURRENT.get();
+        if (current == null) {
+            return NOOP;
+        }
+        current.started = true;
+        return current;
+    }
+
+    /** 调用对应的调用链上下文，不在服务端调用里时为null */
+    public TraceContext context() {
+        return span == null ? null : span.context();
+    }
+
+    public Runnable wrap(final Runnable task) {
+        final TraceContext context = context();
+        if (context == null) {
+            return task;
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                try (CurrentTraceContext.Scope scope = scope(context)) {
+                    task.run();
+                }
+            }
+        };
+    }
+
+    public <V> Callable<V> wrap(final Callable<V> task) {
+        final TraceContext context = context();
+        if (context == null) {
+            return task;
+        }
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                try (CurrentTraceContext.Scope scope = scope(context)) {
+                    return task.call();
+                }
+            }
+        };
+    }
+
+    /**
+     * 处理完成，结束span并记录指标；只有第一次调用生效
+     *
+     * @param value 处理结果，记为result标签
+     * @param error 处理失败时的异常
+     */
+    public void complete(Object value, Throwable error) {
+        if (handler == null || !completed.compareAndSet(false, true)) {
+            return;
+        }
+        handler.handleSend(error != null ? new RpcResult(error) : new RpcResult(value), null, span);
+        if (metrics.isEnabled()) {
+            metrics.record("dubbo.provider", name, startNanos, error != null);
+        }
+    }
+
+    boolean isStarted() {
+        return started;
+    }
+
+    /** invoke抛出异常时同步结束，之后的complete不再生效 */
+    boolean finishNow() {
+        return completed.compareAndSet(false, true);
+    }
+
+    static DubboAsyncTracing enter(DubboAsyncTracing invocation) {
+        DubboAsyncTracing previous = CURRENT.get();
+        CURRENT.set(invocation);
+        return previous;
+    }
+
+    static void exit(DubboAsyncTracing previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    //各tracer实例共用同一个线程上下文
+    private static CurrentTraceContext.Scope scope(TraceContext context) {
+        return TracerManager.getInstance().getTracing().currentTraceContext().newScope(context);
+    }
+}
@@ -8,6 +8,7 @@ import com.alibaba.dubbo.common.Constants;
 import com.alibaba.dubbo.common.extension.Activate;
 import com.alibaba.dubbo.rpc.*;
 import com.jcfc.microservice.tracer.TracerManager;
+import com.jcfc.microservice.tracer.metrics.SpanMetrics;
 
 /**
  * 基于brave实现的zipkin的filter，在dubbo协议客户端调用时使用
@@ -22,24 +23,28 @@ public class DubboConsumerTracingFilter implements Filter {
     private final TraceContext.Extractor<Invocation> extractor;
     private final TraceContext.Injector<Invocation> injector;
     private final DubboTracingHandler handler;
+    private final SpanMetrics metrics;
 
     public DubboConsumerTracingFilter(){
         Tracing tracing = TracerManager.getInstance().getTracing();
         extractor = tracing.propagation().extractor(DubboTracingHandler.GETTER);
         injector = tracing.propagation().injector(DubboTracingHandler.SETTER);
         tracer = tracing.tracer();
-        handler = new DubboTracingHandler(tracer, Span.Kind.CLIENT);
+        metrics = TracerManager.getInstance().getSpanMetrics();
+        handler = new DubboTracingHandler(tracer, tracing.currentTraceContext(), Span.Kind.CLIENT);
     }
 
     @Override
     public Result invoke(Invoker<?> invoker, Invocation invocation) throws RpcException {
         if (tracer == null) return invoker.invoke(invocation);
 
+        long start = System.nanoTime();
+        DubboTracingHandler handler = this.handler.select(invoker.getUrl());
         Span dubboSpan = handler.handle(extractor, injector, invocation, invocation);
 
         Throwable error = null;
         Result result = null;
-        try (Tracer.SpanInScope ws = tracer.withSpanInScope(dubboSpan)) {
+        try (Tracer.SpanInScope ws = handler.tracer().withSpanInScope(dubboSpan)) {
             result = invoker.invoke(invocation); // any downstream filters see Tracer.currentSpan
         } catch (RuntimeException | Error e) {
             error = e;
@@ -47,6 +52,10 @@ public class DubboConsumerTracingFilter implements Filter {
         } finally {
             //we have a synchronous response, so we can finish the span
             handler.handleSend(result, error, dubboSpan);
+            if (metrics.isEnabled()) {
+                metrics.record("dubbo.consumer", invoker.getInterface().getSimpleName() + "." + invocation.getMethodName(),
+                        start, error != null || result != null && result.hasException());
+            }
         }
 
         return result;
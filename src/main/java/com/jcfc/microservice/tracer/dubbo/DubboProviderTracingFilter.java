@@ -8,6 +8,7 @@ import com.alibaba.dubbo.common.Constants;
 import com.alibaba.dubbo.common.extension.Activate;
 import com.alibaba.dubbo.rpc.*;
 import com.jcfc.microservice.tracer.TracerManager;
+import com.jcfc.microservice.tracer.metrics.SpanMetrics;
 
 /**
  * 基于brave实现的zipkin的filter，在dubbo协议服务端响应时使用
@@ -22,34 +23,50 @@ public class DubboProviderTracingFilter implements Filter {
     private final TraceContext.Extractor<Invocation> extractor;
     private final TraceContext.Injector<Invocation> injector;
     private final DubboTracingHandler handler;
+    private final SpanMetrics metrics;
 
     public DubboProviderTracingFilter(){
         Tracing tracing = TracerManager.getInstance().getTracing();
         extractor = tracing.propagation().extractor(DubboTracingHandler.GETTER);
         injector = tracing.propagation().injector(DubboTracingHandler.SETTER);
         tracer = tracing.tracer();
-        handler = new DubboTracingHandler(tracer, Span.Kind.SERVER);
+        metrics = TracerManager.getInstance().getSpanMetrics();
+        handler = new DubboTracingHandler(tracer, tracing.currentTraceContext(), Span.Kind.SERVER);
     }
 
     @Override
     public Result invoke(Invoker<?> invoker, Invocation invocation) throws RpcException {
         if (tracer == null) return invoker.invoke(invocation);
 
+        long start = System.nanoTime();
+        DubboTracingHandler handler = this.handler.select(invoker.getUrl());
         Span dubboSpan = handler.handle(extractor, injector, invocation, invocation);
 
+        String name = invoker.getInterface().getSimpleName() + "." + invocation.getMethodName();
+        //服务方法里可以调用DubboAsyncTracing.startAsync()，改为处理完时再结束span
+        DubboAsyncTracing async = new DubboAsyncTracing(handler, dubboSpan, metrics, name, start);
+        DubboAsyncTracing previous = DubboAsyncTracing.enter(async);
         Throwable error = null;
         Result result = null;
-        try (Tracer.SpanInScope ws = tracer.withSpanInScope(dubboSpan)) {
+        try (Tracer.SpanInScope ws = handler.tracer().withSpanInScope(dubboSpan)) {
             result = invoker.invoke(invocation); // any downstream filters see Tracer.currentSpan
         } catch (RuntimeException | Error e) {
             error = e;
             throw e;
         } finally {
+            DubboAsyncTracing.exit(previous);
             if(error!=null) {
                 invocation.getAttachments().put("invoke-error", error.getMessage());
             }
-            //we have a synchronous response, so we can finish the span
-            handler.handleSend(result, error, dubboSpan);
+            boolean failed = error != null || result != null && result.hasException();
+            //异步处理的调用由DubboAsyncTracing.complete结束；方法本身失败时照常结束
+            if ((!async.isStarted() || failed) && async.finishNow()) {
+                //we have a synchronous response, so we can finish the span
+                handler.handleSend(result, error, dubboSpan);
+                if (metrics.isEnabled()) {
+                    metrics.record("dubbo.provider", name, start, failed);
+                }
+            }
         }
 
         return result;
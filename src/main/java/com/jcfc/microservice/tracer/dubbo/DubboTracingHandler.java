@@ -2,15 +2,28 @@ package com.jcfc.microservice.tracer.dubbo;
 
 import brave.Span;
 import brave.Tracer;
+import brave.Tracing;
+import brave.propagation.CurrentTraceContext;
 import brave.propagation.Propagation;
 import brave.propagation.TraceContext;
 import brave.propagation.TraceContextOrSamplingFlags;
+import com.alibaba.dubbo.common.URL;
 import com.alibaba.dubbo.common.utils.StringUtils;
 import com.alibaba.dubbo.rpc.Invocation;
 import com.alibaba.dubbo.rpc.Result;
 import com.alibaba.dubbo.rpc.RpcContext;
+import com.jcfc.microservice.tracer.TracerConfig;
+import com.jcfc.microservice.tracer.TracerManager;
+import com.jcfc.microservice.tracer.metrics.TracerMetrics;
+import com.jcfc.microservice.tracer.utils.TraceIds;
 import zipkin2.Endpoint;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.jcfc.microservice.tracer.utils.SpanTags.maybeTag;
+import static com.jcfc.microservice.tracer.utils.SpanTags.maybeTagPayload;
+
 /**
  * 封装dubbo服务的操作
  *
@@ -46,14 +59,48 @@ final class DubboTracingHandler {
                 }
             };
 
+    //dubbo url参数，指定使用的tracer实例
+    static final String TRACER_INSTANCE_KEY = "tracer.instance";
+
     private final Tracer tracer;
+    private final CurrentTraceContext currentTraceContext;
     private final Span.Kind kind;
+    //命名实例的handler，只在默认实例的handler上缓存
+    private final ConcurrentMap<String, DubboTracingHandler> instances = new ConcurrentHashMap<>();
 
-    DubboTracingHandler(Tracer tracer, Span.Kind kind) {
+    DubboTracingHandler(Tracer tracer, CurrentTraceContext currentTraceContext, Span.Kind kind) {
         this.tracer = tracer;
+        this.currentTraceContext = currentTraceContext;
         this.kind = kind;
     }
 
+    Tracer tracer() {
+        return tracer;
+    }
+
+    /**
+     * 按url参数tracer.instance选择tracer实例，不配置时使用当前handler
+     */
+    DubboTracingHandler select(URL url) {
+        String instance = url.getParameter(TRACER_INSTANCE_KEY);
+        if (instance == null) {
+            return this;
+        }
+        DubboTracingHandler handler = instances.get(instance);
+        if (handler == null) {
+            Tracing tracing = TracerManager.getInstance().getTracing(instance);
+            if (tracing == null) {
+                return this;
+            }
+            handler = new DubboTracingHandler(tracing.tracer(), tracing.currentTraceContext(), kind);
+            DubboTracingHandler previous = instances.putIfAbsent(instance, handler);
+            if (previous != null) {
+                handler = previous;
+            }
+        }
+        return handler;
+    }
+
 
     <I> Span handle(TraceContext.Extractor<I> extractor, TraceContext.Injector<I> injector, I carrier, Invocation invocation) {
         final Span span = nextSpan(extractor.extract(carrier));
@@ -71,15 +118,15 @@ final class DubboTracingHandler {
         span.kind(kind);
         span.name(getName(invocation));
 
-        // Ensure user-code can read the current trace context
-        try (Tracer.SpanInScope ws = tracer.withSpanInScope(span)) {
-            String url = invocation.getInvoker().getUrl().toFullString();
+        // 只打tag，不需要进入span的作用域
+        String url = invocation.getInvoker().getUrl().toFullString();
 //            if (kind == Span.Kind.CLIENT) {
-                maybeTag(span, "args", StringUtils.toArgumentString(invocation.getArguments()));
-                maybeTag(span, "dubbo.url", url);
-                maybeTag(span, "component", "dubbo");
+            if (TracerConfig.current().isCaptureArgs()) {
+                maybeTagPayload(span, "args", StringUtils.toArgumentString(invocation.getArguments()));
+            }
+            maybeTag(span, "dubbo.url", url);
+            maybeTag(span, "component", "dubbo");
 //            }
-        }
 
         //设置远程通讯端地址
         Endpoint.Builder remoteEndpoint = Endpoint.newBuilder()
@@ -90,6 +137,7 @@ final class DubboTracingHandler {
 //                .port(invocation.getInvoker().getUrl().getPort());
         span.remoteEndpoint(remoteEndpoint.build());
 
+        TracerMetrics.getInstance().spanStarted();
         return span.start();
     }
 
@@ -120,13 +168,7 @@ final class DubboTracingHandler {
         }
         return extracted.context() != null
                 ? tracer.joinSpan(extracted.context())
-                : tracer.nextSpan(extracted);
-    }
-
-    private static void maybeTag(Span span, String tag, String value) {
-        if (value != null && value.length()<100000) {
-            span.tag(tag, value);
-        }
+                : TraceIds.nextSpan(tracer, currentTraceContext, extracted);
     }
 
     /**
@@ -140,9 +182,9 @@ final class DubboTracingHandler {
             return;
         }
 
-        // Ensure user-code can read the current trace context
-        try (Tracer.SpanInScope ws = tracer.withSpanInScope(span)) {
-            if (result.getException() != null) {
+        // 只打tag，不需要进入span的作用域
+        try {
+            if (result != null && result.getException() != null) {
                 maybeTag(span, "error", "true");
                 maybeTag(span, "error-msg", result.getException().getMessage());
             }
@@ -155,8 +197,8 @@ final class DubboTracingHandler {
 //                    span.tag("result-" + key, result.getAttachment(key));
 //                }
 
-                if (result.getValue() != null) {
-                    maybeTag(span, "result", result.getValue().toString());
+                if (result != null && result.getValue() != null && TracerConfig.current().isCaptureResult()) {
+                    maybeTagPayload(span, "result", result.getValue().toString());
                 }
 //            }
         } finally {
@@ -0,0 +1,62 @@
+package com.jcfc.microservice.tracer.dubbo;
+
+import brave.Tracing;
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.common.extension.ExtensionLoader;
+import com.alibaba.dubbo.common.threadpool.ThreadPool;
+import com.jcfc.microservice.tracer.TracerManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 带调用链传递的dubbo线程池，在协议上配置：
+ * <pre>
+ * &lt;dubbo:protocol name="dubbo" threadpool="tracing" threads="200"&gt;
+ *     &lt;dubbo:parameter key="tracer.threadpool" value="fixed"/&gt;
+ * &lt;/dubbo:protocol&gt;
+ * </pre>
+ * 线程数、队列、拒绝策略仍由tracer.threadpool指定的dubbo线程池（默认fixed）按url参数创建，这里换成
+ * {@link TracingThreadPoolExecutor}：任务在提交线程的调用链上下文里执行，没有上下文时清空工作线程的上下文。
+ * provider端提交任务的是IO线程，本身没有上下文，所以实际作用是清掉工作线程上遗留的上下文，
+ * 上一个请求遗留的traceId不会带到下一个请求；请求的链路仍由provider的filter从附件里解析。
+ * ThreadPoolExecutor的类型不变，dubbo的线程池状态检查照常可用。
+ * 只替换正好是ThreadPoolExecutor的线程池，子类（可能覆盖了beforeExecute等）保持原样，外面包一层上下文传递。
+ *
+ * @version 1.0
+ */
+public class TracingThreadPool implements ThreadPool {
+    private static final Logger logger = LoggerFactory.getLogger(TracingThreadPool.class);
+
+    static final String NAME = "tracing";
+    //url参数，实际创建线程的dubbo线程池
+    static final String DELEGATE_KEY = "tracer.threadpool";
+
+    @Override
+    public Executor getExecutor(URL url) {
+        ExtensionLoader<ThreadPool> loader = ExtensionLoader.getExtensionLoader(ThreadPool.class);
+        String name = url.getParameter(DELEGATE_KEY);
+        ThreadPool delegate = name == null || NAME.equals(name) ? loader.getDefaultExtension() : loader.getExtension(name);
+        Executor executor = delegate.getExecutor(url);
+
+        Tracing tracing = TracerManager.getInstance().getTracing();
+        if (tracing == null) {
+            return executor;
+        }
+        if (executor.getClass() == ThreadPoolExecutor.class) {
+            // 还没有启动线程，按相同的参数换成带上下文传递的执行器
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            TracingThreadPoolExecutor traced = new TracingThreadPoolExecutor(pool, tracing.currentTraceContext());
+            pool.shutdown();
+            return traced;
+        }
+        if (executor instanceof ExecutorService) {
+            return tracing.currentTraceContext().executorService((ExecutorService) executor);
+        }
+        logger.warn("线程池" + executor + "不是ExecutorService，不传递调用链");
+        return executor;
+    }
+}
@@ -0,0 +1,44 @@
+package com.jcfc.microservice.tracer.dubbo;
+
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.TraceContext;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 任务在提交时的调用链上下文里执行的线程池，submit/invokeAll最终都经过execute
+ *
+ * @version 1.0
+ */
+final class TracingThreadPoolExecutor extends ThreadPoolExecutor {
+
+    private final CurrentTraceContext currentTraceContext;
+
+    /** 沿用dubbo线程池的全部参数，包括队列和拒绝策略 */
+    TracingThreadPoolExecutor(ThreadPoolExecutor pool, CurrentTraceContext currentTraceContext) {
+        super(pool.getCorePoolSize(), pool.getMaximumPoolSize(), pool.getKeepAliveTime(TimeUnit.NANOSECONDS),
+                TimeUnit.NANOSECONDS, pool.getQueue(), pool.getThreadFactory(), pool.getRejectedExecutionHandler());
+        allowCoreThreadTimeOut(pool.allowsCoreThreadTimeOut());
+        this.currentTraceContext = currentTraceContext;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        final TraceContext context = currentTraceContext.get();
+        super.execute(new Runnable() {
+            @Override
+            public void run() {
+                // 没有上下文时也打开作用域，把工作线程上的上下文清空
+                try (CurrentTraceContext.Scope scope = currentTraceContext.newScope(context)) {
+                    command.run();
+                }
+            }
+
+            @Override
+            public String toString() {
+                return command.toString();
+            }
+        });
+    }
+}
@@ -0,0 +1,144 @@
+package com.jcfc.microservice.tracer.http;
+
+import brave.Tracing;
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.TraceContext;
+import com.jcfc.microservice.tracer.TracerManager;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletRequest;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+/**
+ * 异步servlet的调用链传递
+ * 异步请求在其他线程上继续处理（AsyncContext.start、业务线程池、非阻塞IO的回调），线程上下文不会跟过去。
+ * 这里按请求上保存的{@link TraceContext}重新建立作用域，日志里的traceId和下游调用都能接上。
+ *
+ * <pre>
+ * asyncContext.start(AsyncTracing.wrap(request, task));
+ * input.setReadListener(AsyncTracing.wrap(request, listener));
+ * </pre>
+ *
+ * @version 1.0
+ */
+public final class AsyncTracing {
+    private static final CurrentTraceContext.Scope NOOP_SCOPE = new CurrentTraceContext.Scope() {
+        @Override
+        public void close() {
+        }
+    };
+
+    private AsyncTracing() {
+    }
+
+    /** 请求对应的调用链上下文，由{@link HttpTracingFilter}在请求开始时保存 */
+    public static TraceContext context(ServletRequest request) {
+        Object context = request.getAttribute(TraceContext.class.getName());
+        return context instanceof TraceContext ? (TraceContext) context : null;
+    }
+
+    /**
+     * 在当前线程上打开请求的作用域，用完需要关闭
+     */
+    public static CurrentTraceContext.Scope scope(ServletRequest request) {
+        return scope(context(request));
+    }
+
+    public static Runnable wrap(ServletRequest request, final Runnable task) {
+        final TraceContext context = context(request);
+        if (context == null) {
+            return task;
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                try (CurrentTraceContext.Scope scope = scope(context)) {
+                    task.run();
+                }
+            }
+        };
+    }
+
+    public static <V> Callable<V> wrap(ServletRequest request, final Callable<V> task) {
+        final TraceContext context = context(request);
+        if (context == null) {
+            return task;
+        }
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                try (CurrentTraceContext.Scope scope = scope(context)) {
+                    return task.call();
+                }
+            }
+        };
+    }
+
+    public static ReadListener wrap(ServletRequest request, ReadListener listener) {
+        return wrap(context(request), listener);
+    }
+
+    public static WriteListener wrap(ServletRequest request, WriteListener listener) {
+        return wrap(context(request), listener);
+    }
+
+    static ReadListener wrap(final TraceContext context, final ReadListener listener) {
+        if (context == null || listener == null) {
+            return listener;
+        }
+        return new ReadListener() {
+            @Override
+            public void onDataAvailable() throws IOException {
+                try (CurrentTraceContext.Scope scope = scope(context)) {
+                    listener.onDataAvailable();
+                }
+            }
+
+            @Override
+            public void onAllDataRead() throws IOException {
+                try (CurrentTraceContext.Scope scope = scope(context)) {
+                    listener.onAllDataRead();
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                try (CurrentTraceContext.Scope scope = scope(context)) {
+                    listener.onError(t);
+                }
+            }
+        };
+    }
+
+    static WriteListener wrap(final TraceContext context, final WriteListener listener) {
+        if (context == null || listener == null) {
+            return listener;
+        }
+        return new WriteListener() {
+            @Override
+            public void onWritePossible() throws IOException {
+                try (CurrentTraceContext.Scope scope = scope(context)) {
+                    listener.onWritePossible();
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                try (CurrentTraceContext.Scope scope = scope(context)) {
+                    listener.onError(t);
+                }
+            }
+        };
+    }
+
+    //各tracer实例共用同一个线程上下文
+    static CurrentTraceContext.Scope scope(TraceContext context) {
+        Tracing tracing = TracerManager.getInstance().getTracing();
+        if (tracing == null) {
+            return NOOP_SCOPE;
+        }
+        return tracing.currentTraceContext().newScope(context);
+    }
+}
@@ -0,0 +1,251 @@
+package com.jcfc.microservice.tracer.http;
+
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * 报文采集缓冲
+ * 文本模式只保留前limit个字节，超出的部分只计数；二进制模式不保存内容，只计算长度和CRC32。
+ * 采集不会影响报文本身的读写。
+ * 内容保存在从{@link ChunkPool}借来的定长块里，不随报文增长反复扩容复制；
+ * 采集结果记到span后调用{@link #release()}归还，字符输出直接按UTF-8编码进块里，不产生中间对象。
+ *
+ * @version 1.0
+ */
+final class CaptureBuffer {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int limit;
+    private final ChunkPool pool;
+    private byte[][] chunks;
+    private int count;
+    private long total;
+    private boolean truncated;
+    //写入时已按该字符集编码，为空时由读取方决定
+    private String charset;
+    private CapturePolicy.Mode mode = CapturePolicy.Mode.TEXT;
+    private CRC32 crc;
+    //上一次字符输出末尾未配对的高位代理字符
+    private char pendingHigh;
+    private boolean released;
+
+    CaptureBuffer(int limit) {
+        this(limit, ChunkPool.shared());
+    }
+
+    CaptureBuffer(int limit, CapturePolicy.Mode mode) {
+        this(limit);
+        setMode(mode);
+    }
+
+    CaptureBuffer(int limit, ChunkPool pool) {
+        this.limit = Math.max(0, limit);
+        this.pool = pool;
+    }
+
+    /** 设置采集方式，需要在写入之前调用 */
+    void setMode(CapturePolicy.Mode mode) {
+        this.mode = mode;
+        this.crc = mode == CapturePolicy.Mode.BINARY ? new CRC32() : null;
+    }
+
+    CapturePolicy.Mode getMode() {
+        return mode;
+    }
+
+    void write(int b) {
+        total++;
+        if (crc != null) {
+            crc.update(b);
+            return;
+        }
+        if (count < limit && !released) {
+            put((byte) b);
+        } else {
+            truncated = true;
+        }
+    }
+
+    void write(byte[] b, int off, int len) {
+        total += len;
+        if (crc != null) {
+            crc.update(b, off, len);
+            return;
+        }
+        int n = Math.min(len, limit - count);
+        if (n < len) {
+            truncated = true;
+        }
+        while (n > 0 && !released) {
+            byte[] chunk = chunkFor(count);
+            int pos = count % pool.chunkSize();
+            int copy = Math.min(n, chunk.length - pos);
+            System.arraycopy(b, off, chunk, pos, copy);
+            count += copy;
+            off += copy;
+            n -= copy;
+        }
+    }
+
+    /**
+     * 采集字符，按UTF-8编码保存；超出上限后不再编码，只计数
+     */
+    void write(char[] c, int off, int len) {
+        if (count >= limit || crc != null || released) {
+            //二进制模式下字符输出只计数
+            truncated = true;
+            total += len;
+            return;
+        }
+        charset = "UTF-8";
+        int i = off;
+        for (int end = off + len; i < end && count < limit; i++) {
+            encode(c[i]);
+        }
+        if (i < off + len) {
+            truncated = true;
+        }
+        total += len;
+    }
+
+    void write(String s, int off, int len) {
+        if (count >= limit || crc != null || released) {
+            truncated = true;
+            total += len;
+            return;
+        }
+        charset = "UTF-8";
+        int i = off;
+        for (int end = off + len; i < end && count < limit; i++) {
+            encode(s.charAt(i));
+        }
+        if (i < off + len) {
+            truncated = true;
+        }
+        total += len;
+    }
+
+    long crc32() {
+        return crc != null ? crc.getValue() : 0L;
+    }
+
+    /** 是否有未保留的部分 */
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    int size() {
+        return count;
+    }
+
+    long total() {
+        return total;
+    }
+
+    void reset() {
+        count = 0;
+        total = 0;
+        truncated = false;
+        pendingHigh = 0;
+        if (crc != null) {
+            crc.reset();
+        }
+    }
+
+    String toString(String defaultCharset) {
+        String cs = charset != null ? charset : defaultCharset;
+        Charset decoder;
+        try {
+            decoder = Charset.forName(cs);
+        } catch (RuntimeException e) {
+            decoder = UTF_8;
+        }
+        if (count == 0) {
+            return "";
+        }
+        int chunkSize = pool.chunkSize();
+        if (count <= chunkSize) {
+            return new String(chunks[0], 0, count, decoder);
+        }
+        //跨块时合并一次再解码，避免多字节字符被切断
+        byte[] joined = new byte[count];
+        for (int i = 0, pos = 0; pos < count; i++) {
+            int n = Math.min(chunkSize, count - pos);
+            System.arraycopy(chunks[i], 0, joined, pos, n);
+            pos += n;
+        }
+        return new String(joined, 0, count, decoder);
+    }
+
+    /**
+     * 归还占用的块，之后的写入只计数
+     */
+    void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (chunks != null) {
+            for (int i = 0; i < chunks.length && chunks[i] != null; i++) {
+                pool.release(chunks[i]);
+                chunks[i] = null;
+            }
+        }
+        count = 0;
+    }
+
+    private void encode(char c) {
+        if (pendingHigh != 0) {
+            char high = pendingHigh;
+            pendingHigh = 0;
+            if (Character.isLowSurrogate(c)) {
+                int cp = Character.toCodePoint(high, c);
+                put((byte) (0xF0 | (cp >> 18)));
+                put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                put((byte) (0x80 | (cp & 0x3F)));
+                return;
+            }
+            put((byte) '?');
+        }
+        if (c < 0x80) {
+            put((byte) c);
+        } else if (c < 0x800) {
+            put((byte) (0xC0 | (c >> 6)));
+            put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHigh = c;
+        } else if (Character.isLowSurrogate(c)) {
+            put((byte) '?');
+        } else {
+            put((byte) (0xE0 | (c >> 12)));
+            put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            put((byte) (0x80 | (c & 0x3F)));
+        }
+    }
+
+    private void put(byte b) {
+        if (count >= limit) {
+            return;
+        }
+        chunkFor(count)[count % pool.chunkSize()] = b;
+        count++;
+    }
+
+    private byte[] chunkFor(int position) {
+        int index = position / pool.chunkSize();
+        if (chunks == null) {
+            chunks = new byte[Math.max(1, Math.min(4, (limit + pool.chunkSize() - 1) / pool.chunkSize()))][];
+        } else if (index >= chunks.length) {
+            byte[][] grown = new byte[chunks.length << 1][];
+            System.arraycopy(chunks, 0, grown, 0, chunks.length);
+            chunks = grown;
+        }
+        byte[] chunk = chunks[index];
+        if (chunk == null) {
+            chunk = pool.acquire();
+            chunks[index] = chunk;
+        }
+        return chunk;
+    }
+}
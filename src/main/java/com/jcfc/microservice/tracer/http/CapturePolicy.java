@@ -0,0 +1,203 @@
+package com.jcfc.microservice.tracer.http;
+
+import com.jcfc.microservice.tracer.TracerConfig;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * http报文的采集策略
+ * 按Content-Type和请求路径决定：文本类报文在预算内完整采集，二进制只记录长度和CRC32，
+ * 流式响应（SSE、附件下载）和指定路径完全不采集。配置在快照变化时预编译一次，匹配结果按Content-Type缓存。
+ *
+ * @version 1.0
+ */
+final class CapturePolicy {
+
+    enum Mode {
+        TEXT, BINARY, SKIP
+    }
+
+    static final String TRACER_HTTP_CAPTURE_TEXT_TYPES = "tracer.http.capture.text-types";
+    static final String TRACER_HTTP_CAPTURE_SKIP_TYPES = "tracer.http.capture.skip-types";
+    static final String TRACER_HTTP_CAPTURE_SKIP_PATHS = "tracer.http.capture.skip-paths";
+    static final String TRACER_HTTP_CAPTURE_BUDGET = "tracer.http.capture.budget";
+
+    private static final String DEFAULT_TEXT_TYPES = "text/*,application/json,application/*+json,application/xml,"
+            + "application/*+xml,application/x-www-form-urlencoded,application/javascript";
+    private static final String DEFAULT_SKIP_TYPES = "text/event-stream,application/x-ndjson,application/stream+json";
+    private static final int MAX_CACHED_TYPES = 256;
+
+    private static volatile CapturePolicy current;
+
+    private final TracerConfig config;
+    private final int budget;
+    private final Matcher textTypes;
+    private final Matcher skipTypes;
+    private final List<String> skipPathPrefixes = new ArrayList<>();
+    private final Set<String> skipPaths = new HashSet<>();
+    private final ConcurrentMap<String, Mode> modes = new ConcurrentHashMap<>();
+
+    private CapturePolicy(TracerConfig config) {
+        this.config = config;
+        this.budget = (int) TracerConfig.parseLong(config.getProperty(TRACER_HTTP_CAPTURE_BUDGET), config.getMaxTagLength());
+        this.textTypes = new Matcher(value(config, TRACER_HTTP_CAPTURE_TEXT_TYPES, DEFAULT_TEXT_TYPES));
+        this.skipTypes = new Matcher(value(config, TRACER_HTTP_CAPTURE_SKIP_TYPES, DEFAULT_SKIP_TYPES));
+        for (String path : split(config.getProperty(TRACER_HTTP_CAPTURE_SKIP_PATHS))) {
+            if (path.endsWith("/**") || path.endsWith("/*")) {
+                skipPathPrefixes.add(path.substring(0, path.lastIndexOf('/') + 1));
+            } else {
+                skipPaths.add(path);
+            }
+        }
+    }
+
+    /**
+     * 当前配置对应的策略，配置快照变化后重新编译
+     */
+    static CapturePolicy current() {
+        TracerConfig config = TracerConfig.current();
+        CapturePolicy policy = current;
+        if (policy == null || policy.config != config) {
+            policy = new CapturePolicy(config);
+            current = policy;
+        }
+        return policy;
+    }
+
+    /** 文本报文的采集上限，单位字节 */
+    int getBudget() {
+        return budget;
+    }
+
+    boolean isSkipped(String path) {
+        if (path == null) {
+            return false;
+        }
+        if (skipPaths.contains(path)) {
+            return true;
+        }
+        for (String prefix : skipPathPrefixes) {
+            if (path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按Content-Type决定采集方式，没有Content-Type时按文本处理（GET等没有body的请求）
+     */
+    Mode forContentType(String contentType) {
+        if (contentType == null || contentType.isEmpty()) {
+            return Mode.TEXT;
+        }
+        Mode mode = modes.get(contentType);
+        if (mode == null) {
+            mode = match(mediaType(contentType));
+            if (modes.size() >= MAX_CACHED_TYPES) {
+                modes.clear();
+            }
+            modes.put(contentType, mode);
+        }
+        return mode;
+    }
+
+    /**
+     * 响应的采集方式，在第一次输出时决定：附件下载和显式分块的响应不采集
+     */
+    Mode forResponse(HttpServletResponse response) {
+        String disposition = response.getHeader("Content-Disposition");
+        if (disposition != null && disposition.regionMatches(true, 0, "attachment", 0, 10)) {
+            return Mode.SKIP;
+        }
+        if ("chunked".equalsIgnoreCase(response.getHeader("Transfer-Encoding"))) {
+            return Mode.SKIP;
+        }
+        return forContentType(response.getContentType());
+    }
+
+    private Mode match(String mediaType) {
+        if (skipTypes.matches(mediaType)) {
+            return Mode.SKIP;
+        }
+        if (textTypes.matches(mediaType)) {
+            return Mode.TEXT;
+        }
+        return Mode.BINARY;
+    }
+
+    private static String mediaType(String contentType) {
+        int semicolon = contentType.indexOf(';');
+        String type = semicolon >= 0 ? contentType.substring(0, semicolon) : contentType;
+        return type.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static String value(TracerConfig config, String key, String defaultValue) {
+        String value = config.getProperty(key);
+        return value == null ? defaultValue : value;
+    }
+
+    private static List<String> split(String value) {
+        List<String> items = new ArrayList<>();
+        if (value != null) {
+            for (String item : value.split(",")) {
+                item = item.trim();
+                if (!item.isEmpty()) {
+                    items.add(item);
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * 媒体类型匹配：精确类型（application/json）、主类型通配（text/*）、后缀通配（application/*+json）
+     */
+    private static final class Matcher {
+        private final Set<String> exact = new HashSet<>();
+        private final Set<String> majors = new HashSet<>();
+        private final List<String[]> suffixes = new ArrayList<>();
+
+        Matcher(String patterns) {
+            for (String pattern : split(patterns)) {
+                pattern = pattern.toLowerCase(Locale.ENGLISH);
+                int slash = pattern.indexOf('/');
+                if (slash < 0) {
+                    continue;
+                }
+                String major = pattern.substring(0, slash);
+                String minor = pattern.substring(slash + 1);
+                if ("*".equals(minor)) {
+                    majors.add(major);
+                } else if (minor.startsWith("*+")) {
+                    suffixes.add(new String[]{major + "/", minor.substring(1)});
+                } else {
+                    exact.add(pattern);
+                }
+            }
+        }
+
+        boolean matches(String mediaType) {
+            if (exact.contains(mediaType)) {
+                return true;
+            }
+            int slash = mediaType.indexOf('/');
+            if (slash > 0 && majors.contains(mediaType.substring(0, slash))) {
+                return true;
+            }
+            for (String[] suffix : suffixes) {
+                if (mediaType.startsWith(suffix[0]) && mediaType.endsWith(suffix[1])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.jcfc.microservice.tracer.http;
+
+import com.jcfc.microservice.tracer.TracerConfig;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 报文采集用的定长块池
+ * 每个线程缓存一块，应对最常见的单块小报文；其余放在全局的有界队列里，超出上限的直接丢给GC，
+ * 池的总大小不会随流量增长。异步请求在其他线程归还也没有问题。
+ *
+ * @version 1.0
+ */
+final class ChunkPool {
+    static final String TRACER_HTTP_CAPTURE_POOL_CHUNKS = "tracer.http.capture.pool-chunks";
+    static final int CHUNK_SIZE = 4096;
+
+    private static volatile ChunkPool shared;
+
+    private final int chunkSize;
+    private final BlockingQueue<byte[]> free;
+    private final ThreadLocal<byte[]> local = new ThreadLocal<>();
+
+    ChunkPool(int chunkSize, int maxPooled) {
+        this.chunkSize = chunkSize;
+        this.free = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+    }
+
+    /**
+     * 全局共享的池，默认最多缓存1024块（4MB）
+     */
+    static ChunkPool shared() {
+        ChunkPool pool = shared;
+        if (pool == null) {
+            synchronized (ChunkPool.class) {
+                pool = shared;
+                if (pool == null) {
+                    int maxPooled = (int) TracerConfig.parseLong(
+                            TracerConfig.current().getProperty(TRACER_HTTP_CAPTURE_POOL_CHUNKS), 1024L);
+                    pool = new ChunkPool(CHUNK_SIZE, maxPooled);
+                    shared = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    int chunkSize() {
+        return chunkSize;
+    }
+
+    byte[] acquire() {
+        byte[] chunk = local.get();
+        if (chunk != null) {
+            local.set(null);
+            return chunk;
+        }
+        chunk = free.poll();
+        return chunk != null ? chunk : new byte[chunkSize];
+    }
+
+    void release(byte[] chunk) {
+        if (chunk == null || chunk.length != chunkSize) {
+            return;
+        }
+        if (local.get() == null) {
+            local.set(chunk);
+            return;
+        }
+        free.offer(chunk);
+    }
+
+    /** 全局队列里空闲的块数 */
+    int pooled() {
+        return free.size();
+    }
+}
@@ -0,0 +1,122 @@
+package com.jcfc.microservice.tracer.http;
+
+import brave.Span;
+import com.jcfc.microservice.tracer.TracerConfig;
+import com.jcfc.microservice.tracer.metrics.TracerMetrics;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static com.jcfc.microservice.tracer.utils.SpanTags.maybeTagPayload;
+
+/**
+ * 一次http请求的报文采集
+ * 请求和响应都是边读写边复制，同步请求在filter返回时、异步请求在完成时把采集结果记到span上。
+ * 采集方式由{@link CapturePolicy}决定：文本记录内容，二进制只记录长度（args.bytes）和CRC32（args.crc32）。
+ *
+ * @version 1.0
+ */
+final class HttpCapture {
+    private final ReaderHttpServletRequestWrapper request;
+    private final ReaderHttpServletResponseWrapper response;
+
+    private HttpCapture(ReaderHttpServletRequestWrapper request, ReaderHttpServletResponseWrapper response) {
+        this.request = request;
+        this.response = response;
+    }
+
+    /**
+     * 按当前配置和采集策略决定采集哪些报文，都不采集时返回null
+     */
+    static HttpCapture create(HttpServletRequest request, HttpServletResponse response, Span span) {
+        TracerConfig config = TracerConfig.current();
+        if (span.isNoop() || !(config.isCaptureArgs() || config.isCaptureResult())
+                || !("POST".equalsIgnoreCase(request.getMethod()) || "GET".equalsIgnoreCase(request.getMethod()))) {
+            return null;
+        }
+        CapturePolicy policy = CapturePolicy.current();
+        if (policy.isSkipped(path(request))) {
+            return null;
+        }
+        long start = System.nanoTime();
+        ReaderHttpServletRequestWrapper requestWrapper = null;
+        if (config.isCaptureArgs()) {
+            CapturePolicy.Mode mode = policy.forContentType(request.getContentType());
+            if (mode != CapturePolicy.Mode.SKIP) {
+                requestWrapper = new ReaderHttpServletRequestWrapper(request, policy.getBudget(), mode);
+            }
+        }
+        ReaderHttpServletResponseWrapper responseWrapper = config.isCaptureResult()
+                ? new ReaderHttpServletResponseWrapper(response, policy, span.context()) : null;
+        if (requestWrapper == null && responseWrapper == null) {
+            return null;
+        }
+        HttpCapture capture = new HttpCapture(requestWrapper, responseWrapper);
+        TracerMetrics.getInstance().httpBuffering().recordSince(start);
+        return capture;
+    }
+
+    ServletRequest request(ServletRequest original) {
+        return request != null ? request : original;
+    }
+
+    ServletResponse response(ServletResponse original) {
+        return response != null ? response : original;
+    }
+
+    /**
+     * 把采集到的入参和结果记到span上，超过长度上限的不记录；之后归还采集缓冲占用的块
+     */
+    void tag(Span span) {
+        long start = System.nanoTime();
+        try {
+            if (request != null) {
+                tag(span, "args", request.getCapture(), charset(request.getCharacterEncoding()));
+            }
+            if (response != null) {
+                tag(span, "result", response.getCapture(), charset(response.getCharacterEncoding()));
+            }
+        } finally {
+            if (request != null) {
+                request.getCapture().release();
+            }
+            if (response != null) {
+                response.getCapture().release();
+            }
+            TracerMetrics.getInstance().httpBuffering().recordSince(start);
+        }
+    }
+
+    private static void tag(Span span, String key, CaptureBuffer capture, String charset) {
+        switch (capture.getMode()) {
+            case SKIP:
+                return;
+            case BINARY:
+                span.tag(key + ".bytes", Long.toString(capture.total()));
+                span.tag(key + ".crc32", Long.toHexString(capture.crc32()));
+                return;
+            default:
+                break;
+        }
+        if (capture.isTruncated()) {
+            span.tag(key + ".bytes", Long.toString(capture.total()));
+            TracerMetrics.getInstance().oversizedTag();
+            return;
+        }
+        maybeTagPayload(span, key, capture.toString(charset));
+    }
+
+    //应用内的路径，不含context path
+    private static String path(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        String contextPath = request.getContextPath();
+        return contextPath != null && uri.startsWith(contextPath) ? uri.substring(contextPath.length()) : uri;
+    }
+
+    //容器未指定编码时返回ISO-8859-1，这里按UTF-8解码
+    private static String charset(String encoding) {
+        return encoding == null || "ISO-8859-1".equalsIgnoreCase(encoding) ? "UTF-8" : encoding;
+    }
+}
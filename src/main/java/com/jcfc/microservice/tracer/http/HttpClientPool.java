@@ -0,0 +1,257 @@
+package com.jcfc.microservice.tracer.http;
+
+import brave.Span;
+import brave.Tracing;
+import com.jcfc.microservice.tracer.TracerConfig;
+import com.jcfc.microservice.tracer.TracerManager;
+import com.jcfc.microservice.tracer.metrics.DurationStats;
+import com.jcfc.microservice.tracer.metrics.StripedCounter;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 出站http的共享连接池
+ * 所有{@link TracingHttpClientBuilder}创建的client共用，按路由限制连接数，后台定时清理过期和空闲连接，
+ * 服务端没有返回Keep-Alive时按配置的时长保持连接。借连接的等待时间计入JMX指标，
+ * 等待超过1ms时在当前的客户端span上记录http.pool.wait.ms和当时的连接池状态。
+ * 连接池在首次使用时按当时的配置创建，修改配置需要重启。
+ *
+ * @version 1.0
+ */
+public final class HttpClientPool implements HttpClientPoolMBean {
+    private static final Logger logger = LoggerFactory.getLogger(HttpClientPool.class);
+
+    static final String OBJECT_NAME = "com.jcfc.microservice.tracer:type=HttpClientPool";
+    static final String TRACER_HTTPCLIENT_MAX_TOTAL = "tracer.httpclient.max-total";
+    static final String TRACER_HTTPCLIENT_MAX_PER_ROUTE = "tracer.httpclient.max-per-route";
+    static final String TRACER_HTTPCLIENT_IDLE_TIMEOUT = "tracer.httpclient.idle-timeout";
+    static final String TRACER_HTTPCLIENT_KEEP_ALIVE = "tracer.httpclient.keep-alive";
+    static final String TRACER_HTTPCLIENT_CONNECT_TIMEOUT = "tracer.httpclient.connect-timeout";
+    static final String TRACER_HTTPCLIENT_SOCKET_TIMEOUT = "tracer.httpclient.socket-timeout";
+    static final String TRACER_HTTPCLIENT_LEASE_TIMEOUT = "tracer.httpclient.lease-timeout";
+
+    private static final long SLOW_LEASE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static volatile HttpClientPool shared;
+
+    private final PoolingHttpClientConnectionManager manager;
+    private final RequestConfig requestConfig;
+    private final ConnectionKeepAliveStrategy keepAliveStrategy;
+    private final ScheduledExecutorService evictor;
+    private final DurationStats leaseWait = new DurationStats();
+    private final AtomicLong leaseWaitMax = new AtomicLong();
+    private final StripedCounter leaseTimeouts = new StripedCounter();
+
+    private HttpClientPool(TracerConfig config) {
+        this.manager = new PoolingHttpClientConnectionManager() {
+            @Override
+            public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+                return new TimedConnectionRequest(super.requestConnection(route, state));
+            }
+        };
+        manager.setMaxTotal((int) longValue(config, TRACER_HTTPCLIENT_MAX_TOTAL, 200L));
+        manager.setDefaultMaxPerRoute((int) longValue(config, TRACER_HTTPCLIENT_MAX_PER_ROUTE, 20L));
+        //空闲超过2秒的连接借出前先校验，避免拿到服务端已经关闭的连接
+        manager.setValidateAfterInactivity(2000);
+
+        this.requestConfig = RequestConfig.custom()
+                .setConnectTimeout((int) longValue(config, TRACER_HTTPCLIENT_CONNECT_TIMEOUT, 3000L))
+                //读取默认不限时，和直接用HttpClientBuilder创建的client一致；借连接默认最多等1秒，连接池耗尽时尽快失败
+                .setSocketTimeout((int) longValue(config, TRACER_HTTPCLIENT_SOCKET_TIMEOUT, 0L))
+                .setConnectionRequestTimeout((int) longValue(config, TRACER_HTTPCLIENT_LEASE_TIMEOUT, 1000L))
+                .build();
+
+        final long keepAliveMillis = longValue(config, TRACER_HTTPCLIENT_KEEP_ALIVE, 30000L);
+        this.keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return duration > 0 ? duration : keepAliveMillis;
+            }
+        };
+
+        final long idleMillis = longValue(config, TRACER_HTTPCLIENT_IDLE_TIMEOUT, 30000L);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Tracer HttpClient Evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1000L, Math.min(5000L, idleMillis / 2));
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    manager.closeExpiredConnections();
+                    manager.closeIdleConnections(idleMillis, TimeUnit.MILLISECONDS);
+                } catch (RuntimeException e) {
+                    logger.warn("清理httpclient空闲连接失败：" + e.getMessage());
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 全局共享的连接池，首次使用时创建并注册到JMX
+     */
+    public static HttpClientPool shared() {
+        HttpClientPool pool = shared;
+        if (pool == null) {
+            synchronized (HttpClientPool.class) {
+                pool = shared;
+                if (pool == null) {
+                    pool = new HttpClientPool(TracerConfig.current());
+                    try {
+                        ManagementFactory.getPlatformMBeanServer().registerMBean(pool, new ObjectName(OBJECT_NAME));
+                    } catch (Exception e) {
+                        logger.warn("注册HttpClientPool到JMX失败：" + e.getMessage());
+                    }
+                    shared = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * 把连接池、保活策略和超时配置装到builder上；连接池是共享的，关闭client不会关闭连接池
+     */
+    public HttpClientBuilder configure(HttpClientBuilder builder) {
+        return builder.setConnectionManager(manager)
+                .setConnectionManagerShared(true)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .setDefaultRequestConfig(requestConfig);
+    }
+
+    public PoolingHttpClientConnectionManager getConnectionManager() {
+        return manager;
+    }
+
+    /** 连接、读取和借连接的超时配置，异步client也按这份配置 */
+    public RequestConfig getRequestConfig() {
+        return requestConfig;
+    }
+
+    @Override public int getLeased() {
+        return manager.getTotalStats().getLeased();
+    }
+
+    @Override public int getPending() {
+        return manager.getTotalStats().getPending();
+    }
+
+    @Override public int getAvailable() {
+        return manager.getTotalStats().getAvailable();
+    }
+
+    @Override public int getMaxTotal() {
+        return manager.getMaxTotal();
+    }
+
+    @Override public int getMaxPerRoute() {
+        return manager.getDefaultMaxPerRoute();
+    }
+
+    @Override public long getLeaseCount() {
+        return leaseWait.count();
+    }
+
+    @Override public long getLeaseWaitMeanMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(leaseWait.meanNanos());
+    }
+
+    @Override public long getLeaseWaitMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(leaseWaitMax.get());
+    }
+
+    @Override public long getLeaseTimeouts() {
+        return leaseTimeouts.sum();
+    }
+
+    @Override public String getSummary() {
+        PoolStats stats = manager.getTotalStats();
+        return "leased=" + stats.getLeased() + ",pending=" + stats.getPending() + ",available=" + stats.getAvailable()
+                + ",max=" + stats.getMax() + ",leaseWait[" + leaseWait + ",maxUs=" + getLeaseWaitMaxMicros()
+                + "],leaseTimeouts=" + getLeaseTimeouts();
+    }
+
+    @Override public void reset() {
+        leaseWait.reset();
+        leaseWaitMax.set(0);
+        leaseTimeouts.reset();
+    }
+
+    private void recordLease(long waitNanos) {
+        leaseWait.record(waitNanos);
+        long max;
+        while (waitNanos > (max = leaseWaitMax.get()) && !leaseWaitMax.compareAndSet(max, waitNanos)) {
+            // retry
+        }
+        if (waitNanos >= SLOW_LEASE_NANOS) {
+            //借连接发生在客户端span的作用域内
+            Tracing tracing = TracerManager.getInstance().getTracing();
+            Span span = tracing != null ? tracing.tracer().currentSpan() : null;
+            if (span != null && !span.isNoop()) {
+                PoolStats stats = manager.getTotalStats();
+                span.tag("http.pool.wait.ms", Long.toString(TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+                span.tag("http.pool.leased", Integer.toString(stats.getLeased()));
+                span.tag("http.pool.pending", Integer.toString(stats.getPending()));
+            }
+        }
+    }
+
+    private static long longValue(TracerConfig config, String key, long defaultValue) {
+        return TracerConfig.parseLong(config.getProperty(key), defaultValue);
+    }
+
+    /** 统计借连接的等待时间 */
+    private final class TimedConnectionRequest implements ConnectionRequest {
+        private final ConnectionRequest delegate;
+
+        TimedConnectionRequest(ConnectionRequest delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public HttpClientConnection get(long timeout, TimeUnit tunit)
+                throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+            long start = System.nanoTime();
+            try {
+                return delegate.get(timeout, tunit);
+            } catch (ConnectionPoolTimeoutException e) {
+                leaseTimeouts.increment();
+                throw e;
+            } finally {
+                recordLease(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public boolean cancel() {
+            return delegate.cancel();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.jcfc.microservice.tracer.http;
+
+/**
+ * 出站httpclient连接池的JMX接口
+ *
+ * @version 1.0
+ */
+public interface HttpClientPoolMBean {
+
+    /** 已借出的连接数 */
+    int getLeased();
+
+    /** 等待连接的请求数 */
+    int getPending();
+
+    /** 空闲可用的连接数 */
+    int getAvailable();
+
+    int getMaxTotal();
+
+    int getMaxPerRoute();
+
+    /** 借连接的次数 */
+    long getLeaseCount();
+
+    /** 借连接的平均等待时间，单位微秒 */
+    long getLeaseWaitMeanMicros();
+
+    /** 借连接的最长等待时间，单位微秒 */
+    long getLeaseWaitMaxMicros();
+
+    /** 等待连接超时的次数 */
+    long getLeaseTimeouts();
+
+    /** 汇总：连接池状态与等待时间 */
+    String getSummary();
+
+    void reset();
+}
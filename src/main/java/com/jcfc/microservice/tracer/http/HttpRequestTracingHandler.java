@@ -1,23 +1,47 @@
 package com.jcfc.microservice.tracer.http;
 
+import brave.Clock;
 import brave.Span;
 import brave.Tracer;
 import brave.Tracing;
 import brave.propagation.*;
 import com.alibaba.fastjson.JSON;
+import com.jcfc.microservice.tracer.TracerConfig;
 import com.jcfc.microservice.tracer.TracerManager;
+import com.jcfc.microservice.tracer.metrics.TracerMetrics;
 import com.jcfc.microservice.tracer.utils.NetworkUtils;
+import com.jcfc.microservice.tracer.utils.TraceIds;
 import zipkin2.Endpoint;
 
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.net.URLConnection;
 
+import static com.jcfc.microservice.tracer.utils.SpanTags.maybeTag;
+import static com.jcfc.microservice.tracer.utils.SpanTags.maybeTagPayload;
+
 /**
  * httpRequest方式
+ * 计时只覆盖网络部分：{@link #start(Span)}在connect之前开始，{@link #awaitResponse(URLConnection, Span)}在响应头到达时记下结束时间，
+ * 结果序列化和打tag放在计时之外。开始时间取自brave的时钟，和同一链路里其他span对齐；brave的时钟在Java 7/8上只有毫秒精度，
+ * 结束时间由开始时间加上nanoTime测出的耗时得到。开始时的nanoTime记在当前线程上，start到结束要在同一个线程里调用，
+ * 换了线程时退回到brave的时钟。
  * Created by zhangjinpeng on 2018/3/22.
  */
 
 public class HttpRequestTracingHandler {
     private final Tracer tracer;
+    private final CurrentTraceContext currentTraceContext;
+    private final Clock clock;
+
+    /** 当前线程上正在计时的span */
+    private static final ThreadLocal<Timing> TIMINGS = new ThreadLocal<Timing>() {
+        @Override
+        protected Timing initialValue() {
+            return new Timing();
+        }
+    };
 
     static final Propagation.Setter<URLConnection, String> SETTER =
             new Propagation.Setter<URLConnection, String>() {
@@ -47,6 +71,8 @@ public class HttpRequestTracingHandler {
     public HttpRequestTracingHandler(){
         Tracing tracing = TracerManager.getInstance().getTracing();
         tracer = tracing.tracer();
+        currentTraceContext = tracing.currentTraceContext();
+        clock = tracing.clock();
         injector = tracing.propagation().injector(SETTER);
         extractor = tracing.propagation().extractor(GETTER);
     }
@@ -55,7 +81,17 @@ public class HttpRequestTracingHandler {
         return tracer;
     }
 
+    /**
+     * 创建span并立即开始计时，调用方随后自己connect
+     */
     public Span handle(URLConnection connection, String args) {
+        return start(prepare(connection, args));
+    }
+
+    /**
+     * 创建span、注入B3头并打好请求相关的tag，不开始计时；在connect之前调用{@link #start(Span)}
+     */
+    public Span prepare(URLConnection connection, String args) {
         final Span span = nextSpan(extractor.extract(connection));
         injector.inject(span.context(), connection);
 
@@ -67,21 +103,71 @@ public class HttpRequestTracingHandler {
         span.kind(Span.Kind.CLIENT);
         span.name(getName(connection));
 
-        // Ensure user-code can read the current trace context
-        try (Tracer.SpanInScope ws = tracer.withSpanInScope(span)) {
-            maybeTag(span,"args", args);
-            maybeTag(span,"http.url", connection.getURL().toString());
+        // 只打tag，不需要进入span的作用域
+        if (TracerConfig.current().isCaptureArgs()) {
+            maybeTagPayload(span,"args", args);
+        }
+        maybeTag(span,"http.url", connection.getURL().toString());
 //            span.tag("component", "http");
-            maybeTag(span,"component-client", "httprequest");
+        maybeTag(span,"component-client", "httprequest");
+        //设置远程服务端地址：目标主机，而不是本机
+        span.remoteEndpoint(remoteEndpoint(connection.getURL()));
+        return span;
+    }
+
+    /**
+     * 开始计时，紧挨着connect调用
+     */
+    public Span start(Span span) {
+        if (span.isNoop()) {
+            return span;
         }
-        //设置远程服务端地址
-        Endpoint.Builder remoteEndpoint = Endpoint.newBuilder()
-                .ip(NetworkUtils.getLocalHost());
-        span.remoteEndpoint(remoteEndpoint.build());
+        TracerMetrics.getInstance().spanStarted();
+        long startMicros = clock.currentTimeMicroseconds();
+        Timing timing = TIMINGS.get();
+        timing.context = span.context();
+        timing.startMicros = startMicros;
+        timing.startNanos = System.nanoTime();
+        return span.start(startMicros);
+    }
 
-        return span.start();
+    /** 开始时间加上nanoTime测出的耗时；不是在start的线程上时用brave的时钟 */
+    private long nowMicros(Span span) {
+        Timing timing = TIMINGS.get();
+        if (timing.context != null && timing.context.equals(span.context())) {
+            return timing.startMicros + (System.nanoTime() - timing.startNanos) / 1000L;
+        }
+        return clock.currentTimeMicroseconds();
     }
 
+    /**
+     * 等待响应头到达（POST在写完请求体之后调用），返回到达时的时间戳，交给{@link #handleSend(Object, Throwable, Span, long)}结束span
+     */
+    public long awaitResponse(URLConnection connection, Span span) throws IOException {
+        if (connection instanceof HttpURLConnection) {
+            int status = ((HttpURLConnection) connection).getResponseCode();
+            long timestamp = nowMicros(span);
+            if (!span.isNoop() && (status < 200 || status > 299)) {
+                maybeTag(span, "http.status_code", String.valueOf(status));
+            }
+            return timestamp;
+        }
+        connection.getHeaderField(0);
+        return nowMicros(span);
+    }
+
+    private static Endpoint remoteEndpoint(URL url) {
+        Endpoint.Builder remoteEndpoint = Endpoint.newBuilder();
+        String address = NetworkUtils.getHostAddress(url.getHost());
+        if (address != null) {
+            remoteEndpoint.ip(address);
+        }
+        int port = url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+        if (port > 0) {
+            remoteEndpoint.port(port);
+        }
+        return remoteEndpoint.build();
+    }
 
     private String getName(URLConnection connection) {
         return connection.getURL().getPath();
@@ -94,35 +180,49 @@ public class HttpRequestTracingHandler {
         }
         return extracted.context() != null
                 ? tracer.joinSpan(extracted.context())
-                : tracer.nextSpan(extracted);
+                : TraceIds.nextSpan(tracer, currentTraceContext, extracted);
     }
     /**
-     * Finishes the server span after assigning it tags according to the response or error.
+     * Finishes the client span after assigning it tags according to the response or error.
      * <p>
-     * <p>This is typically called once the response headers are sent, and after the span is {@link
-     * Tracer.SpanInScope#close() no longer in scope}.
+     * <p>结束时间在序列化结果之前记下，序列化不计入耗时；知道响应头到达时间的用
+     * {@link #handleSend(Object, Throwable, Span, long)}。
      */
     public void handleSend(Object object, Throwable error, Span span) {
+        handleSend(object, error, span, nowMicros(span));
+    }
+
+    /**
+     * 按给定的时间戳结束span，时间戳来自{@link #awaitResponse(URLConnection, Span)}
+     */
+    public void handleSend(Object object, Throwable error, Span span, long finishMicros) {
         if (span.isNoop()) {
             return;
         }
 
-        // Ensure user-code can read the current trace context
-        try (Tracer.SpanInScope ws = tracer.withSpanInScope(span)) {
+        // 只打tag，不需要进入span的作用域
+        try {
             if (error != null) {
                 maybeTag(span,"error", "true");
                 maybeTag(span,"httprequest-error", error.getMessage());
             }
-            maybeTag(span,"result", JSON.toJSONString(object));
+            if (TracerConfig.current().isCaptureResult()) {
+                maybeTagPayload(span,"result", JSON.toJSONString(object));
+            }
         } finally {
-            span.finish();
+            span.finish(finishMicros);
+            Timing timing = TIMINGS.get();
+            if (timing.context != null && timing.context.equals(span.context())) {
+                timing.context = null;
+            }
         }
     }
 
-    private static void maybeTag(Span span, String tag, String value) {
-        if (value != null && value.length()<100000) {
-            span.tag(tag, value);
-        }
+    /** 一个线程同时只计时一个span，对象复用 */
+    private static final class Timing {
+        TraceContext context;
+        long startMicros;
+        long startNanos;
     }
 
 }
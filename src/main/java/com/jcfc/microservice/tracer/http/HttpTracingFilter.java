@@ -5,19 +5,22 @@ import brave.Tracer;
 import brave.Tracing;
 import brave.http.HttpServerHandler;
 import brave.http.HttpTracing;
+import brave.propagation.CurrentTraceContext;
 import brave.propagation.Propagation;
 import brave.propagation.TraceContext;
 import com.jcfc.microservice.tracer.TracerManager;
+import com.jcfc.microservice.tracer.metrics.SpanMetrics;
+import com.jcfc.microservice.tracer.metrics.TracerMetrics;
+import com.jcfc.microservice.tracer.utils.TraceIds;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+
+import static com.jcfc.microservice.tracer.utils.SpanTags.maybeTag;
 
 /**
  * 基于brave实现的zipkin的filter，在http协议调用时使用
@@ -39,26 +42,39 @@ public class HttpTracingFilter implements Filter {
                 }
             };
     static final HttpServletAdapter ADAPTER = new HttpServletAdapter();
+    //filter初始化参数，指定使用的tracer实例
+    static final String TRACER_INSTANCE_PARAM = "tracer-instance";
 
     private Tracing tracing;
 
     private final ServletRuntime servlet = ServletRuntime.get();
-    private final Tracer tracer;
-    private final HttpServerHandler handler;
-    private final TraceContext.Extractor<HttpServletRequest> extractor;
+    private Tracer tracer;
+    private HttpServerHandler handler;
+    private TraceContext.Extractor<HttpServletRequest> extractor;
+    private final SpanMetrics metrics;
 
     public HttpTracingFilter() {
-        tracing = TracerManager.getInstance().getTracing();
+        use(TracerManager.getInstance().getTracing());
+        metrics = TracerManager.getInstance().getSpanMetrics();
+    }
+
+    private void use(Tracing tracing) {
+        this.tracing = tracing;
         HttpTracing httpTracing = HttpTracing.create(tracing);
 
         tracer = httpTracing.tracing().tracer();
         handler = HttpServerHandler.create(httpTracing, ADAPTER);
-        extractor = httpTracing.tracing().propagation().extractor(GETTER);
+        //新链路的traceId由TraceIds生成
+        extractor = TraceIds.withTraceId(httpTracing.tracing().propagation().extractor(GETTER));
     }
 
 
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
+        String instance = filterConfig.getInitParameter(TRACER_INSTANCE_PARAM);
+        if (instance != null) {
+            use(TracerManager.getInstance().getTracing(instance));
+        }
     }
 
     @Override
@@ -68,19 +84,32 @@ public class HttpTracingFilter implements Filter {
 
         // Prevent duplicate spans for the same request
         if (request.getAttribute("TracingFilter") != null) {
-            chain.doFilter(request, response);
+            //异步请求再次分派到容器线程时，恢复请求的调用链作用域
+            TraceContext context = servlet.isAsyncDispatch(httpRequest) ? AsyncTracing.context(request) : null;
+            if (context == null) {
+                chain.doFilter(request, response);
+                return;
+            }
+            try (CurrentTraceContext.Scope scope = tracing.currentTraceContext().newScope(context)) {
+                chain.doFilter(request, response);
+            }
             return;
         }
 
         request.setAttribute("TracingFilter", "true");
-        HttpServletRequest requestWrapper = new ReaderHttpServletRequestWrapper((HttpServletRequest) request);
-        ReaderHttpServletResponseWrapper responseWrapper = new ReaderHttpServletResponseWrapper((HttpServletResponse) response, request.getCharacterEncoding());
+        long start = System.nanoTime();
 
-        Span span = handler.handleReceive(extractor, requestWrapper);
+        Span span = handler.handleReceive(extractor, httpRequest);
+        if (!span.isNoop()) {
+            TracerMetrics.getInstance().spanStarted();
+        }
 
         // Add attributes for explicit access to customization or span context
         request.setAttribute(TraceContext.class.getName(), span.context());
 
+        //入参和结果边读写边采集，都不采集时不包装
+        HttpCapture capture = HttpCapture.create(httpRequest, httpResponse, span);
+
         Throwable error = null;
         try (Tracer.SpanInScope ws = tracer.withSpanInScope(span)) {
             maybeTag(span,"http.url" , request.getLocalAddr());
@@ -89,32 +118,8 @@ public class HttpTracingFilter implements Filter {
             maybeTag(span,"peer.port" , Integer.toString(request.getRemotePort()));
             maybeTag(span,"component", "http");
 
-            //处理args
-            if("POST".equalsIgnoreCase(requestWrapper.getMethod()) || "GET".equalsIgnoreCase(requestWrapper.getMethod())) {
-                String args = this.getBodyString(requestWrapper.getReader());
-                if("utf-8".equalsIgnoreCase(requestWrapper.getCharacterEncoding())) {
-                    maybeTag(span, "args", args);
-                }
-                else {
-                    maybeTag(span, "args", this.getUtfString(args));
-                }
-                chain.doFilter(requestWrapper, responseWrapper); // any downstream filters see Tracer.currentSpan
-//                logger.error("http-tracer: charset "+requestWrapper.getCharacterEncoding());
-                String result = new String(responseWrapper.getResponseData(), requestWrapper.getCharacterEncoding());
-//                if("utf-8".equalsIgnoreCase(requestWrapper.getCharacterEncoding())) {
-                maybeTag(span, "result", result);
-//                }
-//                else {
-//                    maybeTag(span, "result", this.getUtfString(result));
-//                }
-
-                response.setContentLength(-1);//解决输出一部分的问题
-                response.setCharacterEncoding(requestWrapper.getCharacterEncoding());
-                //输出到response
-                PrintWriter out = response.getWriter();
-                out.write(result);
-                out.flush();
-                out.close();
+            if (capture != null) {
+                chain.doFilter(capture.request(request), capture.response(response)); // any downstream filters see Tracer.currentSpan
             }
             else {
                 chain.doFilter(request, response); // any downstream filters see Tracer.currentSpan
@@ -125,46 +130,34 @@ public class HttpTracingFilter implements Filter {
             span.tag("error", "true");
             throw e;
         } finally {
-            if (servlet.isAsync(requestWrapper)) { // we don't have the actual response, handle later
-                servlet.handleAsync(handler, requestWrapper, span);
+            if (servlet.isAsync(httpRequest)) { // we don't have the actual response, handle later
+                servlet.handleAsync(handler, httpRequest, span, metrics, start, capture);
             } else { // we have a synchronous response, so we can finish the span
-                handler.handleSend(responseWrapper, error, span);
+                if (capture != null) {
+                    capture.tag(span);
+                }
+                handler.handleSend(httpResponse, error, span);
+                recordMetrics(metrics, httpRequest, httpResponse, start, error);
             }
         }
     }
 
-    private String getUtfString(String str){
-        String utfString = null;
-        try {
-            utfString = new String(str.getBytes(), "utf-8");
-        } catch (UnsupportedEncodingException e) {
-            logger.error("HttpTracingFilter::getUtfString throws IOException: " + e.getMessage());
-        }
-        return utfString;
-    }
-
-    private String getBodyString(BufferedReader br) {
-        String inputLine;
-        StringBuilder str = new StringBuilder();
-        try {
-            while ((inputLine = br.readLine()) != null) {
-                str.append(inputLine);
-            }
-            br.close();
-        } catch (IOException e) {
-            logger.error("HttpTracingFilter::getBodyString throws IOException: " + e.getMessage());
+    /**
+     * 记录http调用指标，名称优先取"http.route"属性，没有则取请求路径，路径里的id替换为{id}
+     */
+    static void recordMetrics(SpanMetrics metrics, HttpServletRequest request, HttpServletResponse response,
+                              long start, Throwable error) {
+        if (!metrics.isEnabled()) {
+            return;
         }
-        return str.toString();
+        Object route = request.getAttribute("http.route");
+        String name = request.getMethod() + " " + (route != null ? route : SpanMetrics.normalizePath(request.getRequestURI()));
+        Integer status = ServletRuntime.get().status(response);
+        metrics.record("http", name, start, error != null || status != null && status >= 500);
     }
 
     @Override
     public void destroy() {
         tracing.close();
     }
-
-    private static void maybeTag(Span span, String tag, String value) {
-        if (value != null && value.length()<100000) {
-            span.tag(tag, value);
-        }
-    }
 }
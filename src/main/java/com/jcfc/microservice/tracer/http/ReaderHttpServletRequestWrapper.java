@@ -1,42 +1,126 @@
 package com.jcfc.microservice.tracer.http;
 
-import jodd.io.StreamUtil;
+import brave.propagation.TraceContext;
 
+import javax.servlet.ReadListener;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 
 /**
+ * 请求报文采集
+ * 不预先读取body，业务读取时原样透传，同时复制一份到有界的采集缓冲；
+ * 支持Servlet 3.1的非阻塞读取（isReady/setReadListener委托给容器，回调里恢复请求的调用链）。
  *
  * Created by zhangjinpeng on 2018/4/27.
  */
 public class ReaderHttpServletRequestWrapper extends HttpServletRequestWrapper {
 
-    private final byte[] body; //用于保存读取body中数据
+    private final CaptureBuffer capture; //用于保存读取body中数据
+    private ServletInputStream in;
+    private BufferedReader reader;
 
-    public ReaderHttpServletRequestWrapper(HttpServletRequest request)
-            throws IOException {
+    public ReaderHttpServletRequestWrapper(HttpServletRequest request, int captureLimit) {
+        this(request, captureLimit, CapturePolicy.Mode.TEXT);
+    }
+
+    ReaderHttpServletRequestWrapper(HttpServletRequest request, int captureLimit, CapturePolicy.Mode mode) {
         super(request);
-        body = StreamUtil.readBytes(request.getReader(), request.getCharacterEncoding());
+        capture = new CaptureBuffer(captureLimit, mode);
     }
 
     @Override
     public BufferedReader getReader() throws IOException {
-        return new BufferedReader(new InputStreamReader(getInputStream()));
+        if (reader == null) {
+            String charset = getCharacterEncoding();
+            reader = new BufferedReader(new InputStreamReader(getInputStream(), charset != null ? charset : "ISO-8859-1"));
+        }
+        return reader;
     }
 
     @Override
     public ServletInputStream getInputStream() throws IOException {
-        final ByteArrayInputStream bais = new ByteArrayInputStream(body);
-        return new ServletInputStream() {
-            @Override
-            public int read() throws IOException {
-                return bais.read();
+        if (in == null) {
+            in = new CapturingInputStream(super.getInputStream(), capture, AsyncTracing.context(this));
+        }
+        return in;
+    }
+
+    CaptureBuffer getCapture() {
+        return capture;
+    }
+
+    /** 透传读取并采集 */
+    private static final class CapturingInputStream extends ServletInputStream {
+        private final ServletInputStream delegate;
+        private final CaptureBuffer capture;
+        private final TraceContext context;
+
+        CapturingInputStream(ServletInputStream delegate, CaptureBuffer capture, TraceContext context) {
+            this.delegate = delegate;
+            this.capture = capture;
+            this.context = context;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = delegate.read();
+            if (b >= 0) {
+                capture.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b) throws IOException {
+            return read(b, 0, b.length);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = delegate.read(b, off, len);
+            if (n > 0) {
+                capture.write(b, off, n);
             }
-        };
+            return n;
+        }
+
+        @Override
+        public int readLine(byte[] b, int off, int len) throws IOException {
+            int n = delegate.readLine(b, off, len);
+            if (n > 0) {
+                capture.write(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return delegate.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return delegate.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            //回调在容器线程上执行，带上请求的调用链
+            delegate.setReadListener(AsyncTracing.wrap(context, readListener));
+        }
     }
 }
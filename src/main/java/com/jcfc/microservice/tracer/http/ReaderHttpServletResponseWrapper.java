@@ -1,82 +1,165 @@
 package com.jcfc.microservice.tracer.http;
 
+import brave.propagation.TraceContext;
+
 import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
-import java.io.*;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
 
 /**
+ * 响应报文采集
+ * 输出直接写到容器的response，同时复制一份到有界的采集缓冲，不再整体缓存后回写；
+ * 采集方式在第一次获取输出流时按{@link CapturePolicy}决定，流式响应直接返回容器的输出流。
+ * 支持Servlet 3.1的非阻塞输出（isReady/setWriteListener委托给容器，回调里恢复请求的调用链）。
  *
  * Created by zhangjinpeng on 2018/4/27.
  */
 public class ReaderHttpServletResponseWrapper extends HttpServletResponseWrapper {
 
-    private ByteArrayOutputStream buffer = null;//输出到byte array
+    private final CaptureBuffer capture;
+    private final CapturePolicy policy;
+    private final TraceContext context;
+    private boolean decided;
     private ServletOutputStream out = null;
     private PrintWriter writer = null;
 
-    ReaderHttpServletResponseWrapper(HttpServletResponse resp, String charset) {
+    ReaderHttpServletResponseWrapper(HttpServletResponse resp, CapturePolicy policy, TraceContext context) {
         super(resp);
-        buffer = new ByteArrayOutputStream();// 真正存储数据的流
-        try {
-            out = new WapperedOutputStream(buffer);
-            writer = new PrintWriter(new OutputStreamWriter(buffer, charset));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        this.policy = policy;
+        this.context = context;
+        this.capture = new CaptureBuffer(policy.getBudget());
     }
 
     /** 重载父类获取outputstream的方法 */
     @Override
     public ServletOutputStream getOutputStream() throws IOException {
+        if (out == null) {
+            out = decide() == CapturePolicy.Mode.SKIP
+                    ? super.getOutputStream() : new CapturingOutputStream(super.getOutputStream(), capture, context);
+        }
         return out;
     }
 
-    /** 重载父类获取writer的方法 */
+    /** 重载父类获取writer的方法，字符写到容器的writer，编码由容器负责 */
     @Override
-    public PrintWriter getWriter() throws UnsupportedEncodingException {
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            writer = decide() == CapturePolicy.Mode.SKIP
+                    ? super.getWriter() : new PrintWriter(new CapturingWriter(super.getWriter(), capture));
+        }
         return writer;
     }
 
-    /** 重载父类获取flushBuffer的方法 */
-    @Override
-    public void flushBuffer() throws IOException {
-        if (out != null) {
-            out.flush();
-        }
-        if (writer != null) {
-            writer.flush();
+    //业务开始输出时Content-Type等响应头已经确定
+    private CapturePolicy.Mode decide() {
+        if (!decided) {
+            capture.setMode(policy.forResponse(this));
+            decided = true;
         }
+        return capture.getMode();
     }
 
     @Override
     public void reset() {
-        buffer.reset();
+        super.reset();
+        capture.reset();
     }
 
-    /** 将out、writer中的数据强制输出到WapperedResponse的buffer里面，否则取不到数据 */
-    byte[] getResponseData() throws IOException {
-        flushBuffer();
-        return buffer.toByteArray();
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        capture.reset();
     }
 
-    /** 内部类，对ServletOutputStream进行包装 */
-    private class WapperedOutputStream extends ServletOutputStream {
-        private ByteArrayOutputStream bos = null;
+    CaptureBuffer getCapture() {
+        return capture;
+    }
 
-        WapperedOutputStream(ByteArrayOutputStream stream) throws IOException {
-            bos = stream;
+    /** 透传输出并采集 */
+    private static final class CapturingOutputStream extends ServletOutputStream {
+        private final ServletOutputStream delegate;
+        private final CaptureBuffer capture;
+        private final TraceContext context;
+
+        CapturingOutputStream(ServletOutputStream delegate, CaptureBuffer capture, TraceContext context) {
+            this.delegate = delegate;
+            this.capture = capture;
+            this.context = context;
         }
 
         @Override
         public void write(int b) throws IOException {
-            bos.write(b);
+            delegate.write(b);
+            capture.write(b);
         }
 
         @Override
         public void write(byte[] b) throws IOException {
-            bos.write(b, 0, b.length);
+            write(b, 0, b.length);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            capture.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            //回调在容器线程上执行，带上请求的调用链
+            delegate.setWriteListener(AsyncTracing.wrap(context, writeListener));
         }
     }
 
+    /** 透传字符输出并采集，自身不缓冲，异步完成时不会有残留 */
+    private static final class CapturingWriter extends Writer {
+        private final PrintWriter delegate;
+        private final CaptureBuffer capture;
+
+        CapturingWriter(PrintWriter delegate, CaptureBuffer capture) {
+            this.delegate = delegate;
+            this.capture = capture;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            delegate.write(cbuf, off, len);
+            capture.write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            delegate.write(str, off, len);
+            capture.write(str, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
 }
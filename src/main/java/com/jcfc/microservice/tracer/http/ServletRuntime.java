@@ -3,6 +3,7 @@ package com.jcfc.microservice.tracer.http;
 import brave.Span;
 import brave.http.HttpServerHandler;
 import brave.internal.Nullable;
+import com.jcfc.microservice.tracer.metrics.SpanMetrics;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.LinkedHashMap;
@@ -11,6 +12,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import javax.servlet.AsyncContext;
 import javax.servlet.AsyncEvent;
 import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -34,8 +36,12 @@ abstract class ServletRuntime {
 
     abstract boolean isAsync(HttpServletRequest request);
 
+    /** 是否是异步请求的再次分派（AsyncContext.dispatch） */
+    abstract boolean isAsyncDispatch(HttpServletRequest request);
+
     abstract void handleAsync(HttpServerHandler<HttpServletRequest, HttpServletResponse> handler,
-                              HttpServletRequest request, Span span);
+                              HttpServletRequest request, Span span, SpanMetrics metrics, long startNanos,
+                              @Nullable HttpCapture capture);
 
     ServletRuntime() {
     }
@@ -66,46 +72,73 @@ abstract class ServletRuntime {
             return request.isAsyncStarted();
         }
 
+        @Override boolean isAsyncDispatch(HttpServletRequest request) {
+            return request.getDispatcherType() == DispatcherType.ASYNC;
+        }
+
         @Override @Nullable Integer status(HttpServletResponse response) {
             return response.getStatus();
         }
 
         @Override void handleAsync(HttpServerHandler<HttpServletRequest, HttpServletResponse> handler,
-                                   HttpServletRequest request, Span span) {
-            if (span.isNoop()) return; // don't add overhead when we aren't httpTracing
-            request.getAsyncContext().addListener(new TracingAsyncListener(handler, span));
+                                   HttpServletRequest request, Span span, SpanMetrics metrics, long startNanos,
+                                   @Nullable HttpCapture capture) {
+            if (span.isNoop() && !metrics.isEnabled()) return; // don't add overhead when we aren't httpTracing
+            request.getAsyncContext().addListener(new TracingAsyncListener(handler, span, metrics, startNanos, capture));
         }
 
         static final class TracingAsyncListener implements AsyncListener {
             final HttpServerHandler<HttpServletRequest, HttpServletResponse> handler;
             final Span span;
+            final SpanMetrics metrics;
+            final long startNanos;
+            @Nullable final HttpCapture capture;
             volatile boolean complete; // multiple async events can occur, only complete once
 
             TracingAsyncListener(HttpServerHandler<HttpServletRequest, HttpServletResponse> handler,
-                                 Span span) {
+                                 Span span, SpanMetrics metrics, long startNanos, @Nullable HttpCapture capture) {
                 this.handler = handler;
                 this.span = span;
+                this.metrics = metrics;
+                this.startNanos = startNanos;
+                this.capture = capture;
             }
 
             @Override public void onComplete(AsyncEvent e) {
                 if (complete) return;
+                tagCapture();
                 handler.handleSend(adaptResponse(e), null, span);
+                recordMetrics(e, null);
                 complete = true;
             }
 
             @Override public void onTimeout(AsyncEvent e) {
                 if (complete) return;
                 span.tag("error", String.format("Timed out after %sms", e.getAsyncContext().getTimeout()));
+                tagCapture();
                 handler.handleSend(adaptResponse(e), null, span);
+                recordMetrics(e, new IllegalStateException("async timeout"));
                 complete = true;
             }
 
             @Override public void onError(AsyncEvent e) {
                 if (complete) return;
+                tagCapture();
                 handler.handleSend(adaptResponse(e), e.getThrowable(), span);
+                recordMetrics(e, e.getThrowable());
                 complete = true;
             }
 
+            /** 异步请求的报文在完成时才读写完毕 */
+            void tagCapture() {
+                if (capture != null) capture.tag(span);
+            }
+
+            void recordMetrics(AsyncEvent e, Throwable error) {
+                HttpTracingFilter.recordMetrics(metrics, (HttpServletRequest) e.getSuppliedRequest(),
+                        (HttpServletResponse) e.getSuppliedResponse(), startNanos, error);
+            }
+
             /** If another async is created (ex via asyncContext.dispatch), this needs to be re-attached */
             @Override public void onStartAsync(AsyncEvent event) {
                 AsyncContext eventAsyncContext = event.getAsyncContext();
@@ -132,8 +165,13 @@ abstract class ServletRuntime {
             return false;
         }
 
+        @Override boolean isAsyncDispatch(HttpServletRequest request) {
+            return false;
+        }
+
         @Override void handleAsync(HttpServerHandler<HttpServletRequest, HttpServletResponse> handler,
-                                   HttpServletRequest request, Span span) {
+                                   HttpServletRequest request, Span span, SpanMetrics metrics, long startNanos,
+                                   @Nullable HttpCapture capture) {
             assert false : "this should never be called in Servlet 2.5";
         }
 
@@ -0,0 +1,348 @@
+package com.jcfc.microservice.tracer.http;
+
+import brave.Span;
+import brave.Tracer;
+import brave.Tracing;
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.Propagation;
+import brave.propagation.TraceContext;
+import com.jcfc.microservice.tracer.TracerConfig;
+import com.jcfc.microservice.tracer.TracerManager;
+import com.jcfc.microservice.tracer.metrics.SpanMetrics;
+import com.jcfc.microservice.tracer.metrics.TracerMetrics;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.util.EntityUtils;
+import zipkin2.Endpoint;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Future;
+
+import static com.jcfc.microservice.tracer.utils.SpanTags.maybeTag;
+import static com.jcfc.microservice.tracer.utils.SpanTags.maybeTagPayload;
+
+/**
+ * 非阻塞httpclient（HttpAsyncClient）支持
+ * 发起请求时创建client span并注入B3头，响应回调里结束span；业务回调在IO线程上执行，
+ * 执行前恢复发起请求时的调用链上下文，回调里的日志和下游调用都能接上。
+ * 响应报文按{@link CapturePolicy}的预算采集，读过的部分会重新拼回entity，业务侧照常读取。
+ *
+ * <pre>
+ * TracingHttpAsyncClient client = new TracingHttpAsyncClient();
+ * client.start();
+ * client.execute(new HttpGet(url), callback);
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class TracingHttpAsyncClient implements Closeable {
+
+    static final Propagation.Setter<HttpUriRequest, String> SETTER =
+            new Propagation.Setter<HttpUriRequest, String>() {
+                @Override
+                public void put(HttpUriRequest carrier, String key, String value) {
+                    carrier.setHeader(key, value);
+                }
+
+                @Override public String toString() {
+                    return "HttpUriRequest::setHeader";
+                }
+            };
+
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    private final CloseableHttpAsyncClient delegate;
+    private final Tracer tracer;
+    private final CurrentTraceContext currentTraceContext;
+    private final TraceContext.Injector<HttpUriRequest> injector;
+    private final SpanMetrics metrics;
+
+    public TracingHttpAsyncClient() {
+        this(TracerManager.getInstance().getTracing(), newDelegate());
+    }
+
+    public TracingHttpAsyncClient(Tracing tracing, CloseableHttpAsyncClient delegate) {
+        this.delegate = delegate;
+        this.tracer = tracing.tracer();
+        this.currentTraceContext = tracing.currentTraceContext();
+        this.injector = tracing.propagation().injector(SETTER);
+        this.metrics = TracerManager.getInstance().getSpanMetrics();
+    }
+
+    /**
+     * 连接数和超时沿用{@link HttpClientPool}的配置，IO反应器和连接池是这个client独占的
+     */
+    private static CloseableHttpAsyncClient newDelegate() {
+        HttpClientPool pool = HttpClientPool.shared();
+        return HttpAsyncClients.custom()
+                .setMaxConnTotal(pool.getMaxTotal())
+                .setMaxConnPerRoute(pool.getMaxPerRoute())
+                .setDefaultRequestConfig(pool.getRequestConfig())
+                .build();
+    }
+
+    public void start() {
+        delegate.start();
+    }
+
+    public boolean isRunning() {
+        return delegate.isRunning();
+    }
+
+    public CloseableHttpAsyncClient getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    public Future<HttpResponse> get(String pathIncludingQuery, FutureCallback<HttpResponse> callback) {
+        return execute(new HttpGet(URI.create(pathIncludingQuery)), callback);
+    }
+
+    public Future<HttpResponse> post(String pathIncludingQuery, String body, FutureCallback<HttpResponse> callback) {
+        HttpPost post = new HttpPost(URI.create(pathIncludingQuery));
+        post.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+        return execute(post, callback);
+    }
+
+    /**
+     * 发起请求，callback可以为空；返回的Future在span结束之后才完成
+     */
+    public Future<HttpResponse> execute(HttpUriRequest request, FutureCallback<HttpResponse> callback) {
+        TraceContext parent = currentTraceContext.get();
+        Span span = handleSend(request);
+        long start = System.nanoTime();
+        try {
+            return delegate.execute(request, new TracingCallback(request, span, parent, start, callback));
+        } catch (RuntimeException e) {
+            finish(request, span, start, null, e);
+            throw e;
+        }
+    }
+
+    private Span handleSend(HttpUriRequest request) {
+        Span span = tracer.nextSpan();
+        injector.inject(span.context(), request);
+        if (span.isNoop()) {
+            return span;
+        }
+
+        span.kind(Span.Kind.CLIENT);
+        span.name(request.getMethod().toLowerCase());
+        URI uri = request.getURI();
+        maybeTag(span, "http.method", request.getMethod());
+        maybeTag(span, "http.url", uri.toString());
+        maybeTag(span, "component-client", "httpasyncclient");
+        if (TracerConfig.current().isCaptureArgs()) {
+            maybeTagPayload(span, "args", requestBody(request));
+        }
+
+        Endpoint.Builder remoteEndpoint = Endpoint.newBuilder();
+        if (uri.getHost() != null && remoteEndpoint.parseIp(uri.getHost())) {
+            if (uri.getPort() > 0) {
+                remoteEndpoint.port(uri.getPort());
+            }
+            span.remoteEndpoint(remoteEndpoint.build());
+        }
+
+        TracerMetrics.getInstance().spanStarted();
+        return span.start();
+    }
+
+    private void finish(HttpUriRequest request, Span span, long start, HttpResponse response, Exception error) {
+        metrics.record("httpasyncclient", request.getMethod() + " " + SpanMetrics.normalizePath(request.getURI().getPath()), start,
+                error != null || (response != null && response.getStatusLine().getStatusCode() >= 400));
+        if (span.isNoop()) {
+            return;
+        }
+        try {
+            if (response != null) {
+                int status = response.getStatusLine().getStatusCode();
+                if (status < 200 || status > 299) {
+                    maybeTag(span, "http.status_code", String.valueOf(status));
+                }
+                if (status >= 400) {
+                    maybeTag(span, "error", String.valueOf(status));
+                }
+                if (TracerConfig.current().isCaptureResult()) {
+                    captureResponse(span, response);
+                }
+            }
+            if (error != null) {
+                maybeTag(span, "error", "true");
+                maybeTag(span, "httpasyncclient-error", error.getMessage() == null
+                        ? error.getClass().getName() : error.getMessage());
+            }
+        } finally {
+            span.finish();
+        }
+    }
+
+    /**
+     * 只采集可重复读取的文本请求体（StringEntity、ByteArrayEntity等），流式请求体不动
+     */
+    private static String requestBody(HttpUriRequest request) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return null;
+        }
+        HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+        if (entity == null || !entity.isRepeatable() || entity.getContentEncoding() != null) {
+            return null;
+        }
+        CapturePolicy policy = CapturePolicy.current();
+        if (policy.forContentType(value(entity.getContentType())) != CapturePolicy.Mode.TEXT
+                || entity.getContentLength() > policy.getBudget()) {
+            return null;
+        }
+        try {
+            return EntityUtils.toString(entity, StandardCharsets.UTF_8);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 按预算读取响应体的开头部分，再把读过的字节和剩余的流拼成新的entity放回响应
+     */
+    private static void captureResponse(Span span, HttpResponse response) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return;
+        }
+        CapturePolicy policy = CapturePolicy.current();
+        CapturePolicy.Mode mode = entity.getContentEncoding() != null
+                ? CapturePolicy.Mode.BINARY : policy.forContentType(value(entity.getContentType()));
+        if (mode == CapturePolicy.Mode.SKIP) {
+            return;
+        }
+        if (mode == CapturePolicy.Mode.BINARY) {
+            if (entity.getContentLength() >= 0) {
+                maybeTag(span, "result.bytes", String.valueOf(entity.getContentLength()));
+            }
+            return;
+        }
+
+        int budget = policy.getBudget();
+        try {
+            InputStream in = entity.getContent();
+            ByteArrayOutputStream head = new ByteArrayOutputStream(Math.min(budget + 1, READ_BUFFER_SIZE));
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int read;
+            while (head.size() <= budget
+                    && (read = in.read(buffer, 0, Math.min(buffer.length, budget + 1 - head.size()))) != -1) {
+                head.write(buffer, 0, read);
+            }
+            byte[] bytes = head.toByteArray();
+            boolean truncated = bytes.length > budget;
+
+            BasicHttpEntity replay = new BasicHttpEntity();
+            replay.setContent(truncated
+                    ? new SequenceInputStream(new ByteArrayInputStream(bytes), in)
+                    : new ByteArrayInputStream(bytes));
+            replay.setContentLength(truncated ? entity.getContentLength() : bytes.length);
+            replay.setContentType(entity.getContentType());
+            replay.setChunked(entity.isChunked());
+            response.setEntity(replay);
+            if (!truncated) {
+                in.close();
+            }
+
+            String text = new String(bytes, 0, Math.min(bytes.length, budget), charset(entity));
+            maybeTagPayload(span, "result", truncated ? text + "..." : text);
+        } catch (IOException | RuntimeException e) {
+            maybeTag(span, "result.error", e.getMessage());
+        }
+    }
+
+    private static Charset charset(HttpEntity entity) {
+        try {
+            ContentType contentType = ContentType.get(entity);
+            if (contentType != null && contentType.getCharset() != null) {
+                return contentType.getCharset();
+            }
+        } catch (RuntimeException ignored) {
+            // Content-Type或charset不合法时按UTF-8处理
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static String value(Header header) {
+        return header == null ? null : header.getValue();
+    }
+
+    /**
+     * 在IO线程上结束span，再恢复发起请求时的上下文执行业务回调
+     */
+    private final class TracingCallback implements FutureCallback<HttpResponse> {
+        private final HttpUriRequest request;
+        private final Span span;
+        private final TraceContext parent;
+        private final long start;
+        private final FutureCallback<HttpResponse> callback;
+
+        TracingCallback(HttpUriRequest request, Span span, TraceContext parent, long start,
+                        FutureCallback<HttpResponse> callback) {
+            this.request = request;
+            this.span = span;
+            this.parent = parent;
+            this.start = start;
+            this.callback = callback;
+        }
+
+        @Override
+        public void completed(HttpResponse response) {
+            finish(request, span, start, response, null);
+            if (callback == null) {
+                return;
+            }
+            try (CurrentTraceContext.Scope scope = currentTraceContext.newScope(parent)) {
+                callback.completed(response);
+            }
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            finish(request, span, start, null, ex);
+            if (callback == null) {
+                return;
+            }
+            try (CurrentTraceContext.Scope scope = currentTraceContext.newScope(parent)) {
+                callback.failed(ex);
+            }
+        }
+
+        @Override
+        public void cancelled() {
+            maybeTag(span, "httpasyncclient-error", "cancelled");
+            finish(request, span, start, null, null);
+            if (callback == null) {
+                return;
+            }
+            try (CurrentTraceContext.Scope scope = currentTraceContext.newScope(parent)) {
+                callback.cancelled();
+            }
+        }
+    }
+}
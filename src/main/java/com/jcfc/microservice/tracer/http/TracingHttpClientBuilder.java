@@ -15,24 +15,57 @@ import java.net.URI;
 
 /**
  * httpclient支持
+ * 创建的client共用{@link HttpClientPool}的连接池，推荐直接使用{@link #sharedClient()}。
  * Created by zhangjinpeng on 2018/3/21.
  */
 
 public class TracingHttpClientBuilder {
 
     private HttpTracing httpTracing;
+    private volatile CloseableHttpClient sharedClient;
 
     public TracingHttpClientBuilder(){
         Tracing tracing = TracerManager.getInstance().getTracing();
         httpTracing = HttpTracing.create(tracing);
     }
 
+    /**
+     * 新建client，连接池是共享的，关闭client不会关闭连接
+     */
     public CloseableHttpClient newClient() {
-        return brave.httpclient.TracingHttpClientBuilder.create(httpTracing).disableAutomaticRetries().build();
+        return HttpClientPool.shared().configure(brave.httpclient.TracingHttpClientBuilder.create(httpTracing))
+                .disableAutomaticRetries().build();
+    }
+
+    /**
+     * 同一个builder共用的client，线程安全，不需要关闭
+     */
+    public CloseableHttpClient sharedClient() {
+        CloseableHttpClient client = sharedClient;
+        if (client == null) {
+            synchronized (this) {
+                client = sharedClient;
+                if (client == null) {
+                    client = newClient();
+                    sharedClient = client;
+                }
+            }
+        }
+        return client;
     }
 
     public void closeClient(CloseableHttpClient client) throws IOException {
-        client.close();
+        if (client != sharedClient) {
+            client.close();
+        }
+    }
+
+    public CloseableHttpResponse get(String pathIncludingQuery) throws IOException {
+        return get(sharedClient(), pathIncludingQuery);
+    }
+
+    public CloseableHttpResponse post(String pathIncludingQuery, String body) throws Exception {
+        return post(sharedClient(), pathIncludingQuery, body);
     }
 
     public CloseableHttpResponse get(CloseableHttpClient client, String pathIncludingQuery)
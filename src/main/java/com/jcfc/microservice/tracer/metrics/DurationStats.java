@@ -0,0 +1,47 @@
+package com.jcfc.microservice.tracer.metrics;
+
+/**
+ * 耗时统计：次数与累计纳秒数，用于tracer自身开销的计量
+ *
+ * @version 1.0
+ */
+public final class DurationStats {
+
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter nanos = new StripedCounter();
+
+    /**
+     * @param startNanos 开始时的{@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public void record(long durationNanos) {
+        count.increment();
+        nanos.add(durationNanos);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long totalNanos() {
+        return nanos.sum();
+    }
+
+    public long meanNanos() {
+        long c = count.sum();
+        return c == 0 ? 0 : nanos.sum() / c;
+    }
+
+    public void reset() {
+        count.reset();
+        nanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count() + ",totalMs=" + totalNanos() / 1000000 + ",meanUs=" + meanNanos() / 1000;
+    }
+}
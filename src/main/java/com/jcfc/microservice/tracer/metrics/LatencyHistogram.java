@@ -0,0 +1,142 @@
+package com.jcfc.microservice.tracer.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的耗时直方图（单位微秒）
+ * 参考HdrHistogram的对数-线性分桶：小于32us的值精确记录，之后每个2的幂区间再分16个子桶，
+ * 相对误差约6%，最大记录约1小时，超出的计入最后一个桶。
+ * 记录按线程分段写入不同的桶数组，读取时合并；写路径是两次原子加（桶计数和耗时累计），总数在读取时由各桶相加得到。
+ *
+ * @version 1.0
+ */
+public final class LatencyHistogram {
+
+    private static final int EXACT = 32;
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    //2^32us约71分钟
+    private static final int MAX_EXPONENT = 32;
+    static final int BUCKETS = EXACT + (MAX_EXPONENT - 5) * SUB_BUCKETS;
+
+    private final int stripes;
+    private final AtomicLongArray counts;
+    private final StripedCounter sum = new StripedCounter();
+
+    public LatencyHistogram() {
+        this.stripes = Math.min(StripedCounter.STRIPES, 4);
+        this.counts = new AtomicLongArray(stripes * BUCKETS);
+    }
+
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        int stripe = StripedCounter.stripe() & (stripes - 1);
+        counts.getAndIncrement(stripe * BUCKETS + bucket(micros));
+        sum.add(micros);
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0L);
+        }
+        sum.reset();
+    }
+
+    /** 合并各分段，生成只读快照 */
+    public Snapshot snapshot() {
+        long[] merged = new long[BUCKETS];
+        long count = 0;
+        for (int s = 0; s < stripes; s++) {
+            int base = s * BUCKETS;
+            for (int b = 0; b < BUCKETS; b++) {
+                long c = counts.get(base + b);
+                merged[b] += c;
+                count += c;
+            }
+        }
+        return new Snapshot(merged, count, sum.sum());
+    }
+
+    static int bucket(long micros) {
+        if (micros < EXACT) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return EXACT + (exponent - 5) * SUB_BUCKETS + sub;
+    }
+
+    /** 桶的上界（包含），用于由分位数反推耗时 */
+    static long upperBound(int bucket) {
+        if (bucket < EXACT) {
+            return bucket;
+        }
+        int exponent = (bucket - EXACT) / SUB_BUCKETS + 5;
+        int sub = (bucket - EXACT) % SUB_BUCKETS;
+        long base = (1L << exponent) + ((long) sub << (exponent - SUB_BITS));
+        return base + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    /** 直方图快照 */
+    public static final class Snapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+
+        Snapshot(long[] buckets, long count, long sum) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long mean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        public long max() {
+            for (int b = buckets.length - 1; b >= 0; b--) {
+                if (buckets[b] > 0) {
+                    return upperBound(b);
+                }
+            }
+            return 0;
+        }
+
+        /** @param quantile 0~1之间，例如0.99 */
+        public long percentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b];
+                if (seen >= rank && buckets[b] > 0) {
+                    return upperBound(b);
+                }
+            }
+            return max();
+        }
+    }
+}
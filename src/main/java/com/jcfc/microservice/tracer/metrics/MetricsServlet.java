@@ -0,0 +1,39 @@
+package com.jcfc.microservice.tracer.metrics;
+
+import com.jcfc.microservice.tracer.TracerManager;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * 调用指标的pull接口，输出prometheus文本格式
+ * 在web.xml中配置：
+ * <pre>
+ * &lt;servlet&gt;
+ *     &lt;servlet-name&gt;tracerMetrics&lt;/servlet-name&gt;
+ *     &lt;servlet-class&gt;com.jcfc.microservice.tracer.metrics.MetricsServlet&lt;/servlet-class&gt;
+ * &lt;/servlet&gt;
+ * &lt;servlet-mapping&gt;
+ *     &lt;servlet-name&gt;tracerMetrics&lt;/servlet-name&gt;
+ *     &lt;url-pattern&gt;/tracer/metrics&lt;/url-pattern&gt;
+ * &lt;/servlet-mapping&gt;
+ * </pre>
+ *
+ * @version 1.0
+ */
+public class MetricsServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 4426349310263473821L;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        PrintWriter writer = resp.getWriter();
+        writer.write(TracerManager.getInstance().getSpanMetrics().getReport());
+        writer.flush();
+    }
+}
@@ -0,0 +1,241 @@
+package com.jcfc.microservice.tracer.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的调用指标（RED：次数、错误数、耗时分布）
+ * 由http、dubbo、aop、rabbitmq的filter/handler在每次调用结束时记录，不受采样率影响，
+ * 不依赖zipkin即可得到100%覆盖的耗时分位数。通过JMX和{@link MetricsServlet}对外暴露。
+ *
+ * @version 1.0
+ */
+public final class SpanMetrics implements SpanMetricsMBean {
+    private static final Logger logger = LoggerFactory.getLogger(SpanMetrics.class);
+
+    static final String OBJECT_NAME = "com.jcfc.microservice.tracer:type=SpanMetrics";
+    //名称数量上限，超过后统一计入 组件 other，防止url等高基数名称撑爆内存
+    static final int MAX_NAMES = 512;
+    static final String OVERFLOW_NAME = "other";
+    //路径里的id统一替换成的段
+    static final String ID_SEGMENT = "{id}";
+
+    private static final SpanMetrics NOOP = new SpanMetrics(false);
+
+    private final boolean enabled;
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    private SpanMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /** 创建并注册到JMX */
+    public static SpanMetrics create() {
+        SpanMetrics metrics = new SpanMetrics(true);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            logger.warn("注册SpanMetrics到JMX失败：" + e.getMessage());
+        }
+        return metrics;
+    }
+
+    /** 不做任何统计的实例，关闭指标时使用 */
+    public static SpanMetrics noop() {
+        return NOOP;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 记录一次调用
+     *
+     * @param component  组件，如http、dubbo
+     * @param name       调用名称
+     * @param startNanos 调用开始时的{@link System#nanoTime()}
+     * @param error      是否出错
+     */
+    public void record(String component, String name, long startNanos, boolean error) {
+        if (!enabled) {
+            return;
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        endpoint(component, name).record(micros, error);
+    }
+
+    /**
+     * 把请求路径里的id换成{id}作为调用名称，避免/order/123这样的路径把名称数量撑满
+     * 纯数字、UUID、至少8位且含数字的十六进制段视为id；没有这样的段时原样返回
+     */
+    public static String normalizePath(String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        StringBuilder normalized = null;
+        int start = 0;
+        int length = path.length();
+        while (start <= length) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (isId(path, start, end)) {
+                if (normalized == null) {
+                    normalized = new StringBuilder(length).append(path, 0, start);
+                }
+                normalized.append(ID_SEGMENT);
+            } else if (normalized != null) {
+                normalized.append(path, start, end);
+            }
+            if (end < length && normalized != null) {
+                normalized.append('/');
+            }
+            start = end + 1;
+        }
+        return normalized == null ? path : normalized.toString();
+    }
+
+    private static boolean isId(String path, int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return false;
+        }
+        boolean digits = true;
+        boolean hex = true;
+        boolean hasDigit = false;
+        int dashes = 0;
+        for (int i = start; i < end; i++) {
+            char c = path.charAt(i);
+            if (c >= '0' && c <= '9') {
+                hasDigit = true;
+            } else if (c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F') {
+                digits = false;
+            } else if (c == '-') {
+                digits = false;
+                dashes++;
+            } else {
+                return false;
+            }
+            hex = hex && c != '-';
+        }
+        if (digits) {
+            return true;
+        }
+        if (dashes == 4 && length == 36) {
+            // UUID：8-4-4-4-12
+            return path.charAt(start + 8) == '-' && path.charAt(start + 13) == '-'
+                    && path.charAt(start + 18) == '-' && path.charAt(start + 23) == '-';
+        }
+        return hex && hasDigit && length >= 8;
+    }
+
+    private Endpoint endpoint(String component, String name) {
+        String key = component + ' ' + name;
+        Endpoint endpoint = endpoints.get(key);
+        if (endpoint != null) {
+            return endpoint;
+        }
+        if (endpoints.size() >= MAX_NAMES) {
+            key = component + ' ' + OVERFLOW_NAME;
+            endpoint = endpoints.get(key);
+            if (endpoint != null) {
+                return endpoint;
+            }
+        }
+        Endpoint created = new Endpoint();
+        endpoint = endpoints.putIfAbsent(key, created);
+        return endpoint == null ? created : endpoint;
+    }
+
+    @Override
+    public String[] getNames() {
+        List<String> names = new ArrayList<>(endpoints.keySet());
+        Collections.sort(names);
+        return names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public String getSummary(String name) {
+        Endpoint endpoint = endpoints.get(name);
+        if (endpoint == null) {
+            return null;
+        }
+        LatencyHistogram.Snapshot snapshot = endpoint.latency.snapshot();
+        return "count=" + snapshot.count()
+                + ",errors=" + endpoint.errors.sum()
+                + ",meanUs=" + snapshot.mean()
+                + ",p50Us=" + snapshot.percentile(0.5)
+                + ",p90Us=" + snapshot.percentile(0.9)
+                + ",p99Us=" + snapshot.percentile(0.99)
+                + ",maxUs=" + snapshot.max();
+    }
+
+    /**
+     * 输出为prometheus文本格式，耗时单位为微秒
+     */
+    @Override
+    public String getReport() {
+        StringBuilder out = new StringBuilder();
+        out.append("# TYPE tracer_requests_total counter\n");
+        out.append("# TYPE tracer_errors_total counter\n");
+        out.append("# TYPE tracer_latency_micros summary\n");
+        for (String key : getNames()) {
+            Endpoint endpoint = endpoints.get(key);
+            int space = key.indexOf(' ');
+            String labels = "component=\"" + escape(key.substring(0, space))
+                    + "\",name=\"" + escape(key.substring(space + 1)) + "\"";
+            LatencyHistogram.Snapshot snapshot = endpoint.latency.snapshot();
+            out.append("tracer_requests_total{").append(labels).append("} ").append(snapshot.count()).append('\n');
+            out.append("tracer_errors_total{").append(labels).append("} ").append(endpoint.errors.sum()).append('\n');
+            appendQuantile(out, labels, "0.5", snapshot.percentile(0.5));
+            appendQuantile(out, labels, "0.9", snapshot.percentile(0.9));
+            appendQuantile(out, labels, "0.99", snapshot.percentile(0.99));
+            appendQuantile(out, labels, "1", snapshot.max());
+            out.append("tracer_latency_micros_sum{").append(labels).append("} ").append(endpoint.latency.sum()).append('\n');
+            out.append("tracer_latency_micros_count{").append(labels).append("} ").append(snapshot.count()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void appendQuantile(StringBuilder out, String labels, String quantile, long value) {
+        out.append("tracer_latency_micros{").append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                .append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    @Override
+    public void reset() {
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            entry.getValue().latency.reset();
+            entry.getValue().errors.reset();
+        }
+    }
+
+    /** 单个调用名称的指标 */
+    static final class Endpoint {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final StripedCounter errors = new StripedCounter();
+
+        void record(long micros, boolean error) {
+            latency.record(micros);
+            if (error) {
+                errors.increment();
+            }
+        }
+    }
+}
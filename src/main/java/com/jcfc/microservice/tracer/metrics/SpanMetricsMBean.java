@@ -0,0 +1,20 @@
+package com.jcfc.microservice.tracer.metrics;
+
+/**
+ * 调用耗时指标的JMX接口
+ *
+ * @version 1.0
+ */
+public interface SpanMetricsMBean {
+
+    /** 已统计的调用名称，格式为 组件 名称 */
+    String[] getNames();
+
+    /** 单个调用的次数、错误数与耗时分位数 */
+    String getSummary(String name);
+
+    /** 全部调用的指标，文本格式同pull接口 */
+    String getReport();
+
+    void reset();
+}
@@ -0,0 +1,57 @@
+package com.jcfc.microservice.tracer.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数器
+ * 按线程把累加分散到多个计数槽上，读取时再求和，减少高并发下对同一个cache line的竞争
+ * （项目编译级别为1.7，没有LongAdder，这里按同样的思路实现）
+ *
+ * @version 1.0
+ */
+public final class StripedCounter {
+
+    //每个槽之间间隔8个long，避免伪共享
+    private static final int PADDING = 8;
+    static final int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        add(1L);
+    }
+
+    public void add(long delta) {
+        cells.getAndAdd(stripe() * PADDING, delta);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0L);
+        }
+    }
+
+    /** 当前线程对应的槽位 */
+    static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) & (STRIPES - 1));
+    }
+
+    /** 不小于CPU核数的2的幂，最多16个 */
+    private static int stripes() {
+        int cpus = Math.min(Runtime.getRuntime().availableProcessors(), 16);
+        int n = 1;
+        while (n < cpus) {
+            n <<= 1;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,283 @@
+package com.jcfc.microservice.tracer.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin2.reporter.ReporterMetrics;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * tracer自身的开销指标
+ * 1.span的创建、上报、丢弃数量，发送的消息与字节数（通过{@link #reporterMetrics()}接到上报器上）
+ * 2.超长被丢弃的tag数
+ * 3.参数序列化、http报文缓存的耗时
+ * 请求路径上的计数都是分段计数，不引入额外的竞争。通过JMX查看，也可以定时打印到日志。
+ *
+ * @version 1.0
+ */
+public final class TracerMetrics implements TracerMetricsMBean {
+    private static final Logger logger = LoggerFactory.getLogger(TracerMetrics.class);
+
+    static final String OBJECT_NAME = "com.jcfc.microservice.tracer:type=TracerMetrics";
+
+    private final StripedCounter spansStarted = new StripedCounter();
+    private final StripedCounter spansReported = new StripedCounter();
+    private final StripedCounter spansDropped = new StripedCounter();
+    private final StripedCounter spanBytes = new StripedCounter();
+    private final StripedCounter messagesSent = new StripedCounter();
+    private final StripedCounter messagesDropped = new StripedCounter();
+    private final StripedCounter bytesSent = new StripedCounter();
+    private final StripedCounter oversizedTags = new StripedCounter();
+    private final StripedCounter spansFiltered = new StripedCounter();
+    private final StripedCounter tagsStripped = new StripedCounter();
+    private final StripedCounter errorSpansShed = new StripedCounter();
+    private final StripedCounter slowSpansShed = new StripedCounter();
+    private final StripedCounter normalSpansShed = new StripedCounter();
+    private final DurationStats serialization = new DurationStats();
+    private final DurationStats httpBuffering = new DurationStats();
+    private volatile int queuedSpans;
+    private volatile int queuedBytes;
+    private volatile ScheduledExecutorService logScheduler;
+
+    private static class InstanceHolder {
+        static final TracerMetrics INSTANCE = register(new TracerMetrics());
+    }
+
+    private TracerMetrics() {
+    }
+
+    public static TracerMetrics getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    private static TracerMetrics register(TracerMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            logger.warn("注册TracerMetrics到JMX失败：" + e.getMessage());
+        }
+        return metrics;
+    }
+
+    public void spanStarted() {
+        spansStarted.increment();
+    }
+
+    public void oversizedTag() {
+        oversizedTags.increment();
+    }
+
+    /** 在AsyncReporter之外丢弃的span，例如启动缓冲区已满 */
+    public void spansDropped(int quantity) {
+        spansDropped.add(quantity);
+    }
+
+    /** 按过滤规则丢弃（drop或未被sample选中）的span */
+    public void spanFiltered() {
+        spansFiltered.increment();
+    }
+
+    /** 按过滤规则去掉的tag */
+    public void tagsStripped(int quantity) {
+        tagsStripped.add(quantity);
+    }
+
+    /** 上报队列超出字节预算或容量时，按优先级丢弃的span */
+    public void errorSpanShed() {
+        errorSpansShed.increment();
+    }
+
+    public void slowSpanShed() {
+        slowSpansShed.increment();
+    }
+
+    public void normalSpanShed() {
+        normalSpansShed.increment();
+    }
+
+    public DurationStats serialization() {
+        return serialization;
+    }
+
+    public DurationStats httpBuffering() {
+        return httpBuffering;
+    }
+
+    /** 接到AsyncReporter上，统计上报、丢弃与发送 */
+    public ReporterMetrics reporterMetrics() {
+        return new ReporterMetrics() {
+            @Override public void incrementMessages() {
+                messagesSent.increment();
+            }
+
+            @Override public void incrementMessagesDropped(Throwable cause) {
+                messagesDropped.increment();
+            }
+
+            @Override public void incrementSpans(int quantity) {
+                spansReported.add(quantity);
+            }
+
+            @Override public void incrementSpanBytes(int quantity) {
+                spanBytes.add(quantity);
+            }
+
+            @Override public void incrementMessageBytes(int quantity) {
+                bytesSent.add(quantity);
+            }
+
+            @Override public void incrementSpansDropped(int quantity) {
+                spansDropped.add(quantity);
+            }
+
+            @Override public void updateQueuedSpans(int update) {
+                queuedSpans = update;
+            }
+
+            @Override public void updateQueuedBytes(int update) {
+                queuedBytes = update;
+            }
+        };
+    }
+
+    /**
+     * 定时把汇总打印到日志
+     *
+     * @param intervalSeconds 间隔秒数，小于等于0不打印
+     */
+    public synchronized void scheduleLogging(long intervalSeconds) {
+        if (intervalSeconds <= 0 || logScheduler != null) {
+            return;
+        }
+        logScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Tracer Metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        logScheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                logger.info("tracer metrics: " + getSummary());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override public long getSpansStarted() {
+        return spansStarted.sum();
+    }
+
+    @Override public long getSpansReported() {
+        return spansReported.sum();
+    }
+
+    @Override public long getSpansDropped() {
+        return spansDropped.sum();
+    }
+
+    @Override public long getSpanBytes() {
+        return spanBytes.sum();
+    }
+
+    @Override public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    @Override public long getMessagesDropped() {
+        return messagesDropped.sum();
+    }
+
+    @Override public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override public int getQueuedSpans() {
+        return queuedSpans;
+    }
+
+    @Override public int getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    @Override public long getOversizedTags() {
+        return oversizedTags.sum();
+    }
+
+    @Override public long getSpansFiltered() {
+        return spansFiltered.sum();
+    }
+
+    @Override public long getTagsStripped() {
+        return tagsStripped.sum();
+    }
+
+    @Override public long getErrorSpansShed() {
+        return errorSpansShed.sum();
+    }
+
+    @Override public long getSlowSpansShed() {
+        return slowSpansShed.sum();
+    }
+
+    @Override public long getNormalSpansShed() {
+        return normalSpansShed.sum();
+    }
+
+    @Override public long getSerializationCount() {
+        return serialization.count();
+    }
+
+    @Override public long getSerializationNanos() {
+        return serialization.totalNanos();
+    }
+
+    @Override public long getHttpBufferingCount() {
+        return httpBuffering.count();
+    }
+
+    @Override public long getHttpBufferingNanos() {
+        return httpBuffering.totalNanos();
+    }
+
+    @Override public String getSummary() {
+        return "spansStarted=" + getSpansStarted()
+                + ", spansReported=" + getSpansReported()
+                + ", spansDropped=" + getSpansDropped()
+                + ", messagesSent=" + getMessagesSent()
+                + ", messagesDropped=" + getMessagesDropped()
+                + ", bytesSent=" + getBytesSent()
+                + ", queuedSpans=" + getQueuedSpans()
+                + ", queuedBytes=" + getQueuedBytes()
+                + ", oversizedTags=" + getOversizedTags()
+                + ", spansFiltered=" + getSpansFiltered()
+                + ", tagsStripped=" + getTagsStripped()
+                + ", spansShed[error=" + getErrorSpansShed()
+                + ", slow=" + getSlowSpansShed()
+                + ", normal=" + getNormalSpansShed() + "]"
+                + ", serialization[" + serialization + "]"
+                + ", httpBuffering[" + httpBuffering + "]";
+    }
+
+    @Override public void reset() {
+        spansStarted.reset();
+        spansReported.reset();
+        spansDropped.reset();
+        spanBytes.reset();
+        messagesSent.reset();
+        messagesDropped.reset();
+        bytesSent.reset();
+        oversizedTags.reset();
+        spansFiltered.reset();
+        tagsStripped.reset();
+        errorSpansShed.reset();
+        slowSpansShed.reset();
+        normalSpansShed.reset();
+        serialization.reset();
+        httpBuffering.reset();
+    }
+}
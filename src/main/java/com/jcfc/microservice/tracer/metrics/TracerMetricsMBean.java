@@ -0,0 +1,60 @@
+package com.jcfc.microservice.tracer.metrics;
+
+/**
+ * tracer自身开销指标的JMX接口
+ *
+ * @version 1.0
+ */
+public interface TracerMetricsMBean {
+
+    /** 各handler开始记录的span数（已采样） */
+    long getSpansStarted();
+
+    /** 进入上报队列的span数 */
+    long getSpansReported();
+
+    /** 上报器丢弃的span数（队列满或发送失败） */
+    long getSpansDropped();
+
+    long getSpanBytes();
+
+    /** 发送成功的消息数 */
+    long getMessagesSent();
+
+    long getMessagesDropped();
+
+    /** 发送出去的字节数 */
+    long getBytesSent();
+
+    int getQueuedSpans();
+
+    int getQueuedBytes();
+
+    /** 因超长被丢弃的tag数 */
+    long getOversizedTags();
+
+    /** 按过滤规则丢弃的span数 */
+    long getSpansFiltered();
+
+    /** 按过滤规则去掉的tag数 */
+    long getTagsStripped();
+
+    /** 上报队列按优先级丢弃的span数：错误、慢调用、其他 */
+    long getErrorSpansShed();
+
+    long getSlowSpansShed();
+
+    long getNormalSpansShed();
+
+    long getSerializationCount();
+
+    long getSerializationNanos();
+
+    long getHttpBufferingCount();
+
+    long getHttpBufferingNanos();
+
+    String getSummary();
+
+    void reset();
+}
@@ -6,11 +6,18 @@ import brave.Tracing;
 import brave.propagation.Propagation;
 import brave.propagation.TraceContext;
 import brave.propagation.TraceContextOrSamplingFlags;
+import com.jcfc.microservice.tracer.TracerConfig;
 import com.jcfc.microservice.tracer.TracerManager;
+import com.jcfc.microservice.tracer.metrics.SpanMetrics;
+import com.jcfc.microservice.tracer.metrics.TracerMetrics;
+import com.jcfc.microservice.tracer.utils.TraceIds;
 import zipkin2.Endpoint;
 
 import java.util.Map;
 
+import static com.jcfc.microservice.tracer.utils.SpanTags.maybeTag;
+import static com.jcfc.microservice.tracer.utils.SpanTags.maybeTagPayload;
+
 /**
  * 封装rabbitmq消息的操作
  *
@@ -51,6 +58,7 @@ public class RabbitTracingHandler {
     private final Tracer tracer;
     private final Span.Kind kind;
     private final Tracing tracing = TracerManager.getInstance().getTracing();
+    private final SpanMetrics metrics = TracerManager.getInstance().getSpanMetrics();
 
 
     public RabbitTracingHandler(Span.Kind kind) {
@@ -75,6 +83,7 @@ public class RabbitTracingHandler {
     }
 
     public Span handle(RabbitmqMessage message) {
+        message.traceStartNanos = System.nanoTime();
         final Span span = nextSpan(extractTraceContextAndRemoveHeaders(message));
         if (kind == Span.Kind.PRODUCER) {
             // 将上下文信息注入到carrier
@@ -93,19 +102,18 @@ public class RabbitTracingHandler {
             span.name("publish");
         }
 
-        // Ensure user-code can read the current trace context
-        try (Tracer.SpanInScope ws = tracer.withSpanInScope(span)) {
-            if (kind == Span.Kind.PRODUCER) {
-                span.tag("produce-msg", message.getMessage());
-            }
-            maybeTag(span, "component", "rabbitmq");
-            maybeTag(span, "rabbit.channel", message.getBrokeUrl());
+        // 只打tag，不需要进入span的作用域
+        if (kind == Span.Kind.PRODUCER && TracerConfig.current().isCaptureArgs()) {
+            maybeTagPayload(span, "produce-msg", message.getMessage());
         }
+        maybeTag(span, "component", "rabbitmq");
+        maybeTag(span, "rabbit.channel", message.getBrokeUrl());
         //设置远程服务端地址
         Endpoint.Builder remoteEndpoint = Endpoint.newBuilder()
                 .serviceName(message.getQueueName());
         span.remoteEndpoint(remoteEndpoint.build());
 
+        TracerMetrics.getInstance().spanStarted();
         return span.start();
     }
 
@@ -118,7 +126,7 @@ public class RabbitTracingHandler {
         }
         return extracted.context() != null
                 ? tracer.joinSpan(extracted.context())
-                : tracer.nextSpan(extracted);
+                : TraceIds.nextSpan(tracer, tracing.currentTraceContext(), extracted);
     }
 
     /**
@@ -128,14 +136,18 @@ public class RabbitTracingHandler {
      * Tracer.SpanInScope#close() no longer in scope}.
      */
     public void handleSend(RabbitmqMessage message, Throwable error, Span span) {
+        if (metrics.isEnabled()) {
+            metrics.record("rabbitmq", (kind == Span.Kind.CONSUMER ? "consume " : "publish ") + message.getQueueName(),
+                    message.traceStartNanos, error != null);
+        }
         if (span.isNoop()) {
             return;
         }
 
-        // Ensure user-code can read the current trace context
-        try (Tracer.SpanInScope ws = tracer.withSpanInScope(span)) {
-            if (kind == Span.Kind.CONSUMER) {
-                maybeTag(span, "consume-msg", message.getMessage());
+        // 只打tag，不需要进入span的作用域
+        try {
+            if (kind == Span.Kind.CONSUMER && TracerConfig.current().isCaptureResult()) {
+                maybeTagPayload(span, "consume-msg", message.getMessage());
             }
             if (error != null) {
                 maybeTag(span, "error", "true");
@@ -145,10 +157,4 @@ public class RabbitTracingHandler {
             span.finish();
         }
     }
-
-    private static void maybeTag(Span span, String tag, String value) {
-        if (value != null && value.length()<100000) {
-            span.tag(tag, value);
-        }
-    }
 }
@@ -13,6 +13,8 @@ public class RabbitmqMessage {
     private String message;
     private String queueName;
     private String brokeUrl;
+    //handle开始的时间，用于统计调用耗时
+    transient long traceStartNanos;
 
     public Map<String, Object> getHeaders() {
         return headers;
@@ -0,0 +1,190 @@
+package com.jcfc.microservice.tracer.reporter;
+
+import com.jcfc.microservice.tracer.utils.LRUCache;
+import zipkin2.Span;
+import zipkin2.reporter.Reporter;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 高频子span聚合
+ * 同一个父span下，同名的子span只保留前keep个完整上报，其余的折叠为次数和耗时分布，
+ * 在父span结束上报时以tag（aggregate.子span名）的形式记到父span上
+ * 1.父span的状态数量、每个父span下的名称数量、耗时样本数量都有上限
+ * 2.父span不在本进程（状态被淘汰）时，折叠的统计会丢失
+ * 3.带error标签的子span、自己有子span的子span总是完整上报，后者被折叠会让它的子span找不到父span
+ * 4.只有本地、CLIENT、PRODUCER的子span登记到父span下，SERVER、CONSUMER的父span在调用方进程里，不占用状态
+ * 5.父span的状态按key分段存放，每段各自加锁和淘汰，上报线程之间不争同一把锁
+ *
+ * @version 1.0
+ */
+public final class AggregatingReporter implements Reporter<Span> {
+
+    static final String TAG_PREFIX = "aggregate.";
+    //每个父span下最多统计的子span名称数，超过后不再折叠
+    static final int MAX_NAMES_PER_PARENT = 32;
+    //每个名称保留的耗时样本数，用于估算分位数
+    static final int MAX_SAMPLES = 128;
+    //父span状态的分段数
+    static final int STRIPES = 16;
+
+    private final Reporter<Span> delegate;
+    private final int keep;
+    private final Map<String, Parent>[] parents;
+
+    /**
+     * @param delegate   实际的上报器
+     * @param keep       每个父span下同名子span完整上报的个数
+     * @param maxParents 同时统计的父span个数上限
+     */
+    @SuppressWarnings("unchecked")
+    public AggregatingReporter(Reporter<Span> delegate, int keep, int maxParents) {
+        if (delegate == null) throw new NullPointerException("delegate == null");
+        if (keep < 0) throw new IllegalArgumentException("keep < 0");
+        this.delegate = delegate;
+        this.keep = keep;
+        int stripes = Math.max(1, Math.min(STRIPES, maxParents));
+        this.parents = new Map[stripes];
+        for (int i = 0; i < stripes; i++) {
+            // 上限均分到各段
+            parents[i] = new LRUCache<>((maxParents + stripes - 1) / stripes);
+        }
+    }
+
+    @Override
+    public void report(Span span) {
+        String parentId = span.parentId();
+        String key = key(span.traceId(), span.id());
+        Map<String, Parent> stripe = stripe(key);
+        Parent finished;
+        synchronized (stripe) {
+            finished = stripe.remove(key);
+        }
+        // 本地的子span在父span下登记，父span据此知道自己不是叶子span
+        Parent parent = null;
+        if (parentId != null && hasLocalParent(span.kind())) {
+            String parentKey = key(span.traceId(), parentId);
+            Map<String, Parent> parentStripe = stripe(parentKey);
+            synchronized (parentStripe) {
+                parent = parentStripe.get(parentKey);
+                if (parent == null) {
+                    parent = new Parent();
+                    parentStripe.put(parentKey, parent);
+                }
+            }
+        }
+        // 父span结束：把子span的聚合结果写到tag上，之后到达的子span不再折叠
+        if (finished != null) {
+            span = finished.tagOnto(span);
+        }
+        // 只折叠没有子span、没有出错的叶子span
+        boolean foldable = parent != null && finished == null && span.duration() != null
+                && !span.tags().containsKey("error");
+        if (!foldable || !parent.fold(span.name(), span.duration(), keep)) {
+            delegate.report(span);
+        }
+    }
+
+    /** SERVER、CONSUMER的父span是调用方的span，不会在本进程上报 */
+    private static boolean hasLocalParent(Span.Kind kind) {
+        return kind == null || kind == Span.Kind.CLIENT || kind == Span.Kind.PRODUCER;
+    }
+
+    private Map<String, Parent> stripe(String key) {
+        int h = key.hashCode();
+        return parents[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % parents.length];
+    }
+
+    private static String key(String traceId, String spanId) {
+        return traceId + '/' + spanId;
+    }
+
+    /** 一个父span下的子span统计 */
+    static final class Parent {
+        private final Map<String, Stats> byName = new LinkedHashMap<>();
+        private boolean closed;
+
+        /** 返回true表示该子span已被折叠，不需要上报 */
+        synchronized boolean fold(String name, long durationMicros, int keep) {
+            if (closed) {
+                return false;
+            }
+            Stats stats = byName.get(name);
+            if (stats == null) {
+                if (byName.size() >= MAX_NAMES_PER_PARENT) {
+                    return false;
+                }
+                stats = new Stats();
+                byName.put(name, stats);
+            }
+            if (++stats.seen <= keep) {
+                return false;
+            }
+            stats.record(durationMicros);
+            return true;
+        }
+
+        synchronized Span tagOnto(Span span) {
+            closed = true;
+            Span.Builder builder = null;
+            for (Map.Entry<String, Stats> entry : byName.entrySet()) {
+                Stats stats = entry.getValue();
+                if (stats.count == 0) {
+                    continue;
+                }
+                if (builder == null) {
+                    builder = span.toBuilder();
+                }
+                builder.putTag(TAG_PREFIX + entry.getKey(), stats.toString());
+            }
+            return builder == null ? span : builder.build();
+        }
+    }
+
+    /** 折叠的子span的次数与耗时分布（微秒），分位数基于蓄水池采样估算 */
+    static final class Stats {
+        int seen;
+        long count;
+        long min = Long.MAX_VALUE;
+        long max;
+        long total;
+        final long[] samples = new long[MAX_SAMPLES];
+
+        void record(long durationMicros) {
+            if (count < MAX_SAMPLES) {
+                samples[(int) count] = durationMicros;
+            } else {
+                long i = ThreadLocalRandom.current().nextLong(count + 1);
+                if (i < MAX_SAMPLES) {
+                    samples[(int) i] = durationMicros;
+                }
+            }
+            count++;
+            total += durationMicros;
+            if (durationMicros < min) min = durationMicros;
+            if (durationMicros > max) max = durationMicros;
+        }
+
+        @Override
+        public String toString() {
+            int size = (int) Math.min(count, MAX_SAMPLES);
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return "count=" + count
+                    + ",minUs=" + min
+                    + ",maxUs=" + max
+                    + ",avgUs=" + (total / count)
+                    + ",p50Us=" + percentile(sorted, 0.5)
+                    + ",p90Us=" + percentile(sorted, 0.9)
+                    + ",p99Us=" + percentile(sorted, 0.99);
+        }
+
+        private static long percentile(long[] sorted, double p) {
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+    }
+}
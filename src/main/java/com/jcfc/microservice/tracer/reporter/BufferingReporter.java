@@ -0,0 +1,68 @@
+package com.jcfc.microservice.tracer.reporter;
+
+import com.jcfc.microservice.tracer.metrics.TracerMetrics;
+import zipkin2.Span;
+import zipkin2.reporter.Reporter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 启动缓冲上报器
+ * 上报通道在后台建立期间先把span放在有界队列里，通道就绪后一次性转发，之后直接透传。
+ * 队列满时丢弃并计入{@link TracerMetrics#getSpansDropped()}，不阻塞业务线程。
+ *
+ * @version 1.0
+ */
+public final class BufferingReporter implements Reporter<Span> {
+
+    private final BlockingQueue<Span> buffer;
+    private volatile Reporter<Span> target;
+
+    public BufferingReporter(int capacity) {
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public void report(Span span) {
+        Reporter<Span> current = target;
+        if (current != null) {
+            current.report(span);
+            return;
+        }
+        if (!buffer.offer(span)) {
+            TracerMetrics.getInstance().spansDropped(1);
+            return;
+        }
+        //入队的同时通道可能刚好就绪，再检查一次，避免span滞留在队列里
+        if (target != null) {
+            drain();
+        }
+    }
+
+    /**
+     * 上报通道就绪，转发已缓冲的span
+     */
+    public void ready(Reporter<Span> target) {
+        if (target == null) throw new NullPointerException("target == null");
+        this.target = target;
+        drain();
+    }
+
+    public boolean isReady() {
+        return target != null;
+    }
+
+    /** 当前缓冲的span个数 */
+    public int size() {
+        return buffer.size();
+    }
+
+    private void drain() {
+        Reporter<Span> current = target;
+        Span span;
+        while ((span = buffer.poll()) != null) {
+            current.report(span);
+        }
+    }
+}
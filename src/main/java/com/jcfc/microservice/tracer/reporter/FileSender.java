@@ -0,0 +1,274 @@
+package com.jcfc.microservice.tracer.reporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.CheckResult;
+import zipkin2.codec.Encoding;
+import zipkin2.reporter.Sender;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 把span写到本地文件的sender，用于没有rabbitmq的环境或者现场留存，文件可以另外拷走再用SpanFileReplay转发
+ * 文件按固定大小分段，内存映射后顺序追加，写满换下一个文件，超过个数上限时删除最旧的。
+ * 文件格式见{@link SpanSegmentReader}，每条记录是一个完整的JSON列表，可以直接提交给zipkin的/api/v2/spans。
+ * 刷盘策略：fsyncInterval为0时每条记录都force，大于0时距上次force超过该毫秒数才force，
+ * 之后没有新记录时由后台线程按同样的间隔补一次force；小于0时交给操作系统回写。
+ * 换文件时写完的文件立即解除映射，删除旧文件时不会还占着映射。
+ *
+ * @version 1.0
+ */
+public final class FileSender extends Sender {
+    private static final Logger logger = LoggerFactory.getLogger(FileSender.class);
+
+    static final String SEGMENT_PREFIX = "spans-";
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long fsyncInterval;
+    private final int messageMaxBytes;
+    private final Deque<File> segments = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    /** 按间隔刷盘时补force的后台线程，其他策略为null */
+    private final ScheduledExecutorService fsyncer;
+
+    private long sequence;
+    private File current;
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    private long lastForce;
+    /** 上次force之后有没有写入 */
+    private boolean dirty;
+    private volatile boolean closed;
+
+    /**
+     * @param dir           存放分段文件的目录，不存在时创建
+     * @param segmentSize   每个文件的大小(字节)
+     * @param maxSegments   最多保留的文件个数
+     * @param fsyncInterval 刷盘间隔(毫秒)，0表示每条记录都刷，小于0表示不主动刷
+     */
+    public FileSender(File dir, int segmentSize, int maxSegments, long fsyncInterval) {
+        if (dir == null) throw new NullPointerException("dir == null");
+        if (segmentSize < 1024) throw new IllegalArgumentException("segmentSize太小：" + segmentSize);
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(1, maxSegments);
+        this.fsyncInterval = fsyncInterval;
+        // 和rabbitmq sender一致，单条记录还要放得进一个文件
+        this.messageMaxBytes = Math.min(500000, segmentSize - SpanSegmentReader.HEADER_SIZE - SpanSegmentReader.RECORD_HEADER_SIZE);
+        if (fsyncInterval > 0) {
+            this.fsyncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Tracer FileSender Fsync");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            fsyncer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        forceIfDue();
+                    } catch (RuntimeException e) {
+                        logger.warn("span文件刷盘失败：" + e.getMessage());
+                    }
+                }
+            }, fsyncInterval, fsyncInterval, TimeUnit.MILLISECONDS);
+        } else {
+            this.fsyncer = null;
+        }
+    }
+
+    @Override
+    public Encoding encoding() {
+        return Encoding.JSON;
+    }
+
+    @Override
+    public int messageMaxBytes() {
+        return messageMaxBytes;
+    }
+
+    @Override
+    public int messageSizeInBytes(List<byte[]> encodedSpans) {
+        return Encoding.JSON.listSizeInBytes(encodedSpans);
+    }
+
+    @Override
+    public Call<Void> sendSpans(List<byte[]> encodedSpans) {
+        if (closed) throw new IllegalStateException("closed");
+        return new AppendCall(encodedSpans);
+    }
+
+    @Override
+    public CheckResult check() {
+        if ((dir.isDirectory() || dir.mkdirs()) && dir.canWrite()) {
+            return CheckResult.OK;
+        }
+        return CheckResult.failed(new IOException("目录不可写：" + dir.getAbsolutePath()));
+    }
+
+    /** 追加一条记录：先写内容再写长度，进程中途退出时读到的是长度0，当作文件结尾 */
+    synchronized void append(List<byte[]> encodedSpans) throws IOException {
+        if (closed) throw new IOException("closed");
+        int length = Encoding.JSON.listSizeInBytes(encodedSpans);
+        if (length > messageMaxBytes) {
+            throw new IOException("消息大小" + length + "超过上限" + messageMaxBytes);
+        }
+        if (buffer == null || buffer.remaining() < SpanSegmentReader.RECORD_HEADER_SIZE + length) {
+            roll();
+        }
+
+        int start = buffer.position();
+        buffer.position(start + SpanSegmentReader.RECORD_HEADER_SIZE);
+        crc.reset();
+        put('[');
+        for (int i = 0; i < encodedSpans.size(); i++) {
+            if (i > 0) {
+                put(',');
+            }
+            byte[] span = encodedSpans.get(i);
+            buffer.put(span);
+            crc.update(span, 0, span.length);
+        }
+        put(']');
+        buffer.putInt(start + 4, (int) crc.getValue());
+        buffer.putInt(start, length);
+        dirty = true;
+
+        if (fsyncInterval == 0 || (fsyncInterval > 0 && System.currentTimeMillis() - lastForce >= fsyncInterval)) {
+            force();
+        }
+    }
+
+    /** 后台线程：有未刷盘的记录且超过间隔时force，覆盖写入后一直没有新记录的情况 */
+    synchronized void forceIfDue() {
+        if (!closed && dirty && System.currentTimeMillis() - lastForce >= fsyncInterval) {
+            force();
+        }
+    }
+
+    private void put(char c) {
+        buffer.put((byte) c);
+        crc.update(c);
+    }
+
+    private void force() {
+        if (buffer != null && fsyncInterval >= 0) {
+            buffer.force();
+            lastForce = System.currentTimeMillis();
+            dirty = false;
+        }
+    }
+
+    /** 换到下一个文件，第一次写入时接在目录里已有的最后一个文件之后 */
+    private void roll() throws IOException {
+        if (buffer == null && segments.isEmpty()) {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("无法创建目录：" + dir.getAbsolutePath());
+            }
+            File[] existing = SpanSegmentReader.list(dir);
+            for (File segment : existing) {
+                segments.addLast(segment);
+                sequence = Math.max(sequence, SpanSegmentReader.sequence(segment));
+            }
+        }
+        closeSegment();
+
+        current = new File(dir, String.format("%s%019d%s", SEGMENT_PREFIX, ++sequence, SEGMENT_SUFFIX));
+        file = new RandomAccessFile(current, "rw");
+        file.setLength(segmentSize);
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        buffer.putInt(SpanSegmentReader.MAGIC);
+        buffer.putInt(SpanSegmentReader.VERSION);
+        segments.addLast(current);
+
+        while (segments.size() > maxSegments) {
+            File oldest = segments.removeFirst();
+            if (!oldest.delete()) {
+                logger.warn("删除旧的span文件失败：" + oldest.getAbsolutePath());
+            }
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        if (buffer != null) {
+            force();
+            MappedByteBuffer mapped = buffer;
+            buffer = null;
+            MappedBuffers.unmap(mapped);
+        }
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (fsyncer != null) {
+            fsyncer.shutdown();
+        }
+        closeSegment();
+    }
+
+    @Override
+    public String toString() {
+        return "FileSender{" + dir.getAbsolutePath() + "}";
+    }
+
+    final class AppendCall extends Call.Base<Void> {
+        private final List<byte[]> encodedSpans;
+
+        AppendCall(List<byte[]> encodedSpans) {
+            this.encodedSpans = encodedSpans;
+        }
+
+        @Override
+        protected Void doExecute() throws IOException {
+            append(encodedSpans);
+            return null;
+        }
+
+        @Override
+        protected void doEnqueue(Callback<Void> callback) {
+            try {
+                append(encodedSpans);
+                callback.onSuccess(null);
+            } catch (IOException | RuntimeException e) {
+                callback.onError(e);
+            }
+        }
+
+        @Override
+        public Call<Void> clone() {
+            return new AppendCall(encodedSpans);
+        }
+
+        @Override
+        public String toString() {
+            return "AppendCall{" + FileSender.this + "}";
+        }
+    }
+}
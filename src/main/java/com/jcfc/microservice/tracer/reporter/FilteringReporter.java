@@ -0,0 +1,356 @@
+package com.jcfc.microservice.tracer.reporter;
+
+import com.jcfc.microservice.tracer.TracerConfig;
+import com.jcfc.microservice.tracer.metrics.TracerMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin2.Annotation;
+import zipkin2.Span;
+import zipkin2.reporter.Reporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上报前的span过滤
+ * span结束后、进入编码和发送之前按规则处理：丢弃健康检查、轮询之类的噪音，按比例抽样，或者去掉成功请求上的大tag。
+ * 规则按声明顺序匹配，第一条命中的规则生效；没有命中的span原样上报。
+ * <pre>
+ * tracer.span.filter.rules=health,poll,slim
+ * tracer.span.filter.health.action=drop
+ * tracer.span.filter.health.name=get /health,*&#47;ping
+ * tracer.span.filter.poll.action=sample
+ * tracer.span.filter.poll.rate=0.01
+ * tracer.span.filter.poll.tag=dubbo.url=*PollService*
+ * tracer.span.filter.slim.action=strip
+ * tracer.span.filter.slim.error=false
+ * tracer.span.filter.slim.max-duration=200
+ * tracer.span.filter.slim.strip-tags=args,result
+ * </pre>
+ * 条件：name（名称，*通配，逗号分隔任一命中）、tag（key或key=值，逗号分隔全部命中）、
+ * min-duration/max-duration（毫秒，含边界）、error（是否带error标签）。
+ * 动作：keep（原样上报，不再匹配后续规则）、drop、sample（按traceId抽样，同一条链路的决定一致）、strip（去掉strip-tags）。
+ * 规则在配置快照变化时重新编译，匹配过程不分配对象，只有strip真正去掉tag时才复制span。
+ *
+ * @version 1.0
+ */
+public final class FilteringReporter implements Reporter<Span> {
+    private static final Logger logger = LoggerFactory.getLogger(FilteringReporter.class);
+
+    static final String TRACER_SPAN_FILTER_RULES = "tracer.span.filter.rules";
+    static final String TRACER_SPAN_FILTER_PREFIX = "tracer.span.filter.";
+
+    private final Reporter<Span> delegate;
+    private volatile Rules rules;
+
+    public FilteringReporter(Reporter<Span> delegate) {
+        if (delegate == null) throw new NullPointerException("delegate == null");
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void report(Span span) {
+        Span filtered = rules().apply(span);
+        if (filtered == null) {
+            TracerMetrics.getInstance().spanFiltered();
+            return;
+        }
+        delegate.report(filtered);
+    }
+
+    private Rules rules() {
+        TracerConfig config = TracerConfig.current();
+        Rules current = rules;
+        if (current == null || current.config != config) {
+            current = Rules.compile(config);
+            rules = current;
+        }
+        return current;
+    }
+
+    enum Action {
+        KEEP, DROP, SAMPLE, STRIP
+    }
+
+    /** 一份配置快照编译出的规则 */
+    static final class Rules {
+        private static final Rule[] NONE = new Rule[0];
+
+        final TracerConfig config;
+        private final Rule[] rules;
+
+        private Rules(TracerConfig config, Rule[] rules) {
+            this.config = config;
+            this.rules = rules;
+        }
+
+        static Rules compile(TracerConfig config) {
+            String names = config.getProperty(TRACER_SPAN_FILTER_RULES);
+            if (names == null || names.trim().isEmpty()) {
+                return new Rules(config, NONE);
+            }
+            List<Rule> compiled = new ArrayList<>();
+            for (String name : names.split(",")) {
+                name = name.trim();
+                if (name.isEmpty()) {
+                    continue;
+                }
+                try {
+                    compiled.add(Rule.compile(config, TRACER_SPAN_FILTER_PREFIX + name + "."));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("span过滤规则" + name + "配置有误，已忽略：" + e.getMessage());
+                }
+            }
+            return new Rules(config, compiled.toArray(new Rule[compiled.size()]));
+        }
+
+        /**
+         * @return 处理后的span，需要丢弃时返回null
+         */
+        Span apply(Span span) {
+            for (Rule rule : rules) {
+                if (!rule.matches(span)) {
+                    continue;
+                }
+                switch (rule.action) {
+                    case DROP:
+                        return null;
+                    case SAMPLE:
+                        return rule.sampled(span.traceId()) ? span : null;
+                    case STRIP:
+                        return rule.strip(span);
+                    default:
+                        return span;
+                }
+            }
+            return span;
+        }
+    }
+
+    /** 一条规则：条件全部满足时执行动作 */
+    static final class Rule {
+        final Action action;
+        private final Glob[] names;
+        private final String[] tagKeys;
+        private final Glob[] tagValues;
+        private final long minDurationMicros;
+        private final long maxDurationMicros;
+        private final Boolean error;
+        private final long sampleBound;
+        private final String[] stripTags;
+
+        private Rule(Action action, Glob[] names, String[] tagKeys, Glob[] tagValues, long minDurationMicros,
+                     long maxDurationMicros, Boolean error, long sampleBound, String[] stripTags) {
+            this.action = action;
+            this.names = names;
+            this.tagKeys = tagKeys;
+            this.tagValues = tagValues;
+            this.minDurationMicros = minDurationMicros;
+            this.maxDurationMicros = maxDurationMicros;
+            this.error = error;
+            this.sampleBound = sampleBound;
+            this.stripTags = stripTags;
+        }
+
+        static Rule compile(TracerConfig config, String prefix) {
+            String actionValue = config.getProperty(prefix + "action");
+            if (actionValue == null) {
+                throw new IllegalArgumentException(prefix + "action未配置");
+            }
+            Action action = Action.valueOf(actionValue.trim().toUpperCase(Locale.ENGLISH));
+
+            List<String> nameList = split(config.getProperty(prefix + "name"));
+            Glob[] names = new Glob[nameList.size()];
+            for (int i = 0; i < names.length; i++) {
+                // zipkin的span名称都是小写的
+                names[i] = new Glob(nameList.get(i).toLowerCase(Locale.ENGLISH));
+            }
+
+            List<String> tagList = split(config.getProperty(prefix + "tag"));
+            String[] tagKeys = new String[tagList.size()];
+            Glob[] tagValues = new Glob[tagList.size()];
+            for (int i = 0; i < tagKeys.length; i++) {
+                String tag = tagList.get(i);
+                int eq = tag.indexOf('=');
+                tagKeys[i] = eq < 0 ? tag : tag.substring(0, eq).trim();
+                tagValues[i] = eq < 0 ? null : new Glob(tag.substring(eq + 1).trim());
+            }
+
+            long min = TracerConfig.parseLong(config.getProperty(prefix + "min-duration"), -1L);
+            long max = TracerConfig.parseLong(config.getProperty(prefix + "max-duration"), -1L);
+            String errorValue = config.getProperty(prefix + "error");
+            Boolean error = errorValue == null ? null : Boolean.valueOf(errorValue.trim());
+
+            long sampleBound = 0L;
+            if (action == Action.SAMPLE) {
+                String rateValue = config.getProperty(prefix + "rate");
+                float rate = rateValue == null ? 0f : Float.parseFloat(rateValue.trim());
+                sampleBound = (long) (Math.max(0f, Math.min(1f, rate)) * 10000);
+            }
+            List<String> strip = split(config.getProperty(prefix + "strip-tags"));
+            if (action == Action.STRIP && strip.isEmpty()) {
+                throw new IllegalArgumentException(prefix + "strip-tags未配置");
+            }
+
+            return new Rule(action, names, tagKeys, tagValues,
+                    min < 0 ? -1L : TimeUnit.MILLISECONDS.toMicros(min),
+                    max < 0 ? -1L : TimeUnit.MILLISECONDS.toMicros(max),
+                    error, sampleBound, strip.toArray(new String[strip.size()]));
+        }
+
+        boolean matches(Span span) {
+            if (names.length > 0 && !matchesName(span.name())) {
+                return false;
+            }
+            Map<String, String> tags = span.tags();
+            for (int i = 0; i < tagKeys.length; i++) {
+                String value = tags.get(tagKeys[i]);
+                if (value == null || (tagValues[i] != null && !tagValues[i].matches(value))) {
+                    return false;
+                }
+            }
+            if (minDurationMicros >= 0 || maxDurationMicros >= 0) {
+                Long duration = span.duration();
+                if (duration == null) {
+                    return false;
+                }
+                if (minDurationMicros >= 0 && duration < minDurationMicros) {
+                    return false;
+                }
+                if (maxDurationMicros >= 0 && duration > maxDurationMicros) {
+                    return false;
+                }
+            }
+            return error == null || error == tags.containsKey("error");
+        }
+
+        private boolean matchesName(String name) {
+            if (name == null) {
+                return false;
+            }
+            for (Glob glob : names) {
+                if (glob.matches(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** 按traceId低位抽样，同一条链路上的span结果一致 */
+        boolean sampled(String traceId) {
+            long id = 0L;
+            for (int i = Math.max(0, traceId.length() - 16); i < traceId.length(); i++) {
+                id = (id << 4) | Character.digit(traceId.charAt(i), 16);
+            }
+            return Math.abs(id % 10000) < sampleBound;
+        }
+
+        Span strip(Span span) {
+            Map<String, String> tags = span.tags();
+            int stripped = 0;
+            for (String tag : stripTags) {
+                if (tags.containsKey(tag)) {
+                    stripped++;
+                }
+            }
+            if (stripped == 0) {
+                return span;
+            }
+            TracerMetrics.getInstance().tagsStripped(stripped);
+
+            Span.Builder builder = Span.newBuilder()
+                    .traceId(span.traceId())
+                    .parentId(span.parentId())
+                    .id(span.id())
+                    .kind(span.kind())
+                    .name(span.name())
+                    .timestamp(span.timestamp())
+                    .duration(span.duration())
+                    .localEndpoint(span.localEndpoint())
+                    .remoteEndpoint(span.remoteEndpoint())
+                    .debug(span.debug())
+                    .shared(span.shared());
+            for (Annotation annotation : span.annotations()) {
+                builder.addAnnotation(annotation.timestamp(), annotation.value());
+            }
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                if (!isStripped(tag.getKey())) {
+                    builder.putTag(tag.getKey(), tag.getValue());
+                }
+            }
+            return builder.build();
+        }
+
+        private boolean isStripped(String key) {
+            for (String tag : stripTags) {
+                if (tag.equals(key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** 只支持*的通配，按*切成几段依次查找，不使用正则 */
+    static final class Glob {
+        private final String[] parts;
+        private final boolean anchoredStart;
+        private final boolean anchoredEnd;
+
+        Glob(String pattern) {
+            this.anchoredStart = !pattern.startsWith("*");
+            this.anchoredEnd = !pattern.endsWith("*");
+            List<String> parts = new ArrayList<>();
+            for (String part : pattern.split("\\*")) {
+                if (!part.isEmpty()) {
+                    parts.add(part);
+                }
+            }
+            this.parts = parts.toArray(new String[parts.size()]);
+        }
+
+        boolean matches(String value) {
+            if (parts.length == 0) {
+                return !anchoredStart || value.isEmpty();
+            }
+            if (parts.length == 1 && anchoredStart && anchoredEnd) {
+                return value.equals(parts[0]);
+            }
+            int from = 0;
+            for (int i = 0; i < parts.length; i++) {
+                String part = parts[i];
+                if (i == 0 && anchoredStart) {
+                    if (!value.startsWith(part)) {
+                        return false;
+                    }
+                    from = part.length();
+                } else if (i == parts.length - 1 && anchoredEnd) {
+                    return value.length() - part.length() >= from && value.endsWith(part);
+                } else {
+                    int index = value.indexOf(part, from);
+                    if (index < 0) {
+                        return false;
+                    }
+                    from = index + part.length();
+                }
+            }
+            return true;
+        }
+    }
+
+    private static List<String> split(String value) {
+        List<String> items = new ArrayList<>();
+        if (value != null) {
+            for (String item : value.split(",")) {
+                item = item.trim();
+                if (!item.isEmpty()) {
+                    items.add(item);
+                }
+            }
+        }
+        return items;
+    }
+}
@@ -0,0 +1,32 @@
+package com.jcfc.microservice.tracer.reporter;
+
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.reporter.Reporter;
+
+/**
+ * 补全本地地址
+ * 本机IP在后台解析，解析完成前创建的Tracing没有本地IP，这类span在上报前补上。
+ *
+ * @version 1.0
+ */
+public final class LocalEndpointReporter implements Reporter<Span> {
+
+    private final Reporter<Span> delegate;
+    private final String ip;
+
+    public LocalEndpointReporter(Reporter<Span> delegate, String ip) {
+        if (delegate == null) throw new NullPointerException("delegate == null");
+        this.delegate = delegate;
+        this.ip = ip;
+    }
+
+    @Override
+    public void report(Span span) {
+        Endpoint local = span.localEndpoint();
+        if (ip != null && local != null && local.ipv4() == null && local.ipv6() == null) {
+            span = span.toBuilder().localEndpoint(local.toBuilder().ip(ip).build()).build();
+        }
+        delegate.report(span);
+    }
+}
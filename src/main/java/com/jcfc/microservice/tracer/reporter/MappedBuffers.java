@@ -0,0 +1,85 @@
+package com.jcfc.microservice.tracer.reporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * 立即释放文件映射
+ * MappedByteBuffer要等GC回收才解除映射，期间文件删不掉（windows）或者磁盘空间不释放（linux），频繁换文件时映射会越积越多。
+ * Java 7/8通过DirectBuffer.cleaner()释放，Java 9以后通过Unsafe.invokeCleaner；都不可用时什么也不做，退回到等GC。
+ * 释放后不能再访问这个buffer，调用方要保证没有其他引用。
+ *
+ * @version 1.0
+ */
+final class MappedBuffers {
+    private static final Logger logger = LoggerFactory.getLogger(MappedBuffers.class);
+
+    /** Java 9以后：Unsafe实例和invokeCleaner方法 */
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+    /** Java 7/8：DirectBuffer.cleaner()和Cleaner.clean() */
+    private static final Method CLEANER;
+    private static final Method CLEAN;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        Method cleaner = null;
+        Method clean = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (Throwable e) {
+            invokeCleaner = null;
+            try {
+                cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            } catch (Throwable e2) {
+                cleaner = null;
+                logger.info("当前JVM不支持主动释放文件映射，由GC回收：" + e2);
+            }
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+        CLEANER = cleaner;
+        CLEAN = clean;
+    }
+
+    private MappedBuffers() {
+    }
+
+    /**
+     * 解除映射
+     *
+     * @return 是否已释放，false表示要等GC
+     */
+    static boolean unmap(MappedByteBuffer buffer) {
+        if (buffer == null) {
+            return false;
+        }
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                return true;
+            }
+            if (CLEANER != null) {
+                Object cleaner = CLEANER.invoke(buffer);
+                if (cleaner != null) {
+                    CLEAN.invoke(cleaner);
+                    return true;
+                }
+            }
+        } catch (Throwable e) {
+            logger.debug("释放文件映射失败：" + e);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,431 @@
+package com.jcfc.microservice.tracer.reporter;
+
+import com.jcfc.microservice.tracer.metrics.TracerMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin2.Span;
+import zipkin2.codec.Encoding;
+import zipkin2.reporter.Reporter;
+import zipkin2.reporter.ReporterMetrics;
+import zipkin2.reporter.Sender;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按优先级排队的span上报器，替代AsyncReporter
+ * span按错误、慢调用、其他分成三类，各有一个有界的环形队列，共用一个字节预算：
+ * 其他类只能用到预算的70%，慢调用90%，错误span可以用满，积压时低优先级的先被丢弃。
+ * 业务线程入队不加锁、不阻塞，丢弃按类别计数；后台线程优先取错误和慢调用，编码后按消息大小分批发送。
+ * 队列是无锁的环形数组，发送线程批量取出，取出用的数组和编码缓冲区复用，不随每个span重新分配。
+ * <p>
+ * 编码线程数大于1时，一个分发线程按优先级批量取出span交给多个编码线程，各自编码、攒批、发送，批次之间不保证顺序；
+ * 同时在途的发送数受maxInflightSends限制。span的字节数直到所在批次发送完成才从预算里扣除，
+ * 编码或发送跟不上时预算很快用满，入队时就按优先级丢弃，不会在内存里无限堆积。
+ *
+ * @version 1.0
+ */
+public final class PriorityReporter implements Reporter<Span>, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(PriorityReporter.class);
+
+    static final float NORMAL_SHARE = 0.7f;
+    static final float SLOW_SHARE = 0.9f;
+    /** 发送线程每次从队列批量取出的span个数 */
+    static final int DRAIN_BATCH = 256;
+    /** 分发线程通知编码线程结束 */
+    private static final Span[] END = new Span[0];
+
+    private final Sender sender;
+    private final ReporterMetrics metrics;
+    private final long slowMicros;
+    private final long messageTimeoutNanos;
+    private final long closeTimeoutMillis;
+    private final int messageMaxBytes;
+    private final long maxBytes;
+    private final long slowLimit;
+    private final long normalLimit;
+    private final SpanRingBuffer<Span> errors;
+    private final SpanRingBuffer<Span> slows;
+    private final SpanRingBuffer<Span> normals;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final Semaphore inflightSends;
+    /** 分发线程交给编码线程的span，单线程编码时为null */
+    private final BlockingQueue<Span[]> chunks;
+    /** 编码线程用完归还的数组 */
+    private final BlockingQueue<Span[]> freeChunks;
+    private final Thread flusher;
+    private final Thread[] workers;
+    private volatile boolean parked;
+    private volatile boolean closed;
+
+    /**
+     * @param sender               发送器
+     * @param metrics              上报指标
+     * @param maxSpans             每一类队列的容量
+     * @param maxBytes             三类队列合计的字节预算，包括已取出但还没发送完成的
+     * @param slowMillis           耗时不低于该值的span算慢调用
+     * @param encoderThreads       编码发送的线程数，1表示由取队列的线程直接编码发送
+     * @param maxInflightSends     同时在途的发送数
+     * @param messageTimeoutMillis 不满一个消息时最长等待多久发送
+     * @param closeTimeoutMillis   关闭时发送剩余span的最长等待时间
+     */
+    public PriorityReporter(Sender sender, ReporterMetrics metrics, int maxSpans, long maxBytes, long slowMillis,
+                            int encoderThreads, int maxInflightSends,
+                            long messageTimeoutMillis, long closeTimeoutMillis) {
+        if (sender == null) throw new NullPointerException("sender == null");
+        if (sender.encoding() != Encoding.JSON) {
+            throw new IllegalArgumentException("只支持JSON编码的sender：" + sender.encoding());
+        }
+        this.sender = sender;
+        this.metrics = metrics == null ? ReporterMetrics.NOOP_METRICS : metrics;
+        this.slowMicros = TimeUnit.MILLISECONDS.toMicros(slowMillis);
+        this.messageTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, messageTimeoutMillis));
+        this.closeTimeoutMillis = closeTimeoutMillis;
+        this.messageMaxBytes = sender.messageMaxBytes();
+        this.maxBytes = maxBytes;
+        this.slowLimit = (long) (maxBytes * SLOW_SHARE);
+        this.normalLimit = (long) (maxBytes * NORMAL_SHARE);
+        this.errors = new SpanRingBuffer<>(maxSpans);
+        this.slows = new SpanRingBuffer<>(maxSpans);
+        this.normals = new SpanRingBuffer<>(maxSpans);
+        this.inflightSends = new Semaphore(Math.max(1, maxInflightSends));
+
+        int threads = Math.max(1, encoderThreads);
+        if (threads == 1) {
+            this.chunks = null;
+            this.freeChunks = null;
+            this.workers = new Thread[0];
+            this.flusher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    flushLoop();
+                }
+            }, "Tracer Span Flusher");
+        } else {
+            // 每个编码线程最多积压两批，分发线程放不进去时停止取队列，压力回到字节预算上
+            this.chunks = new ArrayBlockingQueue<>(threads * 2);
+            this.freeChunks = new ArrayBlockingQueue<>(threads * 3 + 1);
+            this.workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        encodeLoop();
+                    }
+                }, "Tracer Span Encoder-" + i);
+                workers[i].setDaemon(true);
+                workers[i].start();
+            }
+            this.flusher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    dispatchLoop();
+                }
+            }, "Tracer Span Dispatcher");
+        }
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public void report(Span span) {
+        if (span == null) throw new NullPointerException("span == null");
+        if (closed) {
+            shed(span);
+            return;
+        }
+        int size = SpanJsonWriter.sizeInBytes(span);
+        metrics.incrementSpans(1);
+        metrics.incrementSpanBytes(size);
+
+        SpanRingBuffer<Span> queue;
+        long limit;
+        if (span.tags().containsKey("error")) {
+            queue = errors;
+            limit = maxBytes;
+        } else if (span.duration() != null && span.duration() >= slowMicros) {
+            queue = slows;
+            limit = slowLimit;
+        } else {
+            queue = normals;
+            limit = normalLimit;
+        }
+
+        long queued = queuedBytes.addAndGet(size);
+        if (queued > limit || !queue.offer(span)) {
+            queuedBytes.addAndGet(-size);
+            shed(span);
+            return;
+        }
+        // 攒够一个消息时唤醒发送线程，不用等到超时
+        if (queued >= messageMaxBytes && parked) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    private void shed(Span span) {
+        metrics.incrementSpansDropped(1);
+        if (span.tags().containsKey("error")) {
+            TracerMetrics.getInstance().errorSpanShed();
+        } else if (span.duration() != null && span.duration() >= slowMicros) {
+            TracerMetrics.getInstance().slowSpanShed();
+        } else {
+            TracerMetrics.getInstance().normalSpanShed();
+        }
+    }
+
+    /** 按优先级批量取出，错误队列取空了才取慢调用，最后是其他 */
+    private int drain(Span[] into) {
+        int count = errors.drain(into, into.length);
+        if (count == 0) {
+            count = slows.drain(into, into.length);
+        }
+        if (count == 0) {
+            count = normals.drain(into, into.length);
+        }
+        return count;
+    }
+
+    private boolean isEmpty() {
+        return errors.size() == 0 && slows.size() == 0 && normals.size() == 0;
+    }
+
+    /** 队列空时等待，report攒够一个消息时会提前唤醒 */
+    private void await(long nanos) {
+        parked = true;
+        if (isEmpty() && !closed) {
+            LockSupport.parkNanos(this, nanos);
+        }
+        parked = false;
+    }
+
+    /** 单线程：取队列、编码、发送都在发送线程里 */
+    private void flushLoop() {
+        // 取出用的数组和批次在整个生命周期里复用
+        Span[] drained = new Span[DRAIN_BATCH];
+        Batch batch = new Batch();
+        while (true) {
+            int count = drain(drained);
+            if (count == 0) {
+                if (closed) {
+                    break;
+                }
+                if (!batch.flushIfDue()) {
+                    await(batch.isEmpty() ? messageTimeoutNanos : batch.remainingNanos());
+                }
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                batch.append(drained[i]);
+                drained[i] = null;
+            }
+        }
+        batch.flush();
+    }
+
+    /** 多线程：分发线程只按优先级取出，整批交给编码线程 */
+    private void dispatchLoop() {
+        try {
+            while (true) {
+                Span[] chunk = freeChunks.poll();
+                if (chunk == null) {
+                    chunk = new Span[DRAIN_BATCH];
+                }
+                if (drain(chunk) == 0) {
+                    freeChunks.offer(chunk);
+                    if (closed) {
+                        break;
+                    }
+                    await(messageTimeoutNanos);
+                    continue;
+                }
+                chunks.put(chunk);
+            }
+            for (int i = 0; i < workers.length; i++) {
+                chunks.put(END);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void encodeLoop() {
+        Batch batch = new Batch();
+        try {
+            while (true) {
+                Span[] chunk = chunks.poll(batch.isEmpty() ? messageTimeoutNanos : batch.remainingNanos(),
+                        TimeUnit.NANOSECONDS);
+                if (chunk == END) {
+                    break;
+                }
+                if (chunk != null) {
+                    for (int i = 0; i < chunk.length && chunk[i] != null; i++) {
+                        batch.append(chunk[i]);
+                        chunk[i] = null;
+                    }
+                    freeChunks.offer(chunk);
+                }
+                batch.flushIfDue();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        batch.flush();
+    }
+
+    /** JSON列表的消息大小：方括号加上逗号 */
+    private static int messageSize(int bytes, int count) {
+        return bytes + count + 1;
+    }
+
+    /**
+     * 一个线程正在攒的消息，超过消息上限或等待超时时发送
+     * span直接编码进复用的缓冲区，用逗号拼成"a,b,c"，不为每个span单独分配byte数组。
+     * 发送时只按消息复制一次，交给sender的是一整段，sender加上方括号后就是同样的JSON列表。
+     */
+    private final class Batch {
+        private final List<byte[]> message = new ArrayList<>(1);
+        private byte[] buffer = new byte[Math.min(messageMaxBytes, 64 * 1024)];
+        /** 缓冲区里已写入的长度 */
+        private int length;
+        private int count;
+        /** 占用的预算，和report时计算的大小一致 */
+        private long bytes;
+        private long deadline;
+
+        void append(Span span) {
+            int size = SpanJsonWriter.sizeInBytes(span);
+            if (messageSize(size, 1) > messageMaxBytes) {
+                // 单个span超过消息上限，发不出去
+                queuedBytes.addAndGet(-size);
+                metrics.incrementSpansDropped(1);
+                return;
+            }
+            if (count > 0 && messageSize(length + 1 + size, 1) > messageMaxBytes) {
+                flush();
+            }
+            int mark = length;
+            try {
+                if (count > 0) {
+                    ensureCapacity(length + 1);
+                    buffer[length++] = ',';
+                }
+                ensureCapacity(length + size);
+                int start = length;
+                length = SpanJsonWriter.write(span, buffer, start);
+                if (length - start != size) {
+                    throw new IllegalStateException("编码长度" + (length - start) + "和预计的" + size + "不一致");
+                }
+            } catch (RuntimeException e) {
+                // 编码出错只丢弃这一个span，退回到写入之前，发送线程继续工作
+                length = mark;
+                queuedBytes.addAndGet(-size);
+                metrics.incrementSpansDropped(1);
+                logger.warn("编码span失败，已丢弃：traceId=" + span.traceId() + ",id=" + span.id() + "，" + e);
+                return;
+            }
+            if (count == 0) {
+                deadline = System.nanoTime() + messageTimeoutNanos;
+            }
+            count++;
+            bytes += size;
+        }
+
+        private void ensureCapacity(int needed) {
+            if (needed > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(needed, Math.min(messageMaxBytes, buffer.length * 2)));
+            }
+        }
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        long remainingNanos() {
+            return Math.max(1L, deadline - System.nanoTime());
+        }
+
+        boolean flushIfDue() {
+            if (count == 0 || System.nanoTime() - deadline < 0) {
+                return false;
+            }
+            flush();
+            return true;
+        }
+
+        void flush() {
+            if (count == 0) {
+                return;
+            }
+            message.add(Arrays.copyOf(buffer, length));
+            inflightSends.acquireUninterruptibly();
+            try {
+                send(message, count);
+            } finally {
+                inflightSends.release();
+                // 发送完成才释放预算
+                queuedBytes.addAndGet(-bytes);
+                message.clear();
+                length = 0;
+                count = 0;
+                bytes = 0L;
+            }
+        }
+    }
+
+    private void send(List<byte[]> batch, int spans) {
+        metrics.updateQueuedSpans(errors.size() + slows.size() + normals.size());
+        metrics.updateQueuedBytes((int) Math.min(Integer.MAX_VALUE, Math.max(0L, queuedBytes.get())));
+        try {
+            sender.sendSpans(batch).execute();
+            metrics.incrementMessages();
+            metrics.incrementMessageBytes(sender.messageSizeInBytes(batch));
+        } catch (Throwable e) {
+            metrics.incrementMessagesDropped(e);
+            metrics.incrementSpansDropped(spans);
+            logger.debug("发送span失败：" + e.getMessage());
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+        }
+    }
+
+    /**
+     * 停止接收，在超时时间内把队列里剩余的span发送出去；sender由调用方关闭
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(flusher);
+        long deadline = System.currentTimeMillis() + closeTimeoutMillis;
+        try {
+            flusher.join(Math.max(1L, closeTimeoutMillis));
+            for (Thread worker : workers) {
+                worker.join(Math.max(1L, deadline - System.currentTimeMillis()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        boolean alive = flusher.isAlive();
+        for (Thread worker : workers) {
+            alive |= worker.isAlive();
+        }
+        int remaining = errors.size() + slows.size() + normals.size();
+        if (alive || remaining > 0) {
+            logger.warn("关闭上报器时仍有" + remaining + "个span未发送");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PriorityReporter{" + sender + ", encoderThreads=" + Math.max(1, workers.length) + "}";
+    }
+}
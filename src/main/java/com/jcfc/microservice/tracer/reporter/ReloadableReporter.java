@@ -0,0 +1,36 @@
+package com.jcfc.microservice.tracer.reporter;
+
+import zipkin2.Span;
+import zipkin2.reporter.Reporter;
+
+/**
+ * 可替换的上报器
+ * Tracing构建后上报器不能再修改，这里通过volatile引用转发，配置变化时整体替换实际的上报管道。
+ *
+ * @version 1.0
+ */
+public final class ReloadableReporter implements Reporter<Span> {
+
+    private volatile Reporter<Span> delegate;
+
+    public ReloadableReporter(Reporter<Span> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void report(Span span) {
+        delegate.report(span);
+    }
+
+    /**
+     * 替换实际的上报器
+     *
+     * @return 替换前的上报器，由调用方负责关闭
+     */
+    public Reporter<Span> swap(Reporter<Span> next) {
+        if (next == null) throw new NullPointerException("next == null");
+        Reporter<Span> previous = delegate;
+        delegate = next;
+        return previous;
+    }
+}
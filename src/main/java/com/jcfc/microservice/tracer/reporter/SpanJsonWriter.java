@@ -0,0 +1,363 @@
+package com.jcfc.microservice.tracer.reporter;
+
+import zipkin2.Annotation;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把span按zipkin JSON v2格式直接写进调用方的byte数组，输出和SpanBytesEncoder.JSON_V2逐字节一致
+ * JSON_V2对需要转义的字符串先拼出转义后的String，含中文时再getBytes一次，args、result这类大tag每个span都要复制好几遍；
+ * 这里逐字符转义并编码成UTF-8写到目标位置，计算大小和写入都不分配对象。
+ * 例外：zipkin 2.3.1遇到非ASCII字符后面紧跟U+2028/2029时多算了字节数，JSON_V2的结果末尾会补0，这里不补。
+ * 和JSON_V2的逐字节比较见test里的SpanJsonFuzz。
+ *
+ * @version 1.0
+ */
+final class SpanJsonWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private SpanJsonWriter() {
+    }
+
+    static int sizeInBytes(Span span) {
+        int size = 13 + span.traceId().length(); // {"traceId":""
+        if (span.parentId() != null) {
+            size += 14 + span.parentId().length(); // ,"parentId":""
+        }
+        size += 8 + span.id().length(); // ,"id":""
+        if (span.kind() != null) {
+            size += 10 + span.kind().name().length(); // ,"kind":""
+        }
+        if (span.name() != null) {
+            size += 10 + stringSize(span.name()); // ,"name":""
+        }
+        if (span.timestamp() != null) {
+            size += 13 + longSize(span.timestamp()); // ,"timestamp":
+        }
+        if (span.duration() != null) {
+            size += 12 + longSize(span.duration()); // ,"duration":
+        }
+        if (span.localEndpoint() != null) {
+            size += 17 + endpointSize(span.localEndpoint()); // ,"localEndpoint":
+        }
+        if (span.remoteEndpoint() != null) {
+            size += 18 + endpointSize(span.remoteEndpoint()); // ,"remoteEndpoint":
+        }
+        List<Annotation> annotations = span.annotations();
+        if (!annotations.isEmpty()) {
+            size += 17 + annotations.size() - 1; // ,"annotations":[]
+            for (int i = 0; i < annotations.size(); i++) {
+                Annotation annotation = annotations.get(i);
+                // {"timestamp":,"value":""}
+                size += 25 + longSize(annotation.timestamp()) + stringSize(annotation.value());
+            }
+        }
+        Map<String, String> tags = span.tags();
+        if (!tags.isEmpty()) {
+            size += 10 + tags.size() - 1; // ,"tags":{}
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                size += 5 + stringSize(tag.getKey()) + stringSize(tag.getValue()); // "":""
+            }
+        }
+        if (Boolean.TRUE.equals(span.debug())) {
+            size += 13; // ,"debug":true
+        }
+        if (Boolean.TRUE.equals(span.shared())) {
+            size += 14; // ,"shared":true
+        }
+        return size + 1;
+    }
+
+    /**
+     * @return 写完后的位置，调用方要保证从pos开始至少有sizeInBytes(span)的空间
+     */
+    static int write(Span span, byte[] out, int pos) {
+        pos = ascii("{\"traceId\":\"", out, pos);
+        pos = ascii(span.traceId(), out, pos);
+        out[pos++] = '"';
+        if (span.parentId() != null) {
+            pos = ascii(",\"parentId\":\"", out, pos);
+            pos = ascii(span.parentId(), out, pos);
+            out[pos++] = '"';
+        }
+        pos = ascii(",\"id\":\"", out, pos);
+        pos = ascii(span.id(), out, pos);
+        out[pos++] = '"';
+        if (span.kind() != null) {
+            pos = ascii(",\"kind\":\"", out, pos);
+            pos = ascii(span.kind().name(), out, pos);
+            out[pos++] = '"';
+        }
+        if (span.name() != null) {
+            pos = ascii(",\"name\":\"", out, pos);
+            pos = string(span.name(), out, pos);
+            out[pos++] = '"';
+        }
+        if (span.timestamp() != null) {
+            pos = ascii(",\"timestamp\":", out, pos);
+            pos = number(span.timestamp(), out, pos);
+        }
+        if (span.duration() != null) {
+            pos = ascii(",\"duration\":", out, pos);
+            pos = number(span.duration(), out, pos);
+        }
+        if (span.localEndpoint() != null) {
+            pos = ascii(",\"localEndpoint\":", out, pos);
+            pos = endpoint(span.localEndpoint(), out, pos);
+        }
+        if (span.remoteEndpoint() != null) {
+            pos = ascii(",\"remoteEndpoint\":", out, pos);
+            pos = endpoint(span.remoteEndpoint(), out, pos);
+        }
+        List<Annotation> annotations = span.annotations();
+        if (!annotations.isEmpty()) {
+            pos = ascii(",\"annotations\":[", out, pos);
+            for (int i = 0; i < annotations.size(); i++) {
+                if (i > 0) {
+                    out[pos++] = ',';
+                }
+                Annotation annotation = annotations.get(i);
+                pos = ascii("{\"timestamp\":", out, pos);
+                pos = number(annotation.timestamp(), out, pos);
+                pos = ascii(",\"value\":\"", out, pos);
+                pos = string(annotation.value(), out, pos);
+                out[pos++] = '"';
+                out[pos++] = '}';
+            }
+            out[pos++] = ']';
+        }
+        Map<String, String> tags = span.tags();
+        if (!tags.isEmpty()) {
+            pos = ascii(",\"tags\":{", out, pos);
+            boolean first = true;
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                if (!first) {
+                    out[pos++] = ',';
+                }
+                first = false;
+                out[pos++] = '"';
+                pos = string(tag.getKey(), out, pos);
+                pos = ascii("\":\"", out, pos);
+                pos = string(tag.getValue(), out, pos);
+                out[pos++] = '"';
+            }
+            out[pos++] = '}';
+        }
+        if (Boolean.TRUE.equals(span.debug())) {
+            pos = ascii(",\"debug\":true", out, pos);
+        }
+        if (Boolean.TRUE.equals(span.shared())) {
+            pos = ascii(",\"shared\":true", out, pos);
+        }
+        out[pos++] = '}';
+        return pos;
+    }
+
+    private static int endpointSize(Endpoint endpoint) {
+        int size = 2; // {}
+        int fields = 0;
+        if (endpoint.serviceName() != null) {
+            size += 16 + stringSize(endpoint.serviceName()); // "serviceName":""
+            fields++;
+        }
+        if (endpoint.ipv4() != null) {
+            size += 9 + endpoint.ipv4().length(); // "ipv4":""
+            fields++;
+        }
+        if (endpoint.ipv6() != null) {
+            size += 9 + endpoint.ipv6().length(); // "ipv6":""
+            fields++;
+        }
+        if (endpoint.port() != null) {
+            size += 7 + longSize(endpoint.port()); // "port":
+            fields++;
+        }
+        return fields > 1 ? size + fields - 1 : size;
+    }
+
+    private static int endpoint(Endpoint endpoint, byte[] out, int pos) {
+        out[pos++] = '{';
+        boolean first = true;
+        if (endpoint.serviceName() != null) {
+            pos = ascii("\"serviceName\":\"", out, pos);
+            pos = string(endpoint.serviceName(), out, pos);
+            out[pos++] = '"';
+            first = false;
+        }
+        if (endpoint.ipv4() != null) {
+            if (!first) {
+                out[pos++] = ',';
+            }
+            pos = ascii("\"ipv4\":\"", out, pos);
+            pos = ascii(endpoint.ipv4(), out, pos);
+            out[pos++] = '"';
+            first = false;
+        }
+        if (endpoint.ipv6() != null) {
+            if (!first) {
+                out[pos++] = ',';
+            }
+            pos = ascii("\"ipv6\":\"", out, pos);
+            pos = ascii(endpoint.ipv6(), out, pos);
+            out[pos++] = '"';
+            first = false;
+        }
+        if (endpoint.port() != null) {
+            if (!first) {
+                out[pos++] = ',';
+            }
+            pos = ascii("\"port\":", out, pos);
+            pos = number(endpoint.port(), out, pos);
+        }
+        out[pos++] = '}';
+        return pos;
+    }
+
+    private static int ascii(String value, byte[] out, int pos) {
+        for (int i = 0, length = value.length(); i < length; i++) {
+            out[pos++] = (byte) value.charAt(i);
+        }
+        return pos;
+    }
+
+    private static int longSize(long value) {
+        if (value < 0) {
+            return value == Long.MIN_VALUE ? 20 : 1 + longSize(-value);
+        }
+        int size = 1;
+        while (value >= 10) {
+            value /= 10;
+            size++;
+        }
+        return size;
+    }
+
+    private static int number(long value, byte[] out, int pos) {
+        if (value == Long.MIN_VALUE) {
+            return ascii(Long.toString(value), out, pos);
+        }
+        if (value < 0) {
+            out[pos++] = '-';
+            value = -value;
+        }
+        int end = pos + longSize(value);
+        int i = end;
+        do {
+            out[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        return end;
+    }
+
+    /** 转义并编码后的字节数，规则和zipkin的JsonEscaper一致；孤立的代理字符和String.getBytes一样按'?'算 */
+    private static int stringSize(String value) {
+        int size = 0;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                size += escapedAsciiSize(c);
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (c == '\u2028' || c == '\u2029') {
+                size += 6;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                size += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                size += 1;
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+
+    private static int escapedAsciiSize(char c) {
+        if (c < 0x20) {
+            return c == '\t' || c == '\b' || c == '\n' || c == '\r' || c == '\f' ? 2 : 6;
+        }
+        return c == '"' || c == '\\' ? 2 : 1;
+    }
+
+    private static int string(String value, byte[] out, int pos) {
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    out[pos++] = (byte) c;
+                } else {
+                    pos = escape(c, out, pos);
+                }
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xc0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (c == '\u2028' || c == '\u2029') {
+                pos = unicode(c, out, pos);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                out[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                out[pos++] = '?';
+            } else {
+                out[pos++] = (byte) (0xe0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return pos;
+    }
+
+    private static int escape(char c, byte[] out, int pos) {
+        switch (c) {
+            case '"':
+                out[pos++] = '\\';
+                out[pos++] = '"';
+                return pos;
+            case '\\':
+                out[pos++] = '\\';
+                out[pos++] = '\\';
+                return pos;
+            case '\t':
+                out[pos++] = '\\';
+                out[pos++] = 't';
+                return pos;
+            case '\b':
+                out[pos++] = '\\';
+                out[pos++] = 'b';
+                return pos;
+            case '\n':
+                out[pos++] = '\\';
+                out[pos++] = 'n';
+                return pos;
+            case '\r':
+                out[pos++] = '\\';
+                out[pos++] = 'r';
+                return pos;
+            case '\f':
+                out[pos++] = '\\';
+                out[pos++] = 'f';
+                return pos;
+            default:
+                return unicode(c, out, pos);
+        }
+    }
+
+    private static int unicode(char c, byte[] out, int pos) {
+        out[pos++] = '\\';
+        out[pos++] = 'u';
+        out[pos++] = HEX[(c >> 12) & 0xf];
+        out[pos++] = HEX[(c >> 8) & 0xf];
+        out[pos++] = HEX[(c >> 4) & 0xf];
+        out[pos++] = HEX[c & 0xf];
+        return pos;
+    }
+}
@@ -0,0 +1,106 @@
+package com.jcfc.microservice.tracer.reporter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界的多生产者单消费者环形队列
+ * 生产者CAS抢占写入位置，队列满时直接返回false，不阻塞业务线程；只允许一个消费线程读取。
+ * 生产者抢到位置到写入元素之间有短暂的空窗，消费者读到空位时视为暂时没有数据，下次再读。
+ * head、tail各自填充到独占缓存行，生产者缓存一份head，只有看起来满了才去读消费者的head，
+ * 消费者批量取出后只更新一次head。
+ *
+ * @version 1.0
+ */
+public final class SpanRingBuffer<E> {
+
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final int capacity;
+    private final Sequence tail = new Sequence();
+    private final Sequence head = new Sequence();
+    /** 生产者看到的head，可能落后于真实值 */
+    private final Sequence headCache = new Sequence();
+
+    /**
+     * @param capacity 容量，向上取整到2的幂
+     */
+    public SpanRingBuffer(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.capacity = size;
+    }
+
+    public boolean offer(E element) {
+        long position;
+        do {
+            position = tail.get();
+            long wrap = position - capacity;
+            if (wrap >= headCache.get()) {
+                long current = head.get();
+                if (wrap >= current) {
+                    return false;
+                }
+                headCache.lazySet(current);
+            }
+        } while (!tail.compareAndSet(position, position + 1));
+        buffer.lazySet((int) position & mask, element);
+        return true;
+    }
+
+    /** 只能由消费线程调用 */
+    E poll() {
+        long position = head.get();
+        int index = (int) position & mask;
+        E element = buffer.get(index);
+        if (element == null) {
+            return null;
+        }
+        buffer.lazySet(index, null);
+        head.lazySet(position + 1);
+        return element;
+    }
+
+    /**
+     * 批量取出连续可读的元素，只能由消费线程调用
+     *
+     * @return 取出的个数
+     */
+    public int drain(E[] into, int max) {
+        long position = head.get();
+        int count = 0;
+        while (count < max) {
+            int index = (int) (position + count) & mask;
+            E element = buffer.get(index);
+            if (element == null) {
+                break;
+            }
+            buffer.lazySet(index, null);
+            into[count++] = element;
+        }
+        if (count > 0) {
+            head.lazySet(position + count);
+        }
+        return count;
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int) Math.min(size, capacity);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /** 在值后面填充56字节，相邻的序号不会共用一个缓存行 */
+    @SuppressWarnings("unused")
+    static final class Sequence extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
@@ -0,0 +1,120 @@
+package com.jcfc.microservice.tracer.reporter;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+/**
+ * 读取FileSender写出的分段文件
+ * 文件头8字节：魔数TSPN、版本号；之后是连续的记录，每条记录是长度(4字节)、CRC32(4字节)、一个JSON列表的字节。
+ * 长度为0表示文件写到这里为止；长度越界或校验不通过说明写入时进程退出，当作结尾处理。
+ *
+ * @version 1.0
+ */
+public final class SpanSegmentReader {
+
+    static final int MAGIC = 0x5453504E;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 8;
+
+    /** 每条记录的处理 */
+    public interface Handler {
+        void record(File segment, byte[] message) throws IOException;
+    }
+
+    private SpanSegmentReader() {
+    }
+
+    /**
+     * 按写入顺序读取目录下所有的分段文件，或者单个文件
+     *
+     * @return 读到的记录数
+     */
+    public static int read(File path, Handler handler) throws IOException {
+        File[] segments = path.isDirectory() ? list(path) : new File[]{path};
+        int records = 0;
+        for (File segment : segments) {
+            records += readSegment(segment, handler);
+        }
+        return records;
+    }
+
+    private static int readSegment(File segment, Handler handler) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            long size = file.length();
+            if (size < HEADER_SIZE) {
+                return 0;
+            }
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            try {
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    throw new IOException("不是span分段文件：" + segment.getAbsolutePath());
+                }
+                CRC32 crc = new CRC32();
+                int records = 0;
+                while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                    int length = buffer.getInt();
+                    int checksum = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining()) {
+                        break;
+                    }
+                    byte[] message = new byte[length];
+                    buffer.get(message);
+                    crc.reset();
+                    crc.update(message, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                    handler.record(segment, message);
+                    records++;
+                }
+                return records;
+            } finally {
+                MappedBuffers.unmap(buffer);
+            }
+        }
+    }
+
+    /** 目录下的分段文件，按序号排列 */
+    static File[] list(File dir) {
+        File[] files = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && sequence(file) > 0;
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long x = sequence(a);
+                long y = sequence(b);
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        return files;
+    }
+
+    /** 文件名里的序号，不是分段文件时返回-1 */
+    static long sequence(File file) {
+        String name = file.getName();
+        if (!name.startsWith(FileSender.SEGMENT_PREFIX) || !name.endsWith(FileSender.SEGMENT_SUFFIX)) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(name.substring(FileSender.SEGMENT_PREFIX.length(),
+                    name.length() - FileSender.SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+}
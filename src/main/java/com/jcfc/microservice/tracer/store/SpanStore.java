@@ -0,0 +1,495 @@
+package com.jcfc.microservice.tracer.store;
+
+import com.jcfc.microservice.tracer.reporter.SpanRingBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin2.Annotation;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.reporter.Reporter;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 进程内保存最近结束的span，采集端连不上时在本机按traceId、服务名、span名称、是否出错查询
+ * span按结束顺序写进固定大小的环形数组，个数或估算的内存超过上限时从最旧的开始淘汰。
+ * 每个span有一个递增的序号，位置是序号对容量取模；同一traceId、服务名、span名称、出错的span各自用
+ * “上一个同类span的序号”串成链，索引里只记最新的序号。淘汰按序号顺序进行，链上的序号小于最旧的序号时说明后面都已淘汰，
+ * 链头被淘汰时删除索引项，所以索引的大小不会超过存放的span数。traceId索引用两个long作键，不装箱。
+ * 业务线程只把span放进无锁的待写队列，由后台线程写入环形数组和索引，查询和写入之间的锁不会落到业务线程上；
+ * 待写队列满时这个span不进本地存储，计入{@link #getDropped()}，不影响上报。
+ *
+ * @version 1.0
+ */
+public final class SpanStore implements SpanStoreMBean {
+    private static final Logger logger = LoggerFactory.getLogger(SpanStore.class);
+
+    static final String OBJECT_NAME = "com.jcfc.microservice.tracer:type=SpanStore";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long NONE = TraceIdIndex.NONE;
+    /** 待写队列的容量和后台线程每次取出的个数 */
+    private static final int PENDING_CAPACITY = 8192;
+    private static final int DRAIN_BATCH = 256;
+    /** 待写队列空时后台线程的等待时间，查询最多晚这么久看到新结束的span */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static volatile SpanStore instance;
+
+    private int capacity;
+    private long maxBytes;
+    private int mask;
+    private Span[] spans;
+    private long[] traceHighs;
+    private long[] traceLows;
+    private String[] services;
+    private String[] names;
+    private int[] sizes;
+    private long[] previousInTrace;
+    private long[] previousInService;
+    private long[] previousInName;
+    private long[] previousError;
+    private TraceIdIndex traces;
+    private final Map<String, Long> serviceHeads = new HashMap<>();
+    private final Map<String, Long> nameHeads = new HashMap<>();
+    private long errorHead = NONE;
+    /** 下一个写入的序号和最旧的未淘汰序号 */
+    private long next;
+    private long oldest;
+    private long bytes;
+    private final SpanRingBuffer<Span> pending = new SpanRingBuffer<>(PENDING_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean parked;
+
+    private SpanStore(int capacity, long maxBytes) {
+        allocate(capacity, maxBytes);
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "Tracer Span Store");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 按配置取得实例，容量变化时清空重建；第一次创建时注册到JMX
+     */
+    public static SpanStore getInstance(int capacity, long maxBytes) {
+        SpanStore store = instance;
+        if (store == null) {
+            synchronized (SpanStore.class) {
+                store = instance;
+                if (store == null) {
+                    store = new SpanStore(capacity, maxBytes);
+                    try {
+                        ManagementFactory.getPlatformMBeanServer().registerMBean(store, new ObjectName(OBJECT_NAME));
+                    } catch (Exception e) {
+                        logger.warn("注册SpanStore到JMX失败：" + e.getMessage());
+                    }
+                    instance = store;
+                    return store;
+                }
+            }
+        }
+        store.resize(capacity, maxBytes);
+        return store;
+    }
+
+    /** 已创建的实例，没有开启本地存储时为null */
+    public static SpanStore current() {
+        return instance;
+    }
+
+    /**
+     * 在上报管道里加一个分支：先放进待写队列再交给后面的上报器，不加锁
+     */
+    public Reporter<Span> tee(final Reporter<Span> delegate) {
+        return new Reporter<Span>() {
+            @Override
+            public void report(Span span) {
+                if (!pending.offer(span)) {
+                    dropped.incrementAndGet();
+                } else if (parked && pending.size() >= PENDING_CAPACITY / 2) {
+                    // 积压到一半时提前唤醒，不用等到超时
+                    LockSupport.unpark(writer);
+                }
+                delegate.report(span);
+            }
+
+            @Override
+            public String toString() {
+                return "SpanStore{" + delegate + "}";
+            }
+        };
+    }
+
+    private synchronized void resize(int capacity, long maxBytes) {
+        int size = tableSize(capacity);
+        if (size != this.capacity) {
+            allocate(capacity, maxBytes);
+        } else {
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    private void allocate(int capacity, long maxBytes) {
+        int size = tableSize(capacity);
+        this.capacity = size;
+        this.maxBytes = maxBytes;
+        this.mask = size - 1;
+        this.spans = new Span[size];
+        this.traceHighs = new long[size];
+        this.traceLows = new long[size];
+        this.services = new String[size];
+        this.names = new String[size];
+        this.sizes = new int[size];
+        this.previousInTrace = new long[size];
+        this.previousInService = new long[size];
+        this.previousInName = new long[size];
+        this.previousError = new long[size];
+        this.traces = new TraceIdIndex(size);
+        serviceHeads.clear();
+        nameHeads.clear();
+        errorHead = NONE;
+        next = 0L;
+        oldest = 0L;
+        bytes = 0L;
+    }
+
+    private static int tableSize(int capacity) {
+        int size = 16;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /** 后台线程：批量取出待写的span写进环形数组 */
+    private void writeLoop() {
+        Span[] batch = new Span[DRAIN_BATCH];
+        while (true) {
+            int count = pending.drain(batch, batch.length);
+            if (count == 0) {
+                parked = true;
+                LockSupport.parkNanos(this, IDLE_NANOS);
+                parked = false;
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                try {
+                    add(batch[i]);
+                } catch (RuntimeException e) {
+                    logger.warn("保存span失败：" + e);
+                }
+                batch[i] = null;
+            }
+        }
+    }
+
+    /** 写入环形数组和索引，只由后台线程调用 */
+    void add(Span span) {
+        int size = estimateSize(span);
+        String traceId = span.traceId();
+        long high = traceId.length() > 16 ? parseHex(traceId, 0, traceId.length() - 16) : 0L;
+        long low = parseHex(traceId, Math.max(0, traceId.length() - 16), traceId.length());
+        String service = span.localServiceName();
+        String name = span.name();
+        boolean error = span.tags().containsKey("error");
+
+        synchronized (this) {
+            if (size > maxBytes) {
+                return;
+            }
+            while (next - oldest >= capacity || (bytes + size > maxBytes && next > oldest)) {
+                evict();
+            }
+            long sequence = next++;
+            int slot = (int) sequence & mask;
+            spans[slot] = span;
+            traceHighs[slot] = high;
+            traceLows[slot] = low;
+            services[slot] = service;
+            names[slot] = name;
+            sizes[slot] = size;
+            bytes += size;
+
+            previousInTrace[slot] = traces.get(high, low);
+            traces.put(high, low, sequence);
+            previousInService[slot] = link(serviceHeads, service, sequence);
+            previousInName[slot] = link(nameHeads, name, sequence);
+            if (error) {
+                previousError[slot] = errorHead;
+                errorHead = sequence;
+            } else {
+                previousError[slot] = NONE;
+            }
+        }
+    }
+
+    private static long link(Map<String, Long> heads, String key, long sequence) {
+        if (key == null) {
+            return NONE;
+        }
+        Long previous = heads.put(key, sequence);
+        return previous == null ? NONE : previous;
+    }
+
+    private void evict() {
+        long sequence = oldest++;
+        int slot = (int) sequence & mask;
+        if (traces.get(traceHighs[slot], traceLows[slot]) == sequence) {
+            traces.remove(traceHighs[slot], traceLows[slot]);
+        }
+        unlink(serviceHeads, services[slot], sequence);
+        unlink(nameHeads, names[slot], sequence);
+        if (errorHead == sequence) {
+            errorHead = NONE;
+        }
+        bytes -= sizes[slot];
+        spans[slot] = null;
+        services[slot] = null;
+        names[slot] = null;
+    }
+
+    private static void unlink(Map<String, Long> heads, String key, long sequence) {
+        if (key != null) {
+            Long head = heads.get(key);
+            if (head != null && head == sequence) {
+                heads.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 一条链路在本机的全部span，按开始时间排列
+     */
+    public List<Span> trace(String traceId) {
+        if (traceId == null || traceId.isEmpty() || traceId.length() > 32 || !isHex(traceId)) {
+            return Collections.emptyList();
+        }
+        long high = traceId.length() > 16 ? parseHex(traceId, 0, traceId.length() - 16) : 0L;
+        long low = parseHex(traceId, Math.max(0, traceId.length() - 16), traceId.length());
+        List<Span> result = new ArrayList<>();
+        synchronized (this) {
+            collectTrace(high, low, result);
+        }
+        sortByTimestamp(result);
+        return result;
+    }
+
+    private void collectTrace(long high, long low, List<Span> into) {
+        for (long sequence = traces.get(high, low); sequence >= oldest; ) {
+            int slot = (int) sequence & mask;
+            into.add(spans[slot]);
+            sequence = previousInTrace[slot];
+        }
+    }
+
+    /**
+     * 最近的链路，从新到旧；从最窄的条件对应的链开始找，其余条件逐个过滤
+     */
+    public List<List<Span>> traces(String serviceName, String spanName, boolean errorOnly, long lookbackMillis, int limit) {
+        String service = emptyToNull(serviceName);
+        String name = emptyToNull(spanName);
+        long since = lookbackMillis > 0
+                ? TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis() - lookbackMillis) : Long.MIN_VALUE;
+        List<List<Span>> result = new ArrayList<>();
+        synchronized (this) {
+            long[] links;
+            long sequence;
+            if (name != null) {
+                Long head = nameHeads.get(name);
+                sequence = head == null ? NONE : head;
+                links = previousInName;
+            } else if (service != null) {
+                Long head = serviceHeads.get(service);
+                sequence = head == null ? NONE : head;
+                links = previousInService;
+            } else if (errorOnly) {
+                sequence = errorHead;
+                links = previousError;
+            } else {
+                sequence = next - 1;
+                links = null;
+            }
+
+            // 同一条链路只取一次，键是traceId的两个long
+            Map<TraceKey, Boolean> seen = new LinkedHashMap<>();
+            while (sequence >= oldest && seen.size() < limit) {
+                int slot = (int) sequence & mask;
+                Span span = spans[slot];
+                if ((service == null || service.equals(services[slot]))
+                        && (name == null || name.equals(names[slot]))
+                        && (!errorOnly || span.tags().containsKey("error"))
+                        && (span.timestamp() == null || span.timestamp() >= since)) {
+                    seen.put(new TraceKey(traceHighs[slot], traceLows[slot]), Boolean.TRUE);
+                }
+                sequence = links == null ? sequence - 1 : links[slot];
+            }
+            for (TraceKey key : seen.keySet()) {
+                List<Span> trace = new ArrayList<>();
+                collectTrace(key.high, key.low, trace);
+                result.add(trace);
+            }
+        }
+        for (List<Span> trace : result) {
+            sortByTimestamp(trace);
+        }
+        return result;
+    }
+
+    @Override
+    public String getTrace(String traceId) {
+        List<Span> trace = trace(traceId);
+        return trace.isEmpty() ? null : new String(SpanBytesEncoder.JSON_V2.encodeList(trace), UTF_8);
+    }
+
+    @Override
+    public String getTraces(String serviceName, String spanName, boolean errorOnly, long lookbackMillis, int limit) {
+        return new String(encodeTraces(traces(serviceName, spanName, errorOnly, lookbackMillis, limit)), UTF_8);
+    }
+
+    /** 多条链路拼成zipkin /api/v2/traces的格式 */
+    public static byte[] encodeTraces(List<List<Span>> traces) {
+        List<byte[]> encoded = new ArrayList<>(traces.size());
+        int size = 2 + Math.max(0, traces.size() - 1);
+        for (List<Span> trace : traces) {
+            byte[] bytes = SpanBytesEncoder.JSON_V2.encodeList(trace);
+            encoded.add(bytes);
+            size += bytes.length;
+        }
+        byte[] out = new byte[size];
+        int pos = 0;
+        out[pos++] = '[';
+        for (int i = 0; i < encoded.size(); i++) {
+            if (i > 0) {
+                out[pos++] = ',';
+            }
+            byte[] bytes = encoded.get(i);
+            System.arraycopy(bytes, 0, out, pos, bytes.length);
+            pos += bytes.length;
+        }
+        out[pos] = ']';
+        return out;
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return (int) (next - oldest);
+    }
+
+    @Override
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public synchronized void clear() {
+        while (oldest < next) {
+            evict();
+        }
+    }
+
+    /** 估算span占用的内存：对象和id的固定开销，加上字符串按每字符2字节 */
+    static int estimateSize(Span span) {
+        long size = 256;
+        if (span.name() != null) {
+            size += 2 * span.name().length();
+        }
+        for (Map.Entry<String, String> tag : span.tags().entrySet()) {
+            size += 64 + 2L * (tag.getKey().length() + tag.getValue().length());
+        }
+        for (Annotation annotation : span.annotations()) {
+            size += 48 + 2 * annotation.value().length();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    private static long parseHex(String value, int from, int to) {
+        long result = 0L;
+        for (int i = from; i < to; i++) {
+            result = (result << 4) | Character.digit(value.charAt(i), 16);
+        }
+        return result;
+    }
+
+    private static boolean isHex(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.digit(value.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** zipkin的服务名和span名称都是小写的 */
+    private static String emptyToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static void sortByTimestamp(List<Span> spans) {
+        Collections.sort(spans, new Comparator<Span>() {
+            @Override
+            public int compare(Span a, Span b) {
+                long x = a.timestamp() == null ? 0L : a.timestamp();
+                long y = b.timestamp() == null ? 0L : b.timestamp();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+    }
+
+    /** 查询时去重用，只在查询里短暂存在 */
+    private static final class TraceKey {
+        final long high;
+        final long low;
+
+        TraceKey(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TraceKey)) {
+                return false;
+            }
+            TraceKey other = (TraceKey) o;
+            return high == other.high && low == other.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (high ^ (high >>> 32) ^ low ^ (low >>> 32));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.jcfc.microservice.tracer.store;
+
+/**
+ * 本地span存储的JMX接口
+ *
+ * @version 1.0
+ */
+public interface SpanStoreMBean {
+
+    /** 一条链路在本机的全部span，zipkin v2 JSON格式；没有时返回null */
+    String getTrace(String traceId);
+
+    /**
+     * 最近的链路，zipkin v2 JSON格式，每条链路是一个span列表
+     *
+     * @param serviceName    服务名，为空表示不限
+     * @param spanName       span名称，为空表示不限
+     * @param errorOnly      只要带error标签的
+     * @param lookbackMillis 只要最近多少毫秒内开始的，0表示不限
+     * @param limit          最多返回的链路数
+     */
+    String getTraces(String serviceName, String spanName, boolean errorOnly, long lookbackMillis, int limit);
+
+    int getSize();
+
+    int getCapacity();
+
+    long getBytes();
+
+    long getMaxBytes();
+
+    /** 待写队列满时没有保存的span数 */
+    long getDropped();
+
+    void clear();
+}
@@ -0,0 +1,67 @@
+package com.jcfc.microservice.tracer.store;
+
+import com.jcfc.microservice.tracer.TracerConfig;
+import zipkin2.Span;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 查询本地保存的span，输出zipkin v2 JSON格式
+ * 在web.xml中配置：
+ * <pre>
+ * &lt;servlet&gt;
+ *     &lt;servlet-name&gt;tracerSpans&lt;/servlet-name&gt;
+ *     &lt;servlet-class&gt;com.jcfc.microservice.tracer.store.SpanStoreServlet&lt;/servlet-class&gt;
+ * &lt;/servlet&gt;
+ * &lt;servlet-mapping&gt;
+ *     &lt;servlet-name&gt;tracerSpans&lt;/servlet-name&gt;
+ *     &lt;url-pattern&gt;/tracer/traces&lt;/url-pattern&gt;
+ * &lt;/servlet-mapping&gt;
+ * </pre>
+ * 参数：traceId查单条链路；否则按serviceName、spanName、error=true、lookback(毫秒，默认15分钟)、limit(默认10)查最近的链路。
+ *
+ * @version 1.0
+ */
+public class SpanStoreServlet extends HttpServlet {
+
+    private static final long serialVersionUID = -3179056842154967021L;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        SpanStore store = SpanStore.current();
+        if (store == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "未开启tracer.span.store.enabled");
+            return;
+        }
+        byte[] body;
+        String traceId = req.getParameter("traceId");
+        if (traceId != null) {
+            String json = store.getTrace(traceId.trim());
+            if (json == null) {
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND, "没有找到链路");
+                return;
+            }
+            body = json.getBytes(UTF_8);
+        } else {
+            List<List<Span>> traces = store.traces(req.getParameter("serviceName"), req.getParameter("spanName"),
+                    "true".equalsIgnoreCase(req.getParameter("error")),
+                    TracerConfig.parseLong(req.getParameter("lookback"), TimeUnit.MINUTES.toMillis(15)),
+                    (int) TracerConfig.parseLong(req.getParameter("limit"), 10L));
+            body = SpanStore.encodeTraces(traces);
+        }
+        resp.setContentType("application/json;charset=utf-8");
+        resp.setContentLength(body.length);
+        OutputStream out = resp.getOutputStream();
+        out.write(body);
+        out.flush();
+    }
+}
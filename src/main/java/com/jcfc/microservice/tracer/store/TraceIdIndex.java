@@ -0,0 +1,104 @@
+package com.jcfc.microservice.tracer.store;
+
+import java.util.Arrays;
+
+/**
+ * traceId到序号的哈希表，traceId拆成高低两个long作为键，不装箱、不为每个键分配对象
+ * 开放寻址、线性探测，删除时把后面的元素前移，不留墓碑。容量固定为最大键数的两倍以上，调用方保证键数不超过maxKeys。
+ * 非线程安全，由SpanStore加锁访问。
+ *
+ * @version 1.0
+ */
+final class TraceIdIndex {
+
+    static final long NONE = -1L;
+
+    private final long[] highs;
+    private final long[] lows;
+    private final long[] values;
+    private final int mask;
+    private int size;
+
+    /**
+     * @param maxKeys 最多同时存放的键数
+     */
+    TraceIdIndex(int maxKeys) {
+        int capacity = 2;
+        while (capacity < maxKeys * 2) {
+            capacity <<= 1;
+        }
+        this.highs = new long[capacity];
+        this.lows = new long[capacity];
+        this.values = new long[capacity];
+        this.mask = capacity - 1;
+        clear();
+    }
+
+    long get(long high, long low) {
+        int index = indexOf(high, low);
+        return index < 0 ? NONE : values[index];
+    }
+
+    void put(long high, long low, long value) {
+        int index = slot(high, low);
+        while (values[index] != NONE) {
+            if (highs[index] == high && lows[index] == low) {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        highs[index] = high;
+        lows[index] = low;
+        values[index] = value;
+        size++;
+    }
+
+    void remove(long high, long low) {
+        int index = indexOf(high, low);
+        if (index < 0) {
+            return;
+        }
+        values[index] = NONE;
+        size--;
+        // 后面同一探测链上的元素如果本该放在空出的位置之前，往前移
+        int next = (index + 1) & mask;
+        while (values[next] != NONE) {
+            int home = slot(highs[next], lows[next]);
+            if (((next - home) & mask) >= ((next - index) & mask)) {
+                highs[index] = highs[next];
+                lows[index] = lows[next];
+                values[index] = values[next];
+                values[next] = NONE;
+                index = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(values, NONE);
+        size = 0;
+    }
+
+    private int indexOf(long high, long low) {
+        int index = slot(high, low);
+        while (values[index] != NONE) {
+            if (highs[index] == high && lows[index] == low) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slot(long high, long low) {
+        // 上游系统生成的traceId不一定随机，连续的traceId直接取低位会连成一片，删除时每次都要扫过整片
+        long hash = (high * 0x9E3779B97F4A7C15L + low) * 0xBF58476D1CE4E5B9L;
+        return (int) (hash >>> 32) & mask;
+    }
+}
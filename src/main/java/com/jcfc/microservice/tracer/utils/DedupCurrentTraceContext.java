@@ -0,0 +1,57 @@
+package com.jcfc.microservice.tracer.utils;
+
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.TraceContext;
+
+/**
+ * 跳过重复作用域的CurrentTraceContext
+ * 多层埋点嵌套时（filter、handler、用户代码）经常对已经是当前span的上下文再开一次作用域，
+ * 基于ThreadLocal或MDC的实现每次都要写一遍线程变量、关闭时再恢复。
+ * 这里在目标上下文就是当前上下文时直接返回空作用域，每层只付一次开销。
+ *
+ * @version 1.0
+ */
+public final class DedupCurrentTraceContext extends CurrentTraceContext {
+    private static final Scope NOOP_SCOPE = new Scope() {
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return "NoopScope";
+        }
+    };
+
+    private final CurrentTraceContext delegate;
+
+    private DedupCurrentTraceContext(CurrentTraceContext delegate) {
+        this.delegate = delegate;
+    }
+
+    public static CurrentTraceContext wrap(CurrentTraceContext delegate) {
+        if (delegate instanceof DedupCurrentTraceContext) {
+            return delegate;
+        }
+        return new DedupCurrentTraceContext(delegate);
+    }
+
+    @Override
+    public TraceContext get() {
+        return delegate.get();
+    }
+
+    @Override
+    public Scope newScope(TraceContext currentSpan) {
+        TraceContext previous = delegate.get();
+        if (previous == currentSpan || (previous != null && previous.equals(currentSpan))) {
+            return NOOP_SCOPE;
+        }
+        return delegate.newScope(currentSpan);
+    }
+
+    @Override
+    public String toString() {
+        return "DedupCurrentTraceContext(" + delegate + ")";
+    }
+}
@@ -22,6 +22,9 @@ public class NetworkUtils {
     private static final Pattern LOCAL_IP_PATTERN = Pattern.compile("127(\\.\\d{1,3}){3}$");
     private static final Pattern IP_PATTERN = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3,5}$");
     private static final Map<String, String> HOST_NAME_CACHE = new LRUCache(10);
+    private static final Map<String, HostAddress> HOST_ADDRESS_CACHE = new LRUCache<String, HostAddress>(1000);
+    //主机名解析结果的缓存时间，和JVM默认的DNS缓存时间(networkaddress.cache.ttl)一致，IP变化后最多30秒生效
+    private static final long HOST_ADDRESS_TTL_MILLIS = 30000L;
     private static volatile InetAddress LOCAL_ADDRESS = null;
 
 
@@ -55,6 +58,14 @@ public class NetworkUtils {
         return address == null?"127.0.0.1":address.getHostAddress();
     }
 
+    /**
+     * 已解析的本机IP，尚未解析时返回null，不阻塞
+     */
+    public static String getLocalHostIfResolved() {
+        InetAddress address = LOCAL_ADDRESS;
+        return address == null ? null : address.getHostAddress();
+    }
+
     private static InetAddress getLocalAddress() {
         if(LOCAL_ADDRESS != null) {
             return LOCAL_ADDRESS;
@@ -134,6 +145,38 @@ public class NetworkUtils {
         return address;
     }
 
+    /**
+     * 主机名对应的IP，解析结果缓存30秒；本身是IP时直接返回，解析失败返回null且不缓存
+     */
+    public static String getHostAddress(String host) {
+        if (host == null || host.length() == 0) {
+            return null;
+        }
+        long now = SystemClock.now();
+        HostAddress cached = HOST_ADDRESS_CACHE.get(host);
+        if (cached != null && cached.expiresAt > now) {
+            return cached.address;
+        }
+        String address;
+        try {
+            address = InetAddress.getByName(host).getHostAddress();
+        } catch (Throwable e) {
+            return null;
+        }
+        HOST_ADDRESS_CACHE.put(host, new HostAddress(address, now + HOST_ADDRESS_TTL_MILLIS));
+        return address;
+    }
+
+    private static final class HostAddress {
+        final String address;
+        final long expiresAt;
+
+        HostAddress(String address, long expiresAt) {
+            this.address = address;
+            this.expiresAt = expiresAt;
+        }
+    }
+
     public static String toURL(String protocol, String host, int port, String path) {
         StringBuilder sb = new StringBuilder();
         sb.append(protocol).append("://");
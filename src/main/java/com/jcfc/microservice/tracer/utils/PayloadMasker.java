@@ -0,0 +1,521 @@
+package com.jcfc.microservice.tracer.utils;
+
+import com.jcfc.microservice.tracer.TracerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 报文脱敏
+ * 采集的args、result和消息体在记录tag之前按规则脱敏，规则在配置快照变化时编译一次：
+ * <ul>
+ * <li>tracer.mask.fields：字段名，不区分大小写，JSON的key和表单的参数名都生效，整个值替换成******</li>
+ * <li>tracer.mask.paths：JSON路径，如$.user.idNo、$.list[*].mobile，数组下标忽略</li>
+ * <li>tracer.mask.builtin：内置的号码识别，idcard、mobile、bankcard（Luhn校验），保留前3位和后4位</li>
+ * <li>tracer.mask.patterns：自定义正则，分号分隔，匹配到的内容替换成******</li>
+ * </ul>
+ * 字段名、路径和内置号码在一次扫描里完成：按JSON的结构边扫描边跟踪当前路径，不解析成对象；
+ * 非JSON的文本（逗号拼接的参数、表单、纯文本）只做号码识别和表单参数名匹配。截断的报文同样可以处理。
+ * 没有命中任何规则时返回原字符串，不产生拷贝。写错的正则记一条日志后跳过，其余规则照常生效。
+ *
+ * @version 1.0
+ */
+public final class PayloadMasker {
+    private static final Logger logger = LoggerFactory.getLogger(PayloadMasker.class);
+
+    public static final String TRACER_MASK_ENABLED = "tracer.mask.enabled";
+    public static final String TRACER_MASK_FIELDS = "tracer.mask.fields";
+    public static final String TRACER_MASK_PATHS = "tracer.mask.paths";
+    public static final String TRACER_MASK_BUILTIN = "tracer.mask.builtin";
+    public static final String TRACER_MASK_PATTERNS = "tracer.mask.patterns";
+
+    private static final String DEFAULT_BUILTIN = "idcard,mobile,bankcard";
+    private static final String MASK = "******";
+    private static final String QUOTED_MASK = "\"" + MASK + "\"";
+    private static final int KEEP_HEAD = 3;
+    private static final int KEEP_TAIL = 4;
+
+    private static volatile PayloadMasker current;
+
+    private final TracerConfig config;
+    private final boolean enabled;
+    private final FieldTable fields;
+    private final PathNode paths;
+    private final boolean maskIdCard;
+    private final boolean maskMobile;
+    private final boolean maskBankCard;
+    private final Pattern pattern;
+
+    private PayloadMasker(TracerConfig config) {
+        this.config = config;
+        this.enabled = "true".equalsIgnoreCase(config.getProperty(TRACER_MASK_ENABLED));
+        this.fields = new FieldTable(split(config.getProperty(TRACER_MASK_FIELDS), ","));
+        this.paths = PathNode.compile(split(config.getProperty(TRACER_MASK_PATHS), ","));
+        String builtinValue = config.getProperty(TRACER_MASK_BUILTIN);
+        List<String> builtin = split(builtinValue == null ? DEFAULT_BUILTIN : builtinValue.toLowerCase(Locale.ENGLISH), ",");
+        this.maskIdCard = builtin.contains("idcard");
+        this.maskMobile = builtin.contains("mobile");
+        this.maskBankCard = builtin.contains("bankcard");
+        this.pattern = compile(split(config.getProperty(TRACER_MASK_PATTERNS), ";"));
+    }
+
+    /**
+     * 当前配置对应的脱敏器，配置快照变化后重新编译
+     */
+    public static PayloadMasker current() {
+        TracerConfig config = TracerConfig.current();
+        PayloadMasker masker = current;
+        if (masker == null || masker.config != config) {
+            masker = new PayloadMasker(config);
+            current = masker;
+        }
+        return masker;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 脱敏，未开启或没有命中时返回原字符串
+     */
+    public String mask(String text) {
+        if (!enabled || text == null || text.isEmpty()) {
+            return text;
+        }
+        Output out = new Output(text);
+        scan(text, out);
+        String masked = out.finish();
+        return pattern == null ? masked : maskPattern(masked);
+    }
+
+    private void scan(String text, Output out) {
+        int n = text.length();
+        boolean[] inObject = new boolean[16];
+        PathNode[] nodes = new PathNode[16];
+        int depth = 0;
+        nodes[0] = paths;
+        PathNode valueNode = paths;
+        boolean expectKey = false;
+        boolean maskValue = false;
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '{':
+                case '[':
+                    if (maskValue) {
+                        int end = skipContainer(text, i);
+                        out.replace(i, end, QUOTED_MASK);
+                        maskValue = false;
+                        i = end;
+                        break;
+                    }
+                    depth++;
+                    if (depth == inObject.length) {
+                        inObject = Arrays.copyOf(inObject, depth * 2);
+                        nodes = Arrays.copyOf(nodes, depth * 2);
+                    }
+                    inObject[depth] = c == '{';
+                    nodes[depth] = valueNode;
+                    expectKey = c == '{';
+                    i++;
+                    break;
+                case '}':
+                case ']':
+                    if (depth > 0) {
+                        depth--;
+                    }
+                    expectKey = false;
+                    maskValue = false;
+                    i++;
+                    break;
+                case ',':
+                    expectKey = depth > 0 && inObject[depth];
+                    valueNode = nodes[depth];
+                    maskValue = false;
+                    i++;
+                    break;
+                case ':':
+                    i++;
+                    break;
+                case '"': {
+                    int close = closingQuote(text, i);
+                    if (expectKey) {
+                        maskValue = fields.matches(text, i + 1, close);
+                        PathNode parent = nodes[depth];
+                        valueNode = parent == null ? null : parent.child(text, i + 1, close);
+                        if (valueNode != null && valueNode.terminal) {
+                            maskValue = true;
+                        }
+                        expectKey = false;
+                    } else if (maskValue) {
+                        out.replace(i + 1, close, MASK);
+                        maskValue = false;
+                    } else {
+                        maskNumbers(text, i + 1, close, out);
+                    }
+                    i = close < n ? close + 1 : n;
+                    break;
+                }
+                default:
+                    if (c <= ' ') {
+                        i++;
+                        break;
+                    }
+                    int end = atomEnd(text, i);
+                    if (maskValue) {
+                        out.replace(i, end, QUOTED_MASK);
+                        maskValue = false;
+                    } else {
+                        maskAtom(text, i, end, out);
+                    }
+                    i = end;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 非JSON的片段：数字、true/false、表单参数或纯文本
+     */
+    private void maskAtom(String text, int start, int end, Output out) {
+        if (fields.isEmpty() || indexOf(text, '=', start, end) == end) {
+            maskNumbers(text, start, end, out);
+            return;
+        }
+        int pair = start;
+        while (pair < end) {
+            int amp = indexOf(text, '&', pair, end);
+            int eq = indexOf(text, '=', pair, amp);
+            if (eq < amp && fields.matches(text, pair, eq)) {
+                out.replace(eq + 1, amp, MASK);
+            } else {
+                maskNumbers(text, pair, amp, out);
+            }
+            pair = amp + 1;
+        }
+    }
+
+    /**
+     * 识别身份证号、手机号和银行卡号：前后都不是字母数字的连续数字串，按长度、前缀和校验位判断
+     */
+    private void maskNumbers(String text, int start, int end, Output out) {
+        if (!maskIdCard && !maskMobile && !maskBankCard) {
+            return;
+        }
+        int i = start;
+        while (i < end) {
+            if (!isDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int runStart = i;
+            while (i < end && isDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i < end && i - runStart == 17 && (text.charAt(i) == 'X' || text.charAt(i) == 'x')) {
+                i++;
+            }
+            boolean bounded = (runStart == 0 || !isAlnum(text.charAt(runStart - 1)))
+                    && (i == text.length() || !isAlnum(text.charAt(i)));
+            if (!bounded) {
+                while (i < end && isAlnum(text.charAt(i))) {
+                    i++;
+                }
+                continue;
+            }
+            if (isSensitive(text, runStart, i - runStart)) {
+                out.fill(runStart + KEEP_HEAD, i - KEEP_TAIL, '*');
+            }
+        }
+    }
+
+    private boolean isSensitive(String text, int start, int length) {
+        if (length == 11) {
+            return maskMobile && text.charAt(start) == '1' && text.charAt(start + 1) >= '3';
+        }
+        if (length == 18 && maskIdCard && isIdCard(text, start)) {
+            return true;
+        }
+        return maskBankCard && length >= 16 && length <= 19 && isDigit(text.charAt(start + length - 1))
+                && luhn(text, start, length);
+    }
+
+    /** 18位身份证：第7到10位是19xx或20xx年，第11、12位是01到12月 */
+    private static boolean isIdCard(String text, int start) {
+        char y1 = text.charAt(start + 6);
+        char y2 = text.charAt(start + 7);
+        char m1 = text.charAt(start + 10);
+        char m2 = text.charAt(start + 11);
+        return ((y1 == '1' && y2 == '9') || (y1 == '2' && y2 == '0'))
+                && ((m1 == '0' && m2 >= '1') || (m1 == '1' && m2 <= '2'));
+    }
+
+    private static boolean luhn(String text, int start, int length) {
+        int sum = 0;
+        boolean doubled = false;
+        for (int i = start + length - 1; i >= start; i--) {
+            int digit = text.charAt(i) - '0';
+            if (doubled) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubled = !doubled;
+        }
+        return sum % 10 == 0;
+    }
+
+    private String maskPattern(String text) {
+        Matcher matcher = pattern.matcher(text);
+        if (!matcher.find()) {
+            return text;
+        }
+        StringBuilder out = new StringBuilder(text.length());
+        int copied = 0;
+        do {
+            out.append(text, copied, matcher.start()).append(MASK);
+            copied = matcher.end();
+        } while (matcher.find());
+        return out.append(text, copied, text.length()).toString();
+    }
+
+    /** 字符串结束引号的位置，没有结束引号（报文被截断）时返回文本长度 */
+    private static int closingQuote(String text, int open) {
+        int n = text.length();
+        int i = open + 1;
+        while (i < n) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '"') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return n;
+    }
+
+    private static int skipContainer(String text, int open) {
+        int n = text.length();
+        int depth = 0;
+        int i = open;
+        while (i < n) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                i = closingQuote(text, i) + 1;
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if ((c == '}' || c == ']') && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return n;
+    }
+
+    private static int atomEnd(String text, int start) {
+        int n = text.length();
+        int i = start;
+        while (i < n) {
+            char c = text.charAt(i);
+            if (c <= ' ' || c == ',' || c == ':' || c == '"' || c == '{' || c == '}' || c == '[' || c == ']') {
+                return i;
+            }
+            i++;
+        }
+        return n;
+    }
+
+    private static int indexOf(String text, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isAlnum(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /** 逐个检查后合成一个正则，写错的跳过 */
+    private static Pattern compile(List<String> patterns) {
+        StringBuilder regex = new StringBuilder();
+        for (String item : patterns) {
+            try {
+                Pattern.compile(item);
+            } catch (PatternSyntaxException e) {
+                logger.warn(TRACER_MASK_PATTERNS + "中的正则无效，已跳过：" + item + "，" + e.getDescription());
+                continue;
+            }
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            regex.append("(?:").append(item).append(')');
+        }
+        return regex.length() == 0 ? null : Pattern.compile(regex.toString());
+    }
+
+    private static List<String> split(String value, String separator) {
+        List<String> items = new ArrayList<>();
+        if (value != null) {
+            for (String item : value.split(separator)) {
+                item = item.trim();
+                if (!item.isEmpty()) {
+                    items.add(item);
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * 按需拷贝的输出：第一次替换时才分配，替换区间必须递增
+     */
+    private static final class Output {
+        private final String text;
+        private StringBuilder out;
+        private int copied;
+
+        Output(String text) {
+            this.text = text;
+        }
+
+        void replace(int start, int end, String replacement) {
+            prepare(start);
+            out.append(replacement);
+            copied = end;
+        }
+
+        void fill(int start, int end, char c) {
+            prepare(start);
+            for (int i = start; i < end; i++) {
+                out.append(c);
+            }
+            copied = end;
+        }
+
+        private void prepare(int start) {
+            if (out == null) {
+                out = new StringBuilder(text.length() + 16);
+            }
+            out.append(text, copied, start);
+        }
+
+        String finish() {
+            return out == null ? text : out.append(text, copied, text.length()).toString();
+        }
+    }
+
+    /**
+     * 字段名表：按长度分桶，比较时不区分大小写，不创建key字符串
+     */
+    private static final class FieldTable {
+        private final String[][] byLength;
+
+        FieldTable(List<String> names) {
+            int max = 0;
+            for (String name : names) {
+                max = Math.max(max, name.length());
+            }
+            String[][] table = new String[max + 1][];
+            for (String name : names) {
+                String[] bucket = table[name.length()];
+                bucket = bucket == null ? new String[1] : Arrays.copyOf(bucket, bucket.length + 1);
+                bucket[bucket.length - 1] = name;
+                table[name.length()] = bucket;
+            }
+            this.byLength = table;
+        }
+
+        boolean isEmpty() {
+            return byLength.length == 1;
+        }
+
+        boolean matches(String text, int start, int end) {
+            int length = end - start;
+            if (length <= 0 || length >= byLength.length || byLength[length] == null) {
+                return false;
+            }
+            for (String name : byLength[length]) {
+                if (text.regionMatches(true, start, name, 0, length)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * JSON路径树，每一层按key查找子节点
+     */
+    private static final class PathNode {
+        private String[] keys = new String[0];
+        private PathNode[] children = new PathNode[0];
+        private boolean terminal;
+
+        static PathNode compile(List<String> paths) {
+            if (paths.isEmpty()) {
+                return null;
+            }
+            PathNode root = new PathNode();
+            for (String path : paths) {
+                String normalized = path.startsWith("$.") ? path.substring(2) : path;
+                normalized = normalized.replaceAll("\\[[^\\]]*\\]", "");
+                PathNode node = root;
+                for (String key : normalized.split("\\.")) {
+                    if (!key.isEmpty()) {
+                        node = node.add(key);
+                    }
+                }
+                if (node != root) {
+                    node.terminal = true;
+                }
+            }
+            return root;
+        }
+
+        private PathNode add(String key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) {
+                    return children[i];
+                }
+            }
+            PathNode child = new PathNode();
+            keys = Arrays.copyOf(keys, keys.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            keys[keys.length - 1] = key;
+            children[children.length - 1] = child;
+            return child;
+        }
+
+        PathNode child(String text, int start, int end) {
+            int length = end - start;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].length() == length && text.regionMatches(start, keys[i], 0, length)) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+    }
+}
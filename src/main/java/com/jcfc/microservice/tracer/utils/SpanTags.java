@@ -0,0 +1,56 @@
+package com.jcfc.microservice.tracer.utils;
+
+import brave.Span;
+import com.jcfc.microservice.tracer.TracerConfig;
+import com.jcfc.microservice.tracer.metrics.TracerMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * span标签的公共处理
+ *
+ * @version 1.0
+ */
+public final class SpanTags {
+    private static final Logger logger = LoggerFactory.getLogger(SpanTags.class);
+
+    private SpanTags() {
+    }
+
+    /**
+     * 值不为空且不超长时才记录tag，超长的计入{@link TracerMetrics#getOversizedTags()}，
+     * 长度上限取当前配置{@link TracerConfig#getMaxTagLength()}
+     */
+    public static void maybeTag(Span span, String tag, String value) {
+        if (value == null) {
+            return;
+        }
+        if (value.length() < TracerConfig.current().getMaxTagLength()) {
+            span.tag(tag, value);
+        } else {
+            TracerMetrics.getInstance().oversizedTag();
+        }
+    }
+
+    /**
+     * 报文类的tag（参数、返回值、消息体），先经过{@link PayloadMasker}脱敏再记录；
+     * 超长的报文会被丢弃，不做脱敏；脱敏出错时丢弃这个tag，不影响业务调用
+     */
+    public static void maybeTagPayload(Span span, String tag, String value) {
+        if (value == null) {
+            return;
+        }
+        if (value.length() < TracerConfig.current().getMaxTagLength()) {
+            String masked;
+            try {
+                masked = PayloadMasker.current().mask(value);
+            } catch (RuntimeException e) {
+                logger.debug("报文脱敏失败，丢弃tag " + tag + "：" + e);
+                return;
+            }
+            maybeTag(span, tag, masked);
+        } else {
+            TracerMetrics.getInstance().oversizedTag();
+        }
+    }
+}
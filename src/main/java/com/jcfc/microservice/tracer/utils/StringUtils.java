@@ -2,6 +2,7 @@ package com.jcfc.microservice.tracer.utils;
 
 
 import com.alibaba.fastjson.JSON;
+import com.jcfc.microservice.tracer.metrics.TracerMetrics;
 
 import java.util.Date;
 
@@ -14,6 +15,15 @@ public class StringUtils {
     private static final String COMMA_SEPARATOR = ",";
 
     public static String toArgumentString(Object[] args) {
+        long start = System.nanoTime();
+        try {
+            return toArgumentString0(args);
+        } finally {
+            TracerMetrics.getInstance().serialization().recordSince(start);
+        }
+    }
+
+    private static String toArgumentString0(Object[] args) {
         StringBuilder buf = new StringBuilder();
         for (Object arg : args) {
             if (buf.length() > 0) {
@@ -0,0 +1,179 @@
+package com.jcfc.microservice.tracer.utils;
+
+import brave.Span;
+import brave.Tracer;
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.SamplingFlags;
+import brave.propagation.TraceContext;
+import brave.propagation.TraceContextOrSamplingFlags;
+import brave.propagation.TraceIdContext;
+import com.jcfc.microservice.tracer.TracerConfig;
+
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 新链路的traceId和spanId生成
+ * 每个线程一个xorshift128+生成器，不共享状态、没有CAS；各线程的种子按SplittableRandom的方式从一个随机起点
+ * 以黄金分割数为步长依次取出再打散，起点只在第一次使用时从SecureRandom取一次。
+ * 开启tracer.trace-id.128bit时，traceId高64位的前32位是当前的epoch秒，后32位是随机数，采集端可以按时间分区。
+ * brave 4.12不能替换id生成方式，这里生成好根上下文后交给{@link Tracer#toSpan(TraceContext)}。
+ *
+ * @version 1.0
+ */
+public final class TraceIds {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private static final ThreadLocal<Generator> GENERATORS = new ThreadLocal<Generator>() {
+        @Override
+        protected Generator initialValue() {
+            return new Generator(Seeder.next());
+        }
+    };
+
+    private TraceIds() {
+    }
+
+    /** 非0的64位随机数 */
+    public static long nextId() {
+        return GENERATORS.get().nextId();
+    }
+
+    /** 128位traceId的高64位：epoch秒(32位)加随机数(32位) */
+    public static long nextTraceIdHigh() {
+        return GENERATORS.get().nextTraceIdHigh();
+    }
+
+    /**
+     * 新链路的根上下文，spanId和traceId相同
+     *
+     * @param sampled 采样决定
+     * @param debug   是否debug
+     * @param extra   传播的附加字段
+     */
+    public static TraceContext newRootContext(boolean sampled, boolean debug, List<Object> extra) {
+        Generator generator = GENERATORS.get();
+        long traceId = generator.nextId();
+        return TraceContext.newBuilder()
+                .traceIdHigh(TracerConfig.current().isTraceId128Bit() ? generator.nextTraceIdHigh() : 0L)
+                .traceId(traceId)
+                .spanId(traceId)
+                .sampled(sampled)
+                .debug(debug)
+                .extra(extra)
+                .build();
+    }
+
+    /** 新链路的根span，一定采样 */
+    public static Span newTrace(Tracer tracer) {
+        return tracer.toSpan(newRootContext(true, false, Collections.<Object>emptyList()));
+    }
+
+    /**
+     * 没有上游上下文、当前线程也不在span里时由这里生成traceId建立新链路：已有采样决定的直接生成根上下文，
+     * 没有采样决定的只补traceId，由brave的采样器决定。其余情况交给{@link Tracer#nextSpan(TraceContextOrSamplingFlags)}，
+     * 当前的span是父span，出站调用不会另起一条链路。
+     */
+    public static Span nextSpan(Tracer tracer, CurrentTraceContext currentTraceContext,
+                                TraceContextOrSamplingFlags extracted) {
+        if (extracted.context() != null || extracted.traceIdContext() != null || currentTraceContext.get() != null) {
+            return tracer.nextSpan(extracted);
+        }
+        Boolean sampled = extracted.sampled();
+        SamplingFlags flags = extracted.samplingFlags();
+        boolean debug = flags != null && flags.debug();
+        if (sampled != null) {
+            return tracer.toSpan(newRootContext(sampled, debug, extracted.extra()));
+        }
+        if (!extracted.extra().isEmpty()) {
+            // 只带traceId的上下文放不下附加字段
+            return tracer.nextSpan(extracted);
+        }
+        return tracer.nextSpan(TraceContextOrSamplingFlags.create(newTraceIdContext(null, debug)));
+    }
+
+    /**
+     * 包装提取器：请求没有带上下文时补一个这里生成的traceId，spanId仍由brave生成
+     * 用于不能直接创建span的场合（如brave的HttpServerHandler）。带了附加字段的请求不补，避免丢失附加字段。
+     */
+    public static <C> TraceContext.Extractor<C> withTraceId(final TraceContext.Extractor<C> delegate) {
+        return new TraceContext.Extractor<C>() {
+            @Override
+            public TraceContextOrSamplingFlags extract(C carrier) {
+                TraceContextOrSamplingFlags extracted = delegate.extract(carrier);
+                if (extracted.context() != null || extracted.traceIdContext() != null || !extracted.extra().isEmpty()) {
+                    return extracted;
+                }
+                SamplingFlags flags = extracted.samplingFlags();
+                return TraceContextOrSamplingFlags.create(
+                        newTraceIdContext(extracted.sampled(), flags != null && flags.debug()));
+            }
+        };
+    }
+
+    /** 只有traceId的上下文，spanId由brave生成；sampled为null时由采样器决定 */
+    private static TraceIdContext newTraceIdContext(Boolean sampled, boolean debug) {
+        Generator generator = GENERATORS.get();
+        return TraceIdContext.newBuilder()
+                .traceIdHigh(TracerConfig.current().isTraceId128Bit() ? generator.nextTraceIdHigh() : 0L)
+                .traceId(generator.nextId())
+                .sampled(sampled)
+                .debug(debug)
+                .build();
+    }
+
+    /** SplittableRandom的打散函数 */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** 种子来源，第一个线程取id时才初始化 */
+    private static final class Seeder {
+        private static final AtomicLong SEED = new AtomicLong(new SecureRandom().nextLong());
+
+        static long next() {
+            return SEED.getAndAdd(2 * GOLDEN_GAMMA);
+        }
+    }
+
+    /** xorshift128+，只在所属线程里使用 */
+    static final class Generator {
+        private long s0;
+        private long s1;
+
+        Generator(long seed) {
+            s0 = mix64(seed);
+            s1 = mix64(seed + GOLDEN_GAMMA);
+            if (s0 == 0L && s1 == 0L) {
+                s1 = 1L;
+            }
+        }
+
+        long nextId() {
+            long id;
+            do {
+                id = next();
+            } while (id == 0L);
+            return id;
+        }
+
+        long nextTraceIdHigh() {
+            long seconds = SystemClock.now() / 1000L;
+            return (seconds << 32) | (next() & 0xFFFFFFFFL);
+        }
+
+        long next() {
+            long x = s0;
+            long y = s1;
+            s0 = y;
+            x ^= x << 23;
+            s1 = x ^ y ^ (x >>> 17) ^ (y >>> 26);
+            return s1 + y;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example;
+
+import brave.Span;
+import brave.Tracer;
+import com.jcfc.microservice.tracer.TracerManager;
+import com.jcfc.microservice.tracer.http.TracingHttpAsyncClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.util.EntityUtils;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 非阻塞httpclient的调用链：本地起一个http服务回显收到的B3头，
+ * 并发发出请求，检查服务端收到的traceId、回调线程上的当前span以及采集后响应体是否还能完整读取。
+ */
+public class HttpAsyncClientDemo {
+
+    public static void main(String[] args) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/echo", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws java.io.IOException {
+                StringBuilder body = new StringBuilder("{\"traceId\":\"")
+                        .append(exchange.getRequestHeaders().getFirst("X-B3-TraceId"))
+                        .append("\",\"padding\":\"");
+                for (int i = 0; i < 2000; i++) {
+                    body.append('x');
+                }
+                byte[] bytes = body.append("\"}").toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            }
+        });
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/echo";
+
+        final Tracer tracer = TracerManager.getInstance().getTracing().tracer();
+        final int requests = 20;
+        final CountDownLatch done = new CountDownLatch(requests);
+        try (TracingHttpAsyncClient client = new TracingHttpAsyncClient()) {
+            client.start();
+            for (int i = 0; i < requests; i++) {
+                final Span parent = tracer.newTrace().name("async-demo").start();
+                try (Tracer.SpanInScope ws = tracer.withSpanInScope(parent)) {
+                    client.get(url, new FutureCallback<HttpResponse>() {
+                        @Override
+                        public void completed(HttpResponse response) {
+                            try {
+                                String body = EntityUtils.toString(response.getEntity());
+                                Span current = tracer.currentSpan();
+                                boolean propagated = body.contains(parent.context().traceIdString());
+                                boolean restored = current != null
+                                        && current.context().spanId() == parent.context().spanId();
+                                System.out.println("propagated=" + propagated + " restored=" + restored
+                                        + " bodyLength=" + body.length() + " thread=" + Thread.currentThread().getName());
+                            } catch (Exception e) {
+                                e.printStackTrace();
+                            } finally {
+                                parent.finish();
+                                done.countDown();
+                            }
+                        }
+
+                        @Override
+                        public void failed(Exception ex) {
+                            ex.printStackTrace();
+                            parent.finish();
+                            done.countDown();
+                        }
+
+                        @Override
+                        public void cancelled() {
+                            parent.finish();
+                            done.countDown();
+                        }
+                    });
+                }
+            }
+            if (!done.await(10, TimeUnit.SECONDS)) {
+                System.out.println("timeout, pending=" + done.getCount());
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+}
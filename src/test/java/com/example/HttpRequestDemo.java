@@ -40,10 +40,13 @@ public class HttpRequestDemo {
 
         logger.debug("ceshi11");
 
-        Span httpclientSpan = handler.handle(connection, param);
+        Span httpclientSpan = handler.prepare(connection, param);
         Throwable error = null;
+        long responseAt = 0L;
         try (Tracer.SpanInScope ws = handler.getTracer().withSpanInScope(httpclientSpan)) {
+            handler.start(httpclientSpan);
             connection.connect();
+            responseAt = handler.awaitResponse(connection, httpclientSpan);
             logger.debug("ceshi33");
 
             in = new BufferedReader(new InputStreamReader(
@@ -60,7 +63,11 @@ public class HttpRequestDemo {
                 in.close();
             }
             //we have a synchronous response, so we can finish the span
-            handler.handleSend(result, error, httpclientSpan);
+            if (responseAt > 0L) {
+                handler.handleSend(result, error, httpclientSpan, responseAt);
+            } else {
+                handler.handleSend(result, error, httpclientSpan);
+            }
         }
         logger.debug("ceshi22");
 
@@ -86,14 +93,17 @@ public class HttpRequestDemo {
         conn.setRequestProperty("Accept-Charset", "utf-8");
         conn.setRequestProperty("contentType", "utf-8");
 
-        Span httpclientSpan = handler.handle(conn, param);
+        Span httpclientSpan = handler.prepare(conn, param);
         Throwable error = null;
+        long responseAt = 0L;
         try (Tracer.SpanInScope ws = handler.getTracer().withSpanInScope(httpclientSpan)) {
             conn.setDoOutput(true);
             conn.setDoInput(true);
+            handler.start(httpclientSpan);
             out = new PrintWriter(conn.getOutputStream());
             out.print(param);
             out.flush();
+            responseAt = handler.awaitResponse(conn, httpclientSpan);
 
             in = new BufferedReader(new InputStreamReader(conn.getInputStream(),
                     "UTF-8"));
@@ -112,7 +122,11 @@ public class HttpRequestDemo {
                 in.close();
             }
             //we have a synchronous response, so we can finish the span
-            handler.handleSend(result, error, httpclientSpan);
+            if (responseAt > 0L) {
+                handler.handleSend(result, error, httpclientSpan, responseAt);
+            } else {
+                handler.handleSend(result, error, httpclientSpan);
+            }
         }
 
         return result;
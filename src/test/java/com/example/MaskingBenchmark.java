@@ -0,0 +1,53 @@
+package com.example;
+
+import com.jcfc.microservice.tracer.TracerManager;
+import com.jcfc.microservice.tracer.utils.PayloadMasker;
+
+/**
+ * 报文脱敏的吞吐：几类典型报文（带敏感字段的JSON、逗号拼接的dubbo参数、表单、没有命中的JSON）
+ * 各跑若干轮，输出每秒处理的报文数和字节数。规则取test/resources/tracer.properties。
+ */
+public class MaskingBenchmark {
+
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 1000000;
+
+    public static void main(String[] args) {
+        TracerManager.getInstance().getTracing();
+        PayloadMasker masker = PayloadMasker.current();
+        if (!masker.isEnabled()) {
+            System.out.println("tracer.mask.enabled未开启");
+            return;
+        }
+
+        String[] payloads = {
+                "{\"customer\":{\"name\":\"张三\",\"idNo\":\"110101199001011234\",\"mobile\":\"13812345678\"},"
+                        + "\"loan\":{\"amount\":50000,\"term\":12,\"cardNo\":\"6222021234567890128\"},"
+                        + "\"orders\":[{\"orderId\":\"2018032112345678901\",\"status\":\"PAID\"},"
+                        + "{\"orderId\":\"2018032112345678902\",\"status\":\"NEW\"}]}",
+                "10086,\"13812345678\",{\"userId\":10086,\"password\":\"secret\",\"channel\":\"APP\"}",
+                "userId=10086&mobile=13812345678&password=secret&redirect=%2Fhome",
+                "{\"code\":\"0000\",\"message\":\"success\",\"data\":{\"items\":[1,2,3,4,5],\"total\":5,"
+                        + "\"traceId\":\"4bf92f3577b34da6a3ce929d0e0e4736\"}}"
+        };
+        String[] names = {"json-hit", "dubbo-args", "form", "json-miss"};
+
+        for (int p = 0; p < payloads.length; p++) {
+            String payload = payloads[p];
+            for (int i = 0; i < WARMUP; i++) {
+                masker.mask(payload);
+            }
+            long start = System.nanoTime();
+            int sink = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += masker.mask(payload).length();
+            }
+            long elapsed = System.nanoTime() - start;
+            double perSecond = ITERATIONS * 1e9 / elapsed;
+            System.out.println(String.format("%-10s %8.0f ops/s %8.1f Mchar/s %6d ns/op  sink=%d",
+                    names[p], perSecond, perSecond * payload.length() / 1e6,
+                    elapsed / ITERATIONS, sink));
+            System.out.println("  " + masker.mask(payload));
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.example;
+
+import com.jcfc.microservice.tracer.reporter.PriorityReporter;
+import zipkin2.Call;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.codec.Encoding;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.reporter.AsyncReporter;
+import zipkin2.reporter.Reporter;
+import zipkin2.reporter.ReporterMetrics;
+import zipkin2.reporter.Sender;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 业务线程调用report的开销：zipkin自带的AsyncReporter（加锁的ByteBoundedQueue）和PriorityReporter（无锁环形队列）
+ * 分别在1、16、64个线程下持续上报，sender不做网络发送，只统计收到的span数。
+ * 输出每秒report的次数、每次report的平均耗时，以及实际发送出去的span数。
+ * 之后用带100k字符args/result的span测PriorityReporter在1、2、4、8个编码线程下每秒实际发送出去的span数，
+ * 最后统计两种上报器处理每个span时所有线程合计分配的字节数。
+ */
+public class ReporterBenchmark {
+
+    private static final int[] THREADS = {1, 16, 64};
+    private static final int[] ENCODER_THREADS = {1, 2, 4, 8};
+    private static final long DURATION_MILLIS = 5000L;
+
+    public static void main(String[] args) throws Exception {
+        Span span = span();
+        for (int threads : THREADS) {
+            for (int round = 0; round < 2; round++) {
+                // 第一轮预热
+                boolean print = round == 1;
+                run("async", threads, span, print);
+                run("priority", threads, span, print);
+            }
+        }
+
+        Span heavy = heavySpan();
+        for (int encoders : ENCODER_THREADS) {
+            export(encoders, heavy);
+        }
+
+        Span medium = mediumSpan();
+        for (int round = 0; round < 2; round++) {
+            allocation("async", medium, round == 1);
+            allocation("priority", medium, round == 1);
+        }
+    }
+
+    /** 单线程上报一批span，等全部发送后用所有存活线程的分配字节数之差除以span数 */
+    private static void allocation(String type, Span span, boolean print) throws Exception {
+        NoopSender sender = new NoopSender();
+        Reporter<Span> reporter;
+        if ("async".equals(type)) {
+            reporter = AsyncReporter.builder(sender)
+                    .queuedMaxSpans(100000)
+                    .queuedMaxBytes(256 * 1024 * 1024)
+                    .messageTimeout(100, TimeUnit.MILLISECONDS)
+                    .build();
+        } else {
+            reporter = new PriorityReporter(sender, ReporterMetrics.NOOP_METRICS, 100000, 256 * 1024 * 1024,
+                    1000L, 1, 1, 100L, 1000L);
+        }
+        int count = 50000;
+        long before = allocatedBytes();
+        for (int i = 0; i < count; i++) {
+            reporter.report(span);
+        }
+        while (sender.spans.get() < count) {
+            Thread.sleep(10L);
+        }
+        long allocated = allocatedBytes() - before;
+        ((Closeable) reporter).close();
+        if (print) {
+            System.out.println(String.format("%-8s %8d bytes allocated/span (span json %d bytes)",
+                    type, allocated / count, SpanBytesEncoder.JSON_V2.sizeInBytes(span)));
+        }
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0L;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0L, allocated);
+        }
+        return total;
+    }
+
+    /** 生产者尽量快地上报大span，统计一段时间内实际发送出去的span数 */
+    private static void export(int encoderThreads, final Span span) throws Exception {
+        NoopSender sender = new NoopSender();
+        final PriorityReporter reporter = new PriorityReporter(sender, ReporterMetrics.NOOP_METRICS, 10000,
+                64 * 1024 * 1024, 1000L, encoderThreads, encoderThreads, 500L, 5000L);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MILLIS);
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            producers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (System.nanoTime() < deadline) {
+                        reporter.report(span);
+                    }
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        long sent = sender.spans.get();
+        reporter.close();
+        System.out.println(String.format("export   encoders=%-2d %10.0f spans/s sent",
+                encoderThreads, sent * 1000.0 / DURATION_MILLIS));
+    }
+
+    private static void run(String type, int threads, final Span span, boolean print) throws Exception {
+        final NoopSender sender = new NoopSender();
+        final Reporter<Span> reporter;
+        if ("async".equals(type)) {
+            reporter = AsyncReporter.builder(sender)
+                    .queuedMaxSpans(10000)
+                    .queuedMaxBytes(16 * 1024 * 1024)
+                    .messageTimeout(500, TimeUnit.MILLISECONDS)
+                    .build();
+        } else {
+            reporter = new PriorityReporter(sender, ReporterMetrics.NOOP_METRICS, 10000, 16 * 1024 * 1024,
+                    1000L, 1, 1, 500L, 1000L);
+        }
+
+        final AtomicLong reported = new AtomicLong();
+        final AtomicLong elapsed = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MILLIS);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        long count = 0;
+                        long begin = System.nanoTime();
+                        while ((count & 1023) != 0 || System.nanoTime() < deadline) {
+                            reporter.report(span);
+                            count++;
+                        }
+                        elapsed.addAndGet(System.nanoTime() - begin);
+                        reported.addAndGet(count);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        ((Closeable) reporter).close();
+
+        if (print) {
+            System.out.println(String.format("%-8s threads=%-3d %10.0f reports/s %6d ns/report  sent=%d",
+                    type, threads, reported.get() * 1000.0 / DURATION_MILLIS,
+                    elapsed.get() / Math.max(1L, reported.get()), sender.spans.get()));
+        }
+    }
+
+    private static Span span() {
+        Endpoint local = Endpoint.newBuilder().serviceName("tracer-demo").ip("10.0.0.1").build();
+        return Span.newBuilder().traceId("463ac35c9f6413ad").id("a1").name("post /loan/apply")
+                .kind(Span.Kind.SERVER).localEndpoint(local).timestamp(1L).duration(12000L)
+                .putTag("http.url", "/loan/apply").putTag("http.status_code", "200").build();
+    }
+
+    private static Span mediumSpan() {
+        StringBuilder payload = new StringBuilder();
+        while (payload.length() < 2000) {
+            payload.append("{\"orderId\":\"2018032112345678901\",\"status\":\"PAID\"},");
+        }
+        Endpoint local = Endpoint.newBuilder().serviceName("tracer-demo").ip("10.0.0.1").build();
+        return Span.newBuilder().traceId("463ac35c9f6413af").id("a3").name("post /loan/apply")
+                .kind(Span.Kind.SERVER).localEndpoint(local).timestamp(1L).duration(12000L)
+                .putTag("http.url", "/loan/apply").putTag("args", payload.toString()).build();
+    }
+
+    private static Span heavySpan() {
+        StringBuilder payload = new StringBuilder();
+        while (payload.length() < 100000) {
+            payload.append("{\"orderId\":\"2018032112345678901\",\"status\":\"PAID\",\"amount\":50000},");
+        }
+        Endpoint local = Endpoint.newBuilder().serviceName("tracer-demo").ip("10.0.0.1").build();
+        return Span.newBuilder().traceId("463ac35c9f6413ae").id("a2").name("loanservice.query")
+                .kind(Span.Kind.CLIENT).localEndpoint(local).timestamp(1L).duration(12000L)
+                .putTag("args", payload.toString()).putTag("result", payload.toString()).build();
+    }
+
+    /** 不做网络发送的sender，PriorityReporter一个消息只交来一段拼好的字节，按span开头的{"traceId"计数 */
+    static final class NoopSender extends Sender {
+        private static final byte[] SPAN_START = "{\"traceId\"".getBytes();
+        final AtomicLong spans = new AtomicLong();
+
+        @Override
+        public Encoding encoding() {
+            return Encoding.JSON;
+        }
+
+        @Override
+        public int messageMaxBytes() {
+            return 5 * 1024 * 1024;
+        }
+
+        @Override
+        public int messageSizeInBytes(List<byte[]> encodedSpans) {
+            return Encoding.JSON.listSizeInBytes(encodedSpans);
+        }
+
+        @Override
+        public Call<Void> sendSpans(List<byte[]> encodedSpans) {
+            for (byte[] encoded : encodedSpans) {
+                spans.addAndGet(count(encoded));
+            }
+            return Call.create(null);
+        }
+
+        /** 字符串值里的引号都被转义了，没转义的{"traceId"只会出现在span开头 */
+        static int count(byte[] encoded) {
+            int count = 0;
+            outer:
+            for (int i = 0; i <= encoded.length - SPAN_START.length; i++) {
+                for (int j = 0; j < SPAN_START.length; j++) {
+                    if (encoded[i + j] != SPAN_START[j]) {
+                        continue outer;
+                    }
+                }
+                count++;
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.example;
+
+import com.jcfc.microservice.tracer.TracerManager;
+import com.jcfc.microservice.tracer.reporter.FilteringReporter;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.reporter.Reporter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上报前过滤的开销：按test/resources/tracer.properties里的规则，混合健康检查、成功的带大tag请求、
+ * 失败请求和不命中的span，先测单线程每个span的耗时，再按10万span/秒的速率持续喂入，看过滤是否跟得上。
+ */
+public class SpanFilterBenchmark {
+
+    private static final int WARMUP = 500000;
+    private static final int ITERATIONS = 5000000;
+    private static final int RATE_PER_SECOND = 100000;
+
+    public static void main(String[] args) throws Exception {
+        TracerManager.getInstance().getTracing();
+
+        final AtomicLong reported = new AtomicLong();
+        final AtomicLong tags = new AtomicLong();
+        FilteringReporter reporter = new FilteringReporter(new Reporter<Span>() {
+            @Override
+            public void report(Span span) {
+                reported.incrementAndGet();
+                tags.addAndGet(span.tags().size());
+            }
+        });
+
+        Span[] spans = spans();
+        for (int i = 0; i < WARMUP; i++) {
+            reporter.report(spans[i & 3]);
+        }
+
+        reported.set(0);
+        tags.set(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            reporter.report(spans[i & 3]);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("throughput: %.0f spans/s, %d ns/span, reported=%d, tags=%d",
+                ITERATIONS * 1e9 / elapsed, elapsed / ITERATIONS, reported.get(), tags.get()));
+
+        // 按固定速率喂入，统计落后于计划的时间
+        long interval = TimeUnit.SECONDS.toNanos(1) / RATE_PER_SECOND;
+        long begin = System.nanoTime();
+        long maxLag = 0L;
+        for (int i = 0; i < RATE_PER_SECOND * 3; i++) {
+            long planned = begin + i * interval;
+            while (System.nanoTime() < planned) {
+                // busy wait
+            }
+            reporter.report(spans[i & 3]);
+            maxLag = Math.max(maxLag, System.nanoTime() - planned);
+        }
+        long total = System.nanoTime() - begin;
+        System.out.println(String.format("paced %d spans/s for %dms, max lag %dus",
+                RATE_PER_SECOND, TimeUnit.NANOSECONDS.toMillis(total), TimeUnit.NANOSECONDS.toMicros(maxLag)));
+    }
+
+    private static Span[] spans() {
+        Endpoint local = Endpoint.newBuilder().serviceName("tracer-demo").ip("10.0.0.1").build();
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            payload.append("{\"id\":").append(i).append(",\"status\":\"OK\"},");
+        }
+        return new Span[]{
+                Span.newBuilder().traceId("463ac35c9f6413ad").id("a1").name("get /health")
+                        .kind(Span.Kind.SERVER).localEndpoint(local).timestamp(1L).duration(300L).build(),
+                Span.newBuilder().traceId("463ac35c9f6413ae").id("a2").name("post /loan/apply")
+                        .kind(Span.Kind.SERVER).localEndpoint(local).timestamp(1L).duration(12000L)
+                        .putTag("http.url", "/loan/apply").putTag("args", payload.toString())
+                        .putTag("result", payload.toString()).build(),
+                Span.newBuilder().traceId("463ac35c9f6413af").id("a3").name("post /loan/apply")
+                        .kind(Span.Kind.SERVER).localEndpoint(local).timestamp(1L).duration(12000L)
+                        .putTag("http.url", "/loan/apply").putTag("args", payload.toString())
+                        .putTag("error", "true").build(),
+                Span.newBuilder().traceId("463ac35c9f6413b0").id("a4").name("loanservice.query")
+                        .kind(Span.Kind.CLIENT).localEndpoint(local).timestamp(1L).duration(900000L)
+                        .putTag("dubbo.url", "dubbo://10.0.0.2:20880/LoanService").build()
+        };
+    }
+}
@@ -0,0 +1,303 @@
+package com.example;
+
+import com.jcfc.microservice.tracer.reporter.PriorityReporter;
+import zipkin2.Call;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.codec.Encoding;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.reporter.ReporterMetrics;
+import zipkin2.reporter.Sender;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PriorityReporter直接写JSON的输出和SpanBytesEncoder.JSON_V2逐字节比较
+ * 随机生成200k个span（控制字符、引号、反斜杠、中文、U+2028/2029、代理对和孤立的代理字符，各种可选字段组合），
+ * 每轮1万个交给PriorityReporter，sender收到的消息解析出span后按原span用JSON_V2重新编码拼接，和收到的字节比较；
+ * 发出去的span个数也要和上报的一致，编码出错被丢弃的span会在这里暴露出来。
+ * zipkin 2.3.1的JSON_V2遇到非ASCII字符后面紧跟U+2028/2029时多算了字节数，结果末尾补了0，比较前去掉这些0并计数。
+ * 参数：span个数（默认200000），随机种子（默认当前时间）。不一致时打印第一个不一致的span并以状态1退出。
+ */
+public class SpanJsonFuzz {
+
+    private static final int ROUND = 10000;
+    private static int padded;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] SPECIAL = {'"', '\\', '/', '\t', '\b', '\n', '\r', '\f', '\u0000', '\u001f', '\u007f',
+            '\u0080', '\u00e9', '\u07ff', '\u0800', '\u4e2d', '\u2028', '\u2029', '\ufeff', '\uffff'};
+
+    public static void main(String[] args) throws Exception {
+        int total = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.currentTimeMillis();
+        Random random = new Random(seed);
+        System.out.println("spans=" + total + ", seed=" + seed);
+
+        CapturingSender sender = new CapturingSender();
+        PriorityReporter reporter = new PriorityReporter(sender, ReporterMetrics.NOOP_METRICS, ROUND * 2,
+                512L * 1024 * 1024, 1000L, 1, 1, 10L, 1000L);
+        long id = 0;
+        try {
+            for (int done = 0; done < total; ) {
+                int count = Math.min(ROUND, total - done);
+                Map<String, Span> reported = new HashMap<>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    Span span = span(random, ++id);
+                    reported.put(span.id(), span);
+                    reporter.report(span);
+                }
+                List<byte[]> messages = sender.await(count, TimeUnit.SECONDS.toMillis(30));
+                if (!verify(messages, reported)) {
+                    System.exit(1);
+                }
+                done += count;
+            }
+        } finally {
+            reporter.close();
+        }
+        System.out.println("ok，JSON_V2末尾补0的span：" + padded);
+    }
+
+    /** 每条消息解析出span，按原span用JSON_V2重新编码拼接后和收到的字节比较 */
+    private static boolean verify(List<byte[]> messages, Map<String, Span> reported) {
+        int received = 0;
+        for (byte[] message : messages) {
+            byte[] list = new byte[message.length + 2];
+            list[0] = '[';
+            System.arraycopy(message, 0, list, 1, message.length);
+            list[list.length - 1] = ']';
+            List<byte[]> expected = new ArrayList<>();
+            for (Span decoded : SpanBytesDecoder.JSON_V2.decodeList(list)) {
+                Span original = reported.remove(decoded.id());
+                if (original == null) {
+                    System.out.println("收到未知或重复的span：" + decoded);
+                    return false;
+                }
+                expected.add(trimPadding(SpanBytesEncoder.JSON_V2.encode(original)));
+            }
+            received += expected.size();
+            byte[] joined = join(expected);
+            if (!Arrays.equals(joined, message)) {
+                printMismatch(expected, message);
+                return false;
+            }
+        }
+        if (!reported.isEmpty()) {
+            Span missing = reported.values().iterator().next();
+            System.out.println("收到" + received + "个span，缺少" + reported.size() + "个，例如："
+                    + new String(trimPadding(SpanBytesEncoder.JSON_V2.encode(missing)), UTF_8));
+            return false;
+        }
+        return true;
+    }
+
+    /** 去掉JSON_V2多算大小时末尾留下的0 */
+    private static byte[] trimPadding(byte[] encoded) {
+        int end = encoded.length;
+        while (end > 0 && encoded[end - 1] == 0) {
+            end--;
+        }
+        if (end == encoded.length) {
+            return encoded;
+        }
+        padded++;
+        return Arrays.copyOf(encoded, end);
+    }
+
+    private static byte[] join(List<byte[]> encoded) {
+        int length = Math.max(0, encoded.size() - 1);
+        for (byte[] span : encoded) {
+            length += span.length;
+        }
+        byte[] joined = new byte[length];
+        int pos = 0;
+        for (byte[] span : encoded) {
+            if (pos > 0) {
+                joined[pos++] = ',';
+            }
+            System.arraycopy(span, 0, joined, pos, span.length);
+            pos += span.length;
+        }
+        return joined;
+    }
+
+    private static void printMismatch(List<byte[]> expected, byte[] message) {
+        int pos = 0;
+        for (byte[] span : expected) {
+            int end = Math.min(message.length, pos + span.length);
+            byte[] actual = Arrays.copyOfRange(message, pos, end);
+            if (!Arrays.equals(actual, span)) {
+                System.out.println("不一致\nJSON_V2: " + new String(span, UTF_8)
+                        + "\nwriter:  " + new String(actual, UTF_8));
+                return;
+            }
+            pos = end + 1;
+        }
+        System.out.println("消息长度不一致：" + message.length + "，预计" + join(expected).length);
+    }
+
+    private static Span span(Random random, long id) {
+        Span.Builder span = Span.newBuilder()
+                .traceId(random.nextBoolean() ? hex(random.nextLong()) : hex(random.nextLong()) + hex(random.nextLong()))
+                .id(hex(id));
+        if (random.nextBoolean()) {
+            span.parentId(hex(random.nextLong() | 1L));
+        }
+        if (random.nextInt(5) > 0) {
+            span.kind(Span.Kind.values()[random.nextInt(Span.Kind.values().length)]);
+        }
+        if (random.nextInt(5) > 0) {
+            span.name(string(random, 40));
+        }
+        if (random.nextInt(5) > 0) {
+            span.timestamp(random.nextInt(3) == 0 ? random.nextInt(1000) : Math.abs(random.nextLong()));
+        }
+        if (random.nextInt(5) > 0) {
+            // 一部分进慢调用队列
+            span.duration(random.nextBoolean() ? (long) random.nextInt(2000000) : Math.abs(random.nextLong()));
+        }
+        if (random.nextInt(5) > 0) {
+            span.localEndpoint(endpoint(random));
+        }
+        if (random.nextBoolean()) {
+            span.remoteEndpoint(endpoint(random));
+        }
+        for (int i = random.nextInt(4); i > 0; i--) {
+            span.addAnnotation(Math.abs(random.nextLong()), string(random, 20));
+        }
+        for (int i = random.nextInt(6); i > 0; i--) {
+            span.putTag(string(random, 12) + i, string(random, random.nextInt(10) == 0 ? 2000 : 60));
+        }
+        if (random.nextInt(10) == 0) {
+            // 进错误队列
+            span.putTag("error", string(random, 20));
+        }
+        if (random.nextInt(5) == 0) {
+            span.debug(random.nextBoolean());
+        }
+        if (random.nextInt(5) == 0) {
+            span.shared(random.nextBoolean());
+        }
+        return span.build();
+    }
+
+    private static Endpoint endpoint(Random random) {
+        Endpoint.Builder endpoint = Endpoint.newBuilder();
+        if (random.nextInt(4) > 0) {
+            endpoint.serviceName(string(random, 16));
+        }
+        switch (random.nextInt(4)) {
+            case 0:
+                endpoint.ip((random.nextInt(223) + 1) + "." + random.nextInt(256) + "." + random.nextInt(256)
+                        + "." + random.nextInt(256));
+                break;
+            case 1:
+                endpoint.ip("2001:db8::" + Integer.toHexString(random.nextInt(0x10000)));
+                break;
+            case 2:
+                endpoint.ip("10.0.0." + random.nextInt(256)).ip("fe80::" + Integer.toHexString(random.nextInt(0x10000)));
+                break;
+            default:
+        }
+        if (random.nextBoolean()) {
+            endpoint.port(random.nextInt(65536));
+        }
+        Endpoint result = endpoint.build();
+        if (result.serviceName() == null && result.ipv4() == null && result.ipv6() == null && result.port() == null) {
+            // 解码时不接受空的endpoint
+            return endpoint.port(random.nextInt(65535) + 1).build();
+        }
+        return result;
+    }
+
+    private static String string(Random random, int maxLength) {
+        int length = random.nextInt(maxLength + 1);
+        StringBuilder value = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(8)) {
+                case 0:
+                    value.append(SPECIAL[random.nextInt(SPECIAL.length)]);
+                    break;
+                case 1:
+                    value.append((char) random.nextInt(0x20));
+                    break;
+                case 2:
+                    value.append((char) (0x4e00 + random.nextInt(0x5000)));
+                    break;
+                case 3:
+                    // 代理对
+                    value.appendCodePoint(0x10000 + random.nextInt(0x100000));
+                    break;
+                case 4:
+                    // 孤立的代理字符
+                    value.append((char) (0xd800 + random.nextInt(0x800)));
+                    break;
+                case 5:
+                    value.append((char) (0x80 + random.nextInt(0x780)));
+                    break;
+                default:
+                    value.append((char) (0x20 + random.nextInt(0x5f)));
+            }
+        }
+        return value.toString();
+    }
+
+    private static String hex(long value) {
+        String hex = Long.toHexString(value);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    /** 收下发送的消息，不做网络发送 */
+    static final class CapturingSender extends Sender {
+        private final List<byte[]> messages = new ArrayList<>();
+        private int spans;
+
+        @Override
+        public Encoding encoding() {
+            return Encoding.JSON;
+        }
+
+        @Override
+        public int messageMaxBytes() {
+            return 512 * 1024;
+        }
+
+        @Override
+        public int messageSizeInBytes(List<byte[]> encodedSpans) {
+            return Encoding.JSON.listSizeInBytes(encodedSpans);
+        }
+
+        @Override
+        public synchronized Call<Void> sendSpans(List<byte[]> encodedSpans) {
+            for (byte[] encoded : encodedSpans) {
+                messages.add(encoded);
+                spans += ReporterBenchmark.NoopSender.count(encoded);
+            }
+            notifyAll();
+            return Call.create(null);
+        }
+
+        /** 等收够count个span，或者超时；取走已收到的消息 */
+        synchronized List<byte[]> await(int count, long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining;
+            while (spans < count && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+            // 多等一个消息超时，看看有没有多发
+            wait(50L);
+            List<byte[]> received = new ArrayList<>(messages);
+            messages.clear();
+            spans = 0;
+            return received;
+        }
+    }
+}
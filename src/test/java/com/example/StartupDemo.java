@@ -0,0 +1,57 @@
+package com.example;
+
+import brave.Span;
+import brave.Tracer;
+import com.jcfc.microservice.tracer.TracerManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 冷启动开销：首次获取Tracing的耗时、第一个span从创建到上报的耗时，以及后台上报通道就绪的耗时。
+ * 需要在独立的JVM里运行，TracerManager只能冷启动一次。
+ */
+public class StartupDemo {
+
+    public static void main(String[] args) {
+        long start = System.nanoTime();
+        TracerManager manager = TracerManager.getInstance();
+        Tracer tracer = manager.getTracing().tracer();
+        long initialized = System.nanoTime();
+
+        Span span = tracer.newTrace().name("first-span").start();
+        span.finish();
+        long firstSpan = System.nanoTime();
+
+        while (!manager.isReporterReady() && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30)) {
+            sleep(1);
+        }
+        long ready = System.nanoTime();
+
+        System.out.println("cold start (getTracing): " + micros(initialized - start) + "us");
+        System.out.println("time to first span:      " + micros(firstSpan - start) + "us");
+        System.out.println("reporter ready:          " + micros(ready - start) + "us"
+                + (manager.isReporterReady() ? "" : " (timed out)"));
+
+        //热路径对比
+        int iterations = 100000;
+        long warm = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            tracer.newTrace().name("warm").start().finish();
+        }
+        System.out.println("warm span:               " + (System.nanoTime() - warm) / iterations + "ns/op");
+
+        sleep(1000);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static void sleep(long milliseconds) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(milliseconds);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
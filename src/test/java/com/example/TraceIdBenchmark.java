@@ -0,0 +1,97 @@
+package com.example;
+
+import com.jcfc.microservice.tracer.utils.TraceIds;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 新链路取id的开销：共享的java.util.Random（CAS更新种子）、ThreadLocalRandom和TraceIds（每线程xorshift128+）
+ * 分别在1、16、64个线程下持续取id，每个根span取一个traceId和一个128位traceId的高位。
+ * 输出每秒取id的次数和每次的平均耗时。
+ */
+public class TraceIdBenchmark {
+
+    private static final int[] THREADS = {1, 16, 64};
+    private static final long DURATION_MILLIS = 3000L;
+
+    private interface IdSource {
+        long next();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Random shared = new Random(System.nanoTime());
+        IdSource random = new IdSource() {
+            @Override
+            public long next() {
+                return shared.nextLong() ^ shared.nextLong();
+            }
+        };
+        IdSource threadLocal = new IdSource() {
+            @Override
+            public long next() {
+                return ThreadLocalRandom.current().nextLong() ^ ThreadLocalRandom.current().nextLong();
+            }
+        };
+        IdSource traceIds = new IdSource() {
+            @Override
+            public long next() {
+                return TraceIds.nextId() ^ TraceIds.nextTraceIdHigh();
+            }
+        };
+        for (int threads : THREADS) {
+            for (int round = 0; round < 2; round++) {
+                // 第一轮预热
+                boolean print = round == 1;
+                run("shared-random", random, threads, print);
+                run("thread-local-random", threadLocal, threads, print);
+                run("trace-ids", traceIds, threads, print);
+            }
+        }
+    }
+
+    private static void run(String name, final IdSource source, int threads, boolean print) throws Exception {
+        final AtomicLong generated = new AtomicLong();
+        final AtomicLong elapsed = new AtomicLong();
+        // 结果汇总后输出，防止被优化掉
+        final AtomicLong sink = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MILLIS);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        long count = 0;
+                        long x = 0;
+                        long begin = System.nanoTime();
+                        while ((count & 1023) != 0 || System.nanoTime() < deadline) {
+                            x ^= source.next();
+                            count++;
+                        }
+                        elapsed.addAndGet(System.nanoTime() - begin);
+                        generated.addAndGet(count);
+                        sink.addAndGet(x);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        if (print) {
+            long count = generated.get();
+            System.out.printf("%-20s threads=%-3d ids/s=%,d avg=%.1fns (%d)%n", name, threads,
+                    count * 1000L / DURATION_MILLIS, (double) elapsed.get() / count, sink.get() & 1);
+        }
+    }
+}